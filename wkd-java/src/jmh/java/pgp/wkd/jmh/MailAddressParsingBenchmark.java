@@ -0,0 +1,53 @@
+// SPDX-FileCopyrightText: 2022 Paul Schaub <vanitasvitae@fsfe.org>
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package pgp.wkd.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import pgp.wkd.MailAddressScanner;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compare validating and splitting email addresses using the {@link MailAddressScanner}
+ * against the regular expression it replaced.
+ */
+@State(Scope.Benchmark)
+public class MailAddressParsingBenchmark {
+
+    private static final Pattern PATTERN_EMAIL = Pattern.compile("^([a-zA-Z0-9_!#$%&'*+/=?`{|}~^.-]+)@([a-zA-Z0-9.-]+)$");
+
+    @Param({
+            "Joe.Doe@Example.ORG",
+            "firstname.lastname+newsletter@mail.subdomain.example.org",
+            // invalid, fails late
+            "firstname.lastname@mail.subdomain.example org",
+            // invalid, fails early
+            "first name@example.org"
+    })
+    public String email;
+
+    @Benchmark
+    public void regex(Blackhole blackhole) {
+        Matcher matcher = PATTERN_EMAIL.matcher(email);
+        if (matcher.matches()) {
+            blackhole.consume(matcher.group(1));
+            blackhole.consume(matcher.group(2));
+        }
+    }
+
+    @Benchmark
+    public void scanner(Blackhole blackhole) {
+        int at = MailAddressScanner.scanEmail(email);
+        if (at != -1) {
+            blackhole.consume(email.substring(0, at));
+            blackhole.consume(email.substring(at + 1));
+        }
+    }
+}
@@ -0,0 +1,30 @@
+// SPDX-FileCopyrightText: 2022 Paul Schaub <vanitasvitae@fsfe.org>
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package pgp.wkd.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import pgp.wkd.WKDAddressHelper;
+
+/**
+ * Baseline of extracting the email address from a user-id using {@link WKDAddressHelper#emailFromUserId(String)}.
+ */
+@State(Scope.Benchmark)
+public class UserIdBenchmark {
+
+    @Param({
+            "<joe@example.org>",
+            "Joe Doe <Joe.Doe@Example.ORG> [Work Address]",
+            "Firstname Lastname (Comment with <brackets>) <firstname.lastname@mail.subdomain.example.org>"
+    })
+    public String userId;
+
+    @Benchmark
+    public String emailFromUserId() {
+        return WKDAddressHelper.emailFromUserId(userId);
+    }
+}
@@ -0,0 +1,95 @@
+// SPDX-FileCopyrightText: 2022 Paul Schaub <vanitasvitae@fsfe.org>
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package pgp.wkd.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import pgp.wkd.WKDAddress;
+
+import java.net.URI;
+
+/**
+ * Baseline of creating {@link WKDAddress WKDAddresses} and querying their {@link URI URIs}.
+ *
+ * The <pre>fresh*</pre> benchmarks create a new address for every call and therefore include parsing and hashing,
+ * while the <pre>cached*</pre> benchmarks query an address which was created and queried before.
+ */
+@State(Scope.Benchmark)
+public class WKDAddressBenchmark {
+
+    @Param({
+            "Joe.Doe@Example.ORG",
+            "firstname.lastname+newsletter@mail.subdomain.example.org"
+    })
+    public String email;
+
+    private String localPart;
+    private String domainPart;
+    private WKDAddress address;
+
+    @Setup
+    public void setup() {
+        int at = email.indexOf('@');
+        localPart = email.substring(0, at);
+        domainPart = email.substring(at + 1);
+
+        address = WKDAddress.fromEmail(email);
+        address.getDirectMethodURI();
+        address.getAdvancedMethodURI();
+    }
+
+    @Benchmark
+    public WKDAddress fromEmail() {
+        return WKDAddress.fromEmail(email);
+    }
+
+    @Benchmark
+    public WKDAddress fromLocalAndDomainPart() {
+        return WKDAddress.fromLocalAndDomainPart(localPart, domainPart);
+    }
+
+    @Benchmark
+    public URI freshDirectMethodUri() {
+        return WKDAddress.fromEmail(email).getDirectMethodURI();
+    }
+
+    @Benchmark
+    public URI freshAdvancedMethodUri() {
+        return WKDAddress.fromEmail(email).getAdvancedMethodURI();
+    }
+
+    @Benchmark
+    public URI freshDirectMethodPolicyUri() {
+        return WKDAddress.fromEmail(email).getDirectMethodPolicyURI();
+    }
+
+    @Benchmark
+    public URI freshAdvancedMethodPolicyUri() {
+        return WKDAddress.fromEmail(email).getAdvancedMethodPolicyURI();
+    }
+
+    @Benchmark
+    public URI cachedDirectMethodUri() {
+        return address.getDirectMethodURI();
+    }
+
+    @Benchmark
+    public URI cachedAdvancedMethodUri() {
+        return address.getAdvancedMethodURI();
+    }
+
+    @Benchmark
+    public URI cachedDirectMethodPolicyUri() {
+        return address.getDirectMethodPolicyURI();
+    }
+
+    @Benchmark
+    public URI cachedAdvancedMethodPolicyUri() {
+        return address.getAdvancedMethodPolicyURI();
+    }
+}
@@ -0,0 +1,94 @@
+// SPDX-FileCopyrightText: 2022 Paul Schaub <vanitasvitae@fsfe.org>
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package pgp.wkd.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import pgp.wkd.WKDAddress;
+import pgp.wkd.WKDHashEngine;
+import pgp.wkd.discovery.DiscoveryMethod;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Compare the allocation of a single lookup using memoized {@link WKDAddress} URIs against
+ * eagerly hashed addresses which format their URIs on every call.
+ *
+ * A lookup queries the policy and certificate URI of both discovery methods,
+ * while the {@link pgp.wkd.discovery.DiscoveryResponse} of each method asks for the certificate URI again.
+ * Run with the <pre>gc</pre> profiler to see the allocation rate per operation.
+ */
+@State(Scope.Benchmark)
+public class WKDAddressUriBenchmark {
+
+    private final String email = "Joe.Doe@Example.ORG";
+
+    @Benchmark
+    public void memoizedLookup(Blackhole blackhole) {
+        WKDAddress address = WKDAddress.fromEmail(email);
+        for (DiscoveryMethod method : DiscoveryMethod.values()) {
+            blackhole.consume(address.getPolicyUri(method));
+            blackhole.consume(address.getUri(method));
+            blackhole.consume(address.getUri(method));
+        }
+    }
+
+    @Benchmark
+    public void formattingLookup(Blackhole blackhole) throws NoSuchAlgorithmException, UnsupportedEncodingException {
+        FormattingAddress address = new FormattingAddress(email);
+        for (DiscoveryMethod method : DiscoveryMethod.values()) {
+            blackhole.consume(address.getPolicyUri(method));
+            blackhole.consume(address.getUri(method));
+            blackhole.consume(address.getUri(method));
+        }
+    }
+
+    /**
+     * Address which eagerly computes its hash and creates its URIs using {@link String#format(String, Object...)}.
+     */
+    private static final class FormattingAddress {
+
+        private final String domainPart;
+        private final String zbase32LocalPart;
+        private final String percentEncodedLocalPart;
+
+        FormattingAddress(String email) throws NoSuchAlgorithmException, UnsupportedEncodingException {
+            int at = email.indexOf('@');
+            String localPart = email.substring(0, at);
+            this.domainPart = email.substring(at + 1).toLowerCase();
+
+            MessageDigest digest = MessageDigest.getInstance("SHA1");
+            byte[] sha1 = digest.digest(localPart.toLowerCase().getBytes(StandardCharsets.UTF_8));
+            char[] zbase32 = new char[WKDHashEngine.ZBASE32_LENGTH];
+            WKDHashEngine.zBase32Encode(sha1, 0, sha1.length, zbase32, 0);
+            this.zbase32LocalPart = new String(zbase32);
+            this.percentEncodedLocalPart = URLEncoder.encode(localPart, "UTF-8");
+        }
+
+        URI getUri(DiscoveryMethod method) {
+            if (method == DiscoveryMethod.advanced) {
+                return URI.create(String.format("https://openpgpkey.%s/.well-known/openpgpkey/%s/hu/%s?l=%s",
+                        domainPart, domainPart, zbase32LocalPart, percentEncodedLocalPart));
+            }
+            return URI.create(String.format("https://%s/.well-known/openpgpkey/hu/%s?l=%s",
+                    domainPart, zbase32LocalPart, percentEncodedLocalPart));
+        }
+
+        URI getPolicyUri(DiscoveryMethod method) {
+            if (method == DiscoveryMethod.advanced) {
+                return URI.create(String.format("https://openpgpkey.%s/.well-known/openpgpkey/%s/policy",
+                        domainPart, domainPart));
+            }
+            return URI.create(String.format("https://%s/.well-known/openpgpkey/policy", domainPart));
+        }
+    }
+}
@@ -0,0 +1,49 @@
+// SPDX-FileCopyrightText: 2022 Paul Schaub <vanitasvitae@fsfe.org>
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package pgp.wkd.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import pgp.wkd.discovery.WKDPolicy;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Baseline of parsing policy files using {@link WKDPolicy#fromInputStream(java.io.InputStream)}.
+ */
+@State(Scope.Benchmark)
+public class WKDPolicyBenchmark {
+
+    @Param({"empty", "full"})
+    public String policy;
+
+    private byte[] bytes;
+
+    @Setup
+    public void setup() {
+        String content;
+        if (policy.equals("empty")) {
+            content = "";
+        } else {
+            content = "# Policy of example.org\n" +
+                    WKDPolicy.KEYWORD_MAILBOX_ONLY + "\n" +
+                    WKDPolicy.KEYWORD_DANE_ONLY + "\n" +
+                    WKDPolicy.KEYWORD_AUTH_SUBMIT + "\n" +
+                    WKDPolicy.KEYWORD_PROTOCOL_VERSION + ": 13\n" +
+                    WKDPolicy.KEYWORD_SUBMISSION_ADDRESS + ": key-submission@example.org\n";
+        }
+        bytes = content.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public WKDPolicy fromInputStream() throws IOException {
+        return WKDPolicy.fromInputStream(new ByteArrayInputStream(bytes));
+    }
+}
@@ -0,0 +1,9 @@
+// SPDX-FileCopyrightText: 2022 Paul Schaub <vanitasvitae@fsfe.org>
+//
+// SPDX-License-Identifier: Apache-2.0
+
+/**
+ * JMH benchmarks.
+ * Run them using <pre>gradle :wkd-java:jmh</pre>.
+ */
+package pgp.wkd.jmh;
@@ -0,0 +1,91 @@
+// SPDX-FileCopyrightText: 2022 Paul Schaub <vanitasvitae@fsfe.org>
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package pgp.wkd;
+
+import javax.annotation.Nonnull;
+import java.nio.charset.Charset;
+
+/**
+ * {@link CharSequence} view of a region of a byte array containing ASCII characters.
+ * Bytes outside the ASCII range are mapped to chars above 127, so that validators reject them.
+ */
+final class AsciiSequence implements CharSequence {
+
+    @SuppressWarnings("CharsetObjectCanBeUsed")
+    private static final Charset latin1 = Charset.forName("ISO-8859-1");
+
+    private final byte[] bytes;
+    private final int offset;
+    private final int length;
+
+    // Lazily computed, racy single-check is fine since Strings are immutable
+    private String string;
+
+    AsciiSequence(@Nonnull byte[] bytes, int offset, int length) {
+        if (offset < 0 || length < 0 || offset > bytes.length - length) {
+            throw new IndexOutOfBoundsException("Region [" + offset + ", " + (offset + length) +
+                    ") is out of bounds for length " + bytes.length);
+        }
+        this.bytes = bytes;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * Copy the given region of a {@link CharSequence}, which MUST only contain ASCII characters.
+     *
+     * @param chars characters
+     * @param start start index (inclusive)
+     * @param end end index (exclusive)
+     * @return compact copy
+     */
+    static AsciiSequence copyOf(@Nonnull CharSequence chars, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        for (int i = start; i < end; i++) {
+            bytes[i - start] = (byte) chars.charAt(i);
+        }
+        return new AsciiSequence(bytes, 0, bytes.length);
+    }
+
+    byte[] getBytes() {
+        return bytes;
+    }
+
+    int getOffset() {
+        return offset;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + length);
+        }
+        return (char) (bytes[offset + index] & 0xff);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException("Region [" + start + ", " + end + ") is out of bounds for length " + length);
+        }
+        return new AsciiSequence(bytes, offset + start, end - start);
+    }
+
+    @Override
+    @Nonnull
+    public String toString() {
+        String s = string;
+        if (s == null) {
+            s = new String(bytes, offset, length, latin1);
+            string = s;
+        }
+        return s;
+    }
+}
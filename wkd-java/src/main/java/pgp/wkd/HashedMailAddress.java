@@ -0,0 +1,143 @@
+// SPDX-FileCopyrightText: 2022 Paul Schaub <vanitasvitae@fsfe.org>
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package pgp.wkd;
+
+import pgp.wkd.exception.MalformedUserIdException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Result of hashing a single email address using the {@link WKDAddressBatchHasher}.
+ * The result either carries the {@link WKDAddress} and the paths of the certificate file inside the WKD,
+ * or - if the email address is malformed - the reason why it could not be hashed.
+ */
+public final class HashedMailAddress {
+
+    private static final String WELL_KNOWN = ".well-known/openpgpkey/";
+    private static final String HASHED_USER_PATH = "hu/";
+
+    private final String email;
+    private final WKDAddress address;
+    private final String directMethodPath;
+    private final String advancedMethodPath;
+    private final MalformedUserIdException failure;
+
+    private HashedMailAddress(String email,
+                              WKDAddress address,
+                              String directMethodPath,
+                              String advancedMethodPath,
+                              MalformedUserIdException failure) {
+        this.email = email;
+        this.address = address;
+        this.directMethodPath = directMethodPath;
+        this.advancedMethodPath = advancedMethodPath;
+        this.failure = failure;
+    }
+
+    /**
+     * Parse and hash the given email address.
+     * Malformed email addresses do not result in an exception, but in a result carrying the failure.
+     *
+     * @param email email address
+     * @return result
+     */
+    @Nonnull
+    public static HashedMailAddress of(@Nonnull String email) {
+        WKDAddress address;
+        try {
+            address = WKDAddress.fromEmail(email);
+        } catch (MalformedUserIdException e) {
+            return new HashedMailAddress(email, null, null, null, e);
+        }
+
+        String hash = address.getZBase32LocalPart();
+        String domain = address.getDomainPart();
+        String directPath = new StringBuilder(WELL_KNOWN.length() + HASHED_USER_PATH.length() + hash.length())
+                .append(WELL_KNOWN).append(HASHED_USER_PATH).append(hash)
+                .toString();
+        String advancedPath = new StringBuilder(WELL_KNOWN.length() + domain.length() + 1 +
+                HASHED_USER_PATH.length() + hash.length())
+                .append(WELL_KNOWN).append(domain).append('/').append(HASHED_USER_PATH).append(hash)
+                .toString();
+        return new HashedMailAddress(email, address, directPath, advancedPath, null);
+    }
+
+    /**
+     * Return the email address as it was passed in.
+     *
+     * @return email address
+     */
+    @Nonnull
+    public String getEmail() {
+        return email;
+    }
+
+    /**
+     * Return true, if the email address was well-formed and could be hashed.
+     *
+     * @return true if valid
+     */
+    public boolean isValid() {
+        return failure == null;
+    }
+
+    /**
+     * Return the {@link WKDAddress}, or null if the email address was malformed.
+     *
+     * @return address
+     */
+    @Nullable
+    public WKDAddress getAddress() {
+        return address;
+    }
+
+    /**
+     * Return the Z-Base32 encoded hash of the local part, or null if the email address was malformed.
+     * This is the name of the certificate file inside the <pre>hu/</pre> directory.
+     *
+     * @return hash
+     */
+    @Nullable
+    public String getZBase32LocalPart() {
+        return address == null ? null : address.getZBase32LocalPart();
+    }
+
+    /**
+     * Return the path of the certificate file relative to the web root of the direct method,
+     * or null if the email address was malformed.
+     *
+     * Example: <pre>.well-known/openpgpkey/hu/iy9q119eutrkn8s1mk4r39qejnbu3n5q</pre>
+     *
+     * @return direct method path
+     */
+    @Nullable
+    public String getDirectMethodPath() {
+        return directMethodPath;
+    }
+
+    /**
+     * Return the path of the certificate file relative to the web root of the advanced method,
+     * or null if the email address was malformed.
+     *
+     * Example: <pre>.well-known/openpgpkey/example.org/hu/iy9q119eutrkn8s1mk4r39qejnbu3n5q</pre>
+     *
+     * @return advanced method path
+     */
+    @Nullable
+    public String getAdvancedMethodPath() {
+        return advancedMethodPath;
+    }
+
+    /**
+     * Return the reason why the email address could not be hashed, or null if it was valid.
+     *
+     * @return failure
+     */
+    @Nullable
+    public MalformedUserIdException getFailure() {
+        return failure;
+    }
+}
@@ -0,0 +1,214 @@
+// SPDX-FileCopyrightText: 2022 Paul Schaub <vanitasvitae@fsfe.org>
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package pgp.wkd;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Validator for email addresses, as well as their local and domain parts, which works in a single pass
+ * over the input and without allocations.
+ *
+ * The accepted inputs are exactly those matched by the following regular expressions
+ * (<a href="https://www.baeldung.com/java-email-validation-regex#regular-expression-by-rfc-5322-for-email-validation">source</a>):
+ * <ul>
+ *     <li>local part: <pre>[a-zA-Z0-9_!#$%&amp;'*+/=?`{|}~^.-]+</pre></li>
+ *     <li>domain part: <pre>[a-zA-Z0-9.-]+</pre></li>
+ *     <li>email address: local part, followed by <pre>@</pre>, followed by domain part</li>
+ * </ul>
+ */
+public final class MailAddressScanner {
+
+    private static final byte LOCAL_PART = 0x01;
+    private static final byte DOMAIN_PART = 0x02;
+
+    // States of the user-id scanner
+    private static final int OUTSIDE_BRACKETS = 0;
+    private static final int IN_LOCAL_PART = 1;
+    private static final int IN_DOMAIN_PART = 2;
+
+    // Character classes of the ASCII characters. Non-ASCII characters are never valid.
+    private static final byte[] CHARACTER_CLASSES = new byte[128];
+
+    static {
+        for (char c = 'a'; c <= 'z'; c++) {
+            CHARACTER_CLASSES[c] = LOCAL_PART | DOMAIN_PART;
+        }
+        for (char c = 'A'; c <= 'Z'; c++) {
+            CHARACTER_CLASSES[c] = LOCAL_PART | DOMAIN_PART;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            CHARACTER_CLASSES[c] = LOCAL_PART | DOMAIN_PART;
+        }
+        CHARACTER_CLASSES['.'] = LOCAL_PART | DOMAIN_PART;
+        CHARACTER_CLASSES['-'] = LOCAL_PART | DOMAIN_PART;
+        for (char c : "_!#$%&'*+/=?`{|}~^".toCharArray()) {
+            CHARACTER_CLASSES[c] = LOCAL_PART;
+        }
+    }
+
+    private MailAddressScanner() {
+
+    }
+
+    /**
+     * Validate the given email address and return the index of the '@' which separates local and domain part.
+     *
+     * @param email email address
+     * @return index of the separating '@', or -1 if the email address is invalid
+     */
+    public static int scanEmail(@Nonnull CharSequence email) {
+        return scanEmail(email, 0, email.length());
+    }
+
+    /**
+     * Validate the email address in the given region of a {@link CharSequence} and return the index of the '@'
+     * which separates local and domain part.
+     *
+     * @param chars characters containing the email address
+     * @param start start index of the email address (inclusive)
+     * @param end end index of the email address (exclusive)
+     * @return index of the separating '@' within the characters, or -1 if the email address is invalid
+     */
+    public static int scanEmail(@Nonnull CharSequence chars, int start, int end) {
+        if (start < 0 || end > chars.length() || start > end) {
+            throw new IndexOutOfBoundsException("Region [" + start + ", " + end + ") is out of bounds for length " +
+                    chars.length());
+        }
+        int at = -1;
+        for (int i = start; i < end; i++) {
+            char c = chars.charAt(i);
+            if (at == -1) {
+                if (c == '@') {
+                    if (i == start) {
+                        // empty local part
+                        return -1;
+                    }
+                    at = i;
+                } else if (!isLocalPartChar(c)) {
+                    return -1;
+                }
+            } else if (!isDomainPartChar(c)) {
+                // this includes a second '@'
+                return -1;
+            }
+        }
+
+        if (at == -1 || at == end - 1) {
+            // missing '@' or empty domain part
+            return -1;
+        }
+        return at;
+    }
+
+    /**
+     * Return true, if the given string is a valid email address.
+     *
+     * @param email email address
+     * @return true if valid
+     */
+    public static boolean isValidEmail(@Nonnull CharSequence email) {
+        return scanEmail(email) != -1;
+    }
+
+    /**
+     * Return true, if the given string is a valid local part of an email address.
+     *
+     * @param localPart local part
+     * @return true if valid
+     */
+    public static boolean isValidLocalPart(@Nonnull CharSequence localPart) {
+        return matchesClass(localPart, LOCAL_PART);
+    }
+
+    /**
+     * Return true, if the given string is a valid domain part of an email address.
+     *
+     * @param domainPart domain part
+     * @return true if valid
+     */
+    public static boolean isValidDomainPart(@Nonnull CharSequence domainPart) {
+        return matchesClass(domainPart, DOMAIN_PART);
+    }
+
+    /**
+     * Find all email addresses enclosed in angle brackets (e.g. <pre>&lt;alice@pgpainless.org&gt;</pre>)
+     * in the given user-id and pass their offsets to the given consumer, in order of their occurrence.
+     * The user-id is scanned exactly once, so the runtime is linear in its length, regardless of its contents.
+     *
+     * @param userId user-id
+     * @param consumer consumer of the offsets
+     */
+    public static void scanUserId(@Nonnull CharSequence userId, @Nonnull SpanConsumer consumer) {
+        int state = OUTSIDE_BRACKETS;
+        int start = 0;
+        int at = 0;
+        int length = userId.length();
+        for (int i = 0; i < length; i++) {
+            char c = userId.charAt(i);
+            if (c == '<') {
+                // '<' is neither valid in local nor domain part, so it always starts a new candidate
+                state = IN_LOCAL_PART;
+                start = i + 1;
+                continue;
+            }
+            switch (state) {
+                case IN_LOCAL_PART:
+                    if (c == '@' && i > start) {
+                        state = IN_DOMAIN_PART;
+                        at = i;
+                    } else if (!isLocalPartChar(c)) {
+                        state = OUTSIDE_BRACKETS;
+                    }
+                    break;
+                case IN_DOMAIN_PART:
+                    if (c == '>' && i > at + 1) {
+                        consumer.accept(start, i);
+                        state = OUTSIDE_BRACKETS;
+                    } else if (!isDomainPartChar(c)) {
+                        state = OUTSIDE_BRACKETS;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    static boolean isLocalPartChar(char c) {
+        return c < 128 && (CHARACTER_CLASSES[c] & LOCAL_PART) != 0;
+    }
+
+    static boolean isDomainPartChar(char c) {
+        return c < 128 && (CHARACTER_CLASSES[c] & DOMAIN_PART) != 0;
+    }
+
+    private static boolean matchesClass(CharSequence string, byte characterClass) {
+        int length = string.length();
+        if (length == 0) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            char c = string.charAt(i);
+            if (c >= 128 || (CHARACTER_CLASSES[c] & characterClass) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Callback for the offsets of email addresses found in a user-id.
+     */
+    public interface SpanConsumer {
+
+        /**
+         * Accept the offsets of an email address.
+         *
+         * @param start index of the first character of the email address (inclusive)
+         * @param end index after the last character of the email address (exclusive)
+         */
+        void accept(int start, int end);
+    }
+}
@@ -4,60 +4,53 @@
 
 package pgp.wkd;
 
-import org.apache.commons.codec.binary.ZBase32;
 import pgp.wkd.discovery.DiscoveryMethod;
 import pgp.wkd.exception.MalformedUserIdException;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URLEncoder;
-import java.nio.charset.Charset;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 /**
  * Create {@link URI URIs} for discovery of certificates in the OpenPGP Web Key Directory.
+ * Instances are immutable. The hash of the local part and the {@link URI URIs} are computed on first use and cached.
+ * Addresses are compared by their {@link #getEmail() email address}, that is by their case-sensitive local part and
+ * their case-insensitive domain part.
  *
  * @see <a href="https://www.ietf.org/archive/id/draft-koch-openpgp-webkey-service-13.html#name-key-discovery">
  *     OpenPGP Web Key Directory - §3.1. Key Discovery</a>
  */
 public final class WKDAddress {
 
-    // RegExs for Email Addresses.
-    // https://www.baeldung.com/java-email-validation-regex#regular-expression-by-rfc-5322-for-email-validation
-    // Modified by adding capture groups '()' for local and domain part
-    private static final Pattern PATTERN_EMAIL = Pattern.compile("^([a-zA-Z0-9_!#$%&'*+/=?`{|}~^.-]+)@([a-zA-Z0-9.-]+)$");
-    // Validate just the local part
-    private static final Pattern PATTERN_LOCAL_PART = Pattern.compile("^[a-zA-Z0-9_!#$%&'*+/=?`{|}~^.-]+$");
-    // Validate just the domain part
-    private static final Pattern PATTERN_DOMAIN_PART = Pattern.compile("[a-zA-Z0-9.-]+$");
-
-    // Android API lvl 10 does not yet know StandardCharsets.UTF_8 :/
-    @SuppressWarnings("CharsetObjectCanBeUsed")
-    private static final Charset utf8 = Charset.forName("UTF8");
-    // Z-Base32 encoding is described in https://www.rfc-editor.org/rfc/rfc6189.html#section-5.1.6
-    private static final ZBase32 zBase32 = new ZBase32();
-
-    private final String localPart;
-    private final String domainPart;
-    private final String zbase32LocalPart;
-    private final String percentEncodedLocalPart;
+    private static final String LOCAL_PART_QUERY = "?l=";
+
+    private static volatile WKDAddressInterner interner;
+
+    // String, or a compact copy if the address was not created from a String
+    private final CharSequence localPart;
+    private final WKDDomain domain;
+
+    // Lazily computed on first use
+    private volatile String email;
+    private volatile WKDHash hash;
+    private volatile String zbase32LocalPart;
+    private volatile String percentEncodedLocalPart;
+    private volatile URI directMethodUri;
+    private volatile URI advancedMethodUri;
 
     /**
      * Construct a {@link WKDAddress} from an email address' local part and domain part.
      *
      * @param localPart local part of the email address, case-sensitive
-     * @param domainPart domain part of the email address, case-insensitive
+     * @param domain domain of the email address
      */
-    private WKDAddress(String localPart, String domainPart) {
+    private WKDAddress(CharSequence localPart, WKDDomain domain) {
         this.localPart = localPart;
-        this.domainPart = domainPart.toLowerCase();
-
-        this.zbase32LocalPart = sha1AndZBase32Encode(this.localPart);
-        this.percentEncodedLocalPart = percentEncode(this.localPart);
+        this.domain = domain;
     }
 
     /**
@@ -71,25 +64,158 @@ public final class WKDAddress {
      */
     @Nonnull
     public static WKDAddress fromLocalAndDomainPart(@Nonnull String localPart, @Nonnull String domainPart) {
-        if (!PATTERN_LOCAL_PART.matcher(localPart).matches()) {
+        if (!MailAddressScanner.isValidLocalPart(localPart)) {
             throw new IllegalArgumentException("Invalid local part.");
         }
-        if (!PATTERN_DOMAIN_PART.matcher(domainPart).matches()) {
+        if (!MailAddressScanner.isValidDomainPart(domainPart)) {
             throw new IllegalArgumentException("Invalid domain part.");
         }
 
-        return new WKDAddress(localPart, domainPart);
+        return new WKDAddress(localPart, WKDDomain.ofValidated(domainPart.toLowerCase()));
     }
 
     /**
      * Transform an email address into a {@link WKDAddress} from which lookup {@link URI URIs} can be generated.
+     * If a {@link WKDAddressInterner} is registered, the canonical instance for the email address is returned.
      *
      * @param email email address, case sensitive
      * @return WKDAddress object
      */
     public static WKDAddress fromEmail(@Nonnull String email) throws MalformedUserIdException {
-        MailAddress mailAddress = parseMailAddress(email);
-        return new WKDAddress(mailAddress.getLocalPart(), mailAddress.getDomainPart());
+        WKDAddressInterner interner = WKDAddress.interner;
+        if (interner != null) {
+            return interner.intern(email);
+        }
+        return parse(email);
+    }
+
+    /**
+     * Register a {@link WKDAddressInterner} which is consulted by {@link #fromEmail(String)},
+     * so that repeated lookups of the same email address return the same cached {@link WKDAddress} instance.
+     * Passing null disables interning.
+     *
+     * @param interner interner or null
+     */
+    public static void setInterner(@Nullable WKDAddressInterner interner) {
+        WKDAddress.interner = interner;
+    }
+
+    /**
+     * Return the {@link WKDAddressInterner} used by {@link #fromEmail(String)}, if any.
+     *
+     * @return interner or null
+     */
+    @Nullable
+    public static WKDAddressInterner getInterner() {
+        return interner;
+    }
+
+    /**
+     * Parse an email address into a new {@link WKDAddress} instance, bypassing the interner.
+     *
+     * @param email email address, case sensitive
+     * @return new WKDAddress object
+     */
+    @Nonnull
+    static WKDAddress parse(@Nonnull String email) throws MalformedUserIdException {
+        int at = MailAddressScanner.scanEmail(email);
+        if (at == -1) {
+            throw new MalformedUserIdException("Invalid email address.");
+        }
+        return new WKDAddress(email.substring(0, at), WKDDomain.ofValidated(email.substring(at + 1).toLowerCase()));
+    }
+
+    /**
+     * Create a {@link WKDAddress} from an email address given as {@link CharSequence}.
+     *
+     * @see #fromEmail(CharSequence, int, int)
+     *
+     * @param email email address, case sensitive
+     * @return WKDAddress object
+     * @throws MalformedUserIdException in case of a malformed email address
+     */
+    @Nonnull
+    public static WKDAddress fromEmail(@Nonnull CharSequence email) throws MalformedUserIdException {
+        return fromEmail(email, 0, email.length());
+    }
+
+    /**
+     * Create a {@link WKDAddress} from the email address in the given region of a {@link CharSequence}.
+     * The address is validated and split in place. Only the local part is copied in a compact form,
+     * the email address {@link String} is materialized once {@link #getEmail()} is called.
+     * Since the input is not a {@link String}, this method does not consult the {@link WKDAddressInterner}.
+     *
+     * @param email characters containing the email address, case sensitive
+     * @param start start index of the email address (inclusive)
+     * @param end end index of the email address (exclusive)
+     * @return WKDAddress object
+     * @throws MalformedUserIdException in case of a malformed email address
+     */
+    @Nonnull
+    public static WKDAddress fromEmail(@Nonnull CharSequence email, int start, int end)
+            throws MalformedUserIdException {
+        int at = MailAddressScanner.scanEmail(email, start, end);
+        if (at == -1) {
+            throw new MalformedUserIdException("Invalid email address.");
+        }
+        return new WKDAddress(AsciiSequence.copyOf(email, start, at),
+                WKDDomain.ofValidated(lowerCaseAscii(email, at + 1, end)));
+    }
+
+    /**
+     * Create a {@link WKDAddress} from an ASCII encoded email address in the given region of a byte array,
+     * e.g. a network buffer.
+     * The address is validated, split and hashed without decoding it into a {@link String} first.
+     * The buffer can be reused once this method returns.
+     *
+     * @see #fromEmail(CharSequence, int, int)
+     *
+     * @param email buffer containing the ASCII encoded email address, case sensitive
+     * @param offset offset of the email address in the buffer
+     * @param length length of the email address
+     * @return WKDAddress object
+     * @throws MalformedUserIdException in case of a malformed email address
+     */
+    @Nonnull
+    public static WKDAddress fromEmail(@Nonnull byte[] email, int offset, int length)
+            throws MalformedUserIdException {
+        AsciiSequence chars = new AsciiSequence(email, offset, length);
+        int at = MailAddressScanner.scanEmail(chars, 0, length);
+        if (at == -1) {
+            throw new MalformedUserIdException("Invalid email address.");
+        }
+        AsciiSequence localPart = new AsciiSequence(Arrays.copyOfRange(email, offset, offset + at), 0, at);
+        return new WKDAddress(localPart, WKDDomain.ofValidated(lowerCaseAscii(chars, at + 1, length)));
+    }
+
+    /**
+     * Create a {@link WKDAddress} from the ASCII encoded email address between the position and the limit of the
+     * given {@link ByteBuffer}. The position of the buffer is not changed.
+     *
+     * @see #fromEmail(byte[], int, int)
+     *
+     * @param email buffer containing the ASCII encoded email address, case sensitive
+     * @return WKDAddress object
+     * @throws MalformedUserIdException in case of a malformed email address
+     */
+    @Nonnull
+    public static WKDAddress fromEmail(@Nonnull ByteBuffer email) throws MalformedUserIdException {
+        if (email.hasArray()) {
+            return fromEmail(email.array(), email.arrayOffset() + email.position(), email.remaining());
+        }
+        // Direct or read-only buffer
+        byte[] copy = new byte[email.remaining()];
+        email.duplicate().get(copy);
+        return fromEmail(copy, 0, copy.length);
+    }
+
+    private static String lowerCaseAscii(CharSequence chars, int start, int end) {
+        char[] lowerCase = new char[end - start];
+        for (int i = start; i < end; i++) {
+            char c = chars.charAt(i);
+            lowerCase[i - start] = c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+        }
+        return new String(lowerCase);
     }
 
     /**
@@ -118,14 +244,7 @@ public final class WKDAddress {
      */
     @Nonnull
     public URI getPolicyUri(@Nonnull DiscoveryMethod method) {
-        switch (method) {
-            case advanced:
-                return getAdvancedMethodPolicyURI();
-            case direct:
-                return getDirectMethodPolicyURI();
-            default:
-                throw new IllegalArgumentException("Invalid discovery method: " + method);
-        }
+        return domain.getPolicyUri(method);
     }
 
     /**
@@ -135,7 +254,45 @@ public final class WKDAddress {
      */
     @Nonnull
     public String getEmail() {
-        return localPart + '@' + domainPart;
+        String email = this.email;
+        if (email == null) {
+            String domainName = domain.getName();
+            email = new StringBuilder(localPart.length() + 1 + domainName.length())
+                    .append(localPart).append('@').append(domainName)
+                    .toString();
+            this.email = email;
+        }
+        return email;
+    }
+
+    /**
+     * Return the local part of the email address (the part before the '@').
+     *
+     * @return local part, case-sensitive
+     */
+    @Nonnull
+    public String getLocalPart() {
+        return localPart.toString();
+    }
+
+    /**
+     * Return the lower-case domain part of the email address (the part after the '@').
+     *
+     * @return domain part
+     */
+    @Nonnull
+    public String getDomainPart() {
+        return domain.getName();
+    }
+
+    /**
+     * Return the {@link WKDDomain} of the email address.
+     *
+     * @return domain
+     */
+    @Nonnull
+    public WKDDomain getDomain() {
+        return domain;
     }
 
     /**
@@ -152,9 +309,12 @@ public final class WKDAddress {
      */
     @Nonnull
     public URI getDirectMethodURI() {
-        String urlString = String.format("https://%s/.well-known/openpgpkey/hu/%s?l=%s",
-                domainPart, zbase32LocalPart, percentEncodedLocalPart);
-        return URI.create(urlString);
+        URI uri = directMethodUri;
+        if (uri == null) {
+            uri = createUri(DiscoveryMethod.direct);
+            directMethodUri = uri;
+        }
+        return uri;
     }
 
     /**
@@ -171,9 +331,12 @@ public final class WKDAddress {
      */
     @Nonnull
     public URI getAdvancedMethodURI() {
-        String urlString = String.format("https://openpgpkey.%s/.well-known/openpgpkey/%s/hu/%s?l=%s",
-                domainPart, domainPart, zbase32LocalPart, percentEncodedLocalPart);
-        return URI.create(urlString);
+        URI uri = advancedMethodUri;
+        if (uri == null) {
+            uri = createUri(DiscoveryMethod.advanced);
+            advancedMethodUri = uri;
+        }
+        return uri;
     }
 
     /**
@@ -183,8 +346,7 @@ public final class WKDAddress {
      */
     @Nonnull
     public URI getDirectMethodPolicyURI() {
-        String urlString = String.format("https://%s/.well-known/openpgpkey/policy", domainPart);
-        return URI.create(urlString);
+        return domain.getPolicyUri(DiscoveryMethod.direct);
     }
 
     /**
@@ -194,34 +356,64 @@ public final class WKDAddress {
      */
     @Nonnull
     public URI getAdvancedMethodPolicyURI() {
-        String urlString = String.format("https://openpgpkey.%s/.well-known/openpgpkey/%s/policy",
-                domainPart, domainPart);
-        return URI.create(urlString);
+        return domain.getPolicyUri(DiscoveryMethod.advanced);
+    }
+
+    private URI createUri(DiscoveryMethod method) {
+        String prefix = domain.getUriPrefix(method);
+        String zbase32 = getZBase32LocalPart();
+        String percentEncoded = getPercentEncodedLocalPart();
+        StringBuilder sb = new StringBuilder(prefix.length() + zbase32.length() +
+                LOCAL_PART_QUERY.length() + percentEncoded.length());
+        sb.append(prefix).append(zbase32).append(LOCAL_PART_QUERY).append(percentEncoded);
+        return URI.create(sb.toString());
     }
 
     /**
-     * Calculate the SHA-1 hash sum of the lower-case representation of the given string and encode that using Z-Base32.
+     * Return the Z-Base32 encoded SHA-1 sum of the lower-case local part.
+     * This is the file name of the certificate below the <pre>hu/</pre> directory of the WKD.
      *
-     * @param string string
-     * @return zbase32 encoded sha1 sum of the string
+     * @return zbase32 encoded local part hash
      */
     @Nonnull
-    private String sha1AndZBase32Encode(@Nonnull String string) {
-        String lowerCase = string.toLowerCase();
-        byte[] bytes = lowerCase.getBytes(utf8);
+    public String getZBase32LocalPart() {
+        String zbase32 = zbase32LocalPart;
+        if (zbase32 == null) {
+            zbase32 = getHash().toZBase32();
+            zbase32LocalPart = zbase32;
+        }
+        return zbase32;
+    }
 
-        byte[] sha1;
-        try {
-            MessageDigest digest = MessageDigest.getInstance("SHA1");
-            digest.update(bytes);
-            sha1 = digest.digest();
-        } catch (NoSuchAlgorithmException e) {
-            // SHA-1 is a MUST on JVM implementations
-            throw new AssertionError(e);
+    /**
+     * Return the {@link WKDHash} of the local part.
+     * In contrast to {@link #getZBase32LocalPart()}, it is a compact binary value, suitable as key of lookup structures.
+     *
+     * @return local part hash
+     */
+    @Nonnull
+    public WKDHash getHash() {
+        WKDHash h = hash;
+        if (h == null) {
+            if (localPart instanceof AsciiSequence) {
+                AsciiSequence ascii = (AsciiSequence) localPart;
+                h = WKDHashEngine.getInstance().hash(ascii.getBytes(), ascii.getOffset(), ascii.length());
+            } else {
+                h = WKDHashEngine.getInstance().hash(localPart);
+            }
+            hash = h;
         }
+        return h;
+    }
 
-        String base32KeyHandle = zBase32.encodeAsString(sha1);
-        return base32KeyHandle;
+    @Nonnull
+    private String getPercentEncodedLocalPart() {
+        String percentEncoded = percentEncodedLocalPart;
+        if (percentEncoded == null) {
+            percentEncoded = percentEncode(localPart.toString());
+            percentEncodedLocalPart = percentEncoded;
+        }
+        return percentEncoded;
     }
 
     /**
@@ -239,65 +431,19 @@ public final class WKDAddress {
         }
     }
 
-    /**
-     * Validate an email address string against the regex {@link #PATTERN_EMAIL} and split it into local and domain part.
-     *
-     * @param email email address string
-     * @return validated and split mail address
-     */
-    @Nonnull
-    private static MailAddress parseMailAddress(@Nonnull String email)
-            throws MalformedUserIdException {
-        Matcher matcher = PATTERN_EMAIL.matcher(email);
-        if (!matcher.matches()) {
-            throw new MalformedUserIdException("Invalid email address.");
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
         }
-
-        String localPart = matcher.group(1);
-        String domainPart = matcher.group(2);
-        return new MailAddress(localPart, domainPart);
-    }
-
-    /**
-     * Mail Address data class.
-     */
-    private static class MailAddress {
-        private final String localPart;
-        private final String domainPart;
-
-        /**
-         * Create a MailAddress object.
-         * For the email address "alice@pgpainless.org", the local part would be "alice",
-         * while the domain part would be "pgpainless.org".
-         *
-         * @param localPart local part
-         * @param domainPart domain part
-         */
-        MailAddress(@Nonnull String localPart, @Nonnull String domainPart) {
-            this.localPart = localPart;
-            this.domainPart = domainPart;
-        }
-
-        /**
-         * Get the local part of the email address (the part before the '@').
-         * Example: "pgpainless.org"
-         *
-         * @return local part
-         */
-        @Nonnull
-        public String getLocalPart() {
-            return localPart;
+        if (!(o instanceof WKDAddress)) {
+            return false;
         }
+        return getEmail().equals(((WKDAddress) o).getEmail());
+    }
 
-        /**
-         * Get the domain part of the email address (the part after the '@').
-         * Example: "alice"
-         *
-         * @return domain part
-         */
-        @Nonnull
-        public String getDomainPart() {
-            return domainPart;
-        }
+    @Override
+    public int hashCode() {
+        return getEmail().hashCode();
     }
 }
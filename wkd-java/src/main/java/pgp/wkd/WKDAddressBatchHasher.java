@@ -0,0 +1,88 @@
+// SPDX-FileCopyrightText: 2022 Paul Schaub <vanitasvitae@fsfe.org>
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package pgp.wkd;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Hash large numbers of email addresses in parallel, e.g. to provision the WKD of a mail domain.
+ * Addresses are processed on a {@link ForkJoinPool} and handed to the caller one by one as {@link HashedMailAddress}
+ * results, without collecting them first.
+ * Malformed addresses do not abort the batch, but are reported as results carrying the failure.
+ */
+public final class WKDAddressBatchHasher {
+
+    private final ForkJoinPool pool;
+
+    /**
+     * Create a {@link WKDAddressBatchHasher} which uses the {@link ForkJoinPool#commonPool() common pool}.
+     */
+    public WKDAddressBatchHasher() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Create a {@link WKDAddressBatchHasher} which uses the given {@link ForkJoinPool}.
+     *
+     * @param pool fork-join pool
+     */
+    public WKDAddressBatchHasher(@Nonnull ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Return a lazy parallel {@link Stream} of results for the given email addresses.
+     * The hashing is done when the stream is consumed, on the pool of the thread running the terminal operation.
+     * Results are not necessarily in the order of the input.
+     *
+     * @param emails email addresses
+     * @return stream of results
+     */
+    @Nonnull
+    public static Stream<HashedMailAddress> stream(@Nonnull Stream<String> emails) {
+        return emails.parallel().unordered().map(HashedMailAddress::of);
+    }
+
+    /**
+     * Return a lazy parallel {@link Stream} of results for the given email addresses.
+     *
+     * @see #stream(Stream)
+     *
+     * @param emails email addresses
+     * @return stream of results
+     */
+    @Nonnull
+    public static Stream<HashedMailAddress> stream(@Nonnull Iterable<String> emails) {
+        return stream(StreamSupport.stream(emails.spliterator(), true));
+    }
+
+    /**
+     * Hash the given email addresses on this hashers {@link ForkJoinPool} and pass each result to the consumer.
+     * The consumer is called concurrently from the worker threads of the pool and thus MUST be thread-safe.
+     * This method returns once all addresses were processed.
+     *
+     * @param emails email addresses
+     * @param consumer consumer of the results
+     */
+    public void hashAll(@Nonnull Stream<String> emails, @Nonnull Consumer<HashedMailAddress> consumer) {
+        pool.submit(() -> stream(emails).forEach(consumer)).join();
+    }
+
+    /**
+     * Hash the given email addresses on this hashers {@link ForkJoinPool} and pass each result to the consumer.
+     *
+     * @see #hashAll(Stream, Consumer)
+     *
+     * @param emails email addresses
+     * @param consumer consumer of the results
+     */
+    public void hashAll(@Nonnull Iterable<String> emails, @Nonnull Consumer<HashedMailAddress> consumer) {
+        pool.submit(() -> stream(emails).forEach(consumer)).join();
+    }
+}
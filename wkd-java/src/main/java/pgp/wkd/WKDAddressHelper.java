@@ -7,15 +7,11 @@ package pgp.wkd;
 import pgp.wkd.exception.MalformedUserIdException;
 
 import javax.annotation.Nonnull;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.ArrayList;
+import java.util.List;
 
 public class WKDAddressHelper {
 
-    // Firstname Lastname <email@address> [Optional Comment]
-    // we are only interested in "email@address"
-    private static final Pattern PATTERN_USER_ID = Pattern.compile("^.*\\<([a-zA-Z0-9_!#$%&'*+/=?`{|}~^.-]+@[a-zA-Z0-9.-]+)\\>.*");
-
     /**
      * Parse an email address from a user-id string.
      * The user-id is herein expected to follow the mail name-addr format described in RFC2822.
@@ -33,6 +29,9 @@ public class WKDAddressHelper {
      * @see <a href="https://datatracker.ietf.org/doc/html/rfc2822#section-3.4">
      *     RFC2882 - Internet Message Format - §3.4 Address Specification</a>
      *
+     * If the user-id contains multiple email addresses in angle brackets, the last one is returned.
+     * User-IDs spanning multiple lines are rejected.
+     *
      * @param userId user-id
      * @return email address
      *
@@ -42,13 +41,45 @@ public class WKDAddressHelper {
     @Nonnull
     public static String emailFromUserId(String userId)
             throws MalformedUserIdException {
-        Matcher matcher = PATTERN_USER_ID.matcher(userId);
-        if (!matcher.matches()) {
+        int[] lastSpan = new int[] {-1, -1};
+        if (!containsLineTerminator(userId)) {
+            MailAddressScanner.scanUserId(userId, (start, end) -> {
+                lastSpan[0] = start;
+                lastSpan[1] = end;
+            });
+        }
+        if (lastSpan[0] == -1) {
             throw new MalformedUserIdException("User-ID does not follow excepted pattern \"Firstname Lastname <email.address> [Optional Comment]\"");
         }
 
-        String email = matcher.group(1);
-        return email;
+        return userId.substring(lastSpan[0], lastSpan[1]);
+    }
+
+    /**
+     * Extract all email addresses enclosed in angle brackets from the given user-id.
+     * The runtime is linear in the length of the user-id.
+     *
+     * @param userId user-id
+     * @return email addresses in order of their occurrence, possibly empty
+     */
+    @Nonnull
+    public static List<String> emailsFromUserId(@Nonnull CharSequence userId) {
+        List<String> emails = new ArrayList<>(1);
+        MailAddressScanner.scanUserId(userId, (start, end) -> emails.add(userId.subSequence(start, end).toString()));
+        return emails;
+    }
+
+    /**
+     * Find all email addresses enclosed in angle brackets in the given user-id and pass their offsets
+     * to the given consumer, without copying them out of the user-id.
+     * The runtime is linear in the length of the user-id.
+     *
+     * @param userId user-id
+     * @param consumer consumer of the start (inclusive) and end (exclusive) offsets of each email address
+     */
+    public static void emailOffsetsFromUserId(@Nonnull CharSequence userId,
+                                              @Nonnull MailAddressScanner.SpanConsumer consumer) {
+        MailAddressScanner.scanUserId(userId, consumer);
     }
 
     /**
@@ -63,4 +94,16 @@ public class WKDAddressHelper {
         String email = emailFromUserId(userId);
         return WKDAddress.fromEmail(email);
     }
+
+    // The former regex-based parser used '.' to match the text around the email address,
+    // which does not match line terminators.
+    private static boolean containsLineTerminator(String userId) {
+        for (int i = 0; i < userId.length(); i++) {
+            char c = userId.charAt(i);
+            if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') {
+                return true;
+            }
+        }
+        return false;
+    }
 }
@@ -0,0 +1,196 @@
+// SPDX-FileCopyrightText: 2022 Paul Schaub <vanitasvitae@fsfe.org>
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package pgp.wkd;
+
+import pgp.wkd.exception.MalformedUserIdException;
+
+import javax.annotation.Nonnull;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded, thread-safe cache of canonical {@link WKDAddress} instances, keyed by the normalized email address
+ * (local part as-is, domain part lower-case).
+ * Since {@link WKDAddress} caches its hash and {@link java.net.URI URIs}, interning addresses that are looked up
+ * repeatedly saves parsing and hashing them again.
+ *
+ * The cache is split into segments which are each guarded by their own lock and evict their least recently used
+ * entries once full.
+ * To make {@link WKDAddress#fromEmail(String)} use an interner, register it via
+ * {@link WKDAddress#setInterner(WKDAddressInterner)}.
+ */
+public final class WKDAddressInterner {
+
+    private static final int MAX_SEGMENTS = 16;
+
+    private final Segment[] segments;
+    private final int maximumSize;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Create a {@link WKDAddressInterner} which holds up to <pre>maximumSize</pre> addresses.
+     *
+     * @param maximumSize maximum number of cached addresses
+     */
+    public WKDAddressInterner(int maximumSize) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("Maximum size MUST be positive.");
+        }
+        this.maximumSize = maximumSize;
+
+        // power of two, so that we can select segments using a bit mask
+        int segmentCount = Math.min(MAX_SEGMENTS, Integer.highestOneBit(maximumSize));
+        int segmentSize = (maximumSize + segmentCount - 1) / segmentCount;
+        this.segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment(segmentSize);
+        }
+    }
+
+    /**
+     * Return the canonical {@link WKDAddress} for the given email address.
+     * If the address is not yet cached, it is parsed and added to the cache.
+     *
+     * @param email email address
+     * @return canonical address
+     *
+     * @throws MalformedUserIdException in case of a malformed email address
+     */
+    @Nonnull
+    public WKDAddress intern(@Nonnull String email) throws MalformedUserIdException {
+        String key = normalize(email);
+        Segment segment = segmentFor(key);
+
+        WKDAddress address;
+        synchronized (segment) {
+            address = segment.get(key);
+        }
+        if (address != null) {
+            hits.increment();
+            return address;
+        }
+
+        misses.increment();
+        // Parse outside the lock. Invalid addresses throw and are never cached.
+        WKDAddress parsed = WKDAddress.parse(email);
+        synchronized (segment) {
+            WKDAddress existing = segment.putIfAbsent(key, parsed);
+            return existing != null ? existing : parsed;
+        }
+    }
+
+    /**
+     * Return the number of lookups which were answered from the cache.
+     *
+     * @return hit count
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Return the number of lookups which were not answered from the cache.
+     *
+     * @return miss count
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Return the maximum number of cached addresses.
+     *
+     * @return maximum size
+     */
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * Return the number of currently cached addresses.
+     *
+     * @return size
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Remove all cached addresses. The hit and miss counters are not reset.
+     */
+    public void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    private Segment segmentFor(String key) {
+        int hash = key.hashCode();
+        hash ^= hash >>> 16;
+        return segments[hash & (segments.length - 1)];
+    }
+
+    /**
+     * Lower-case the domain part of the given email address.
+     * Returns the input itself if the domain part is lower-case already.
+     *
+     * @param email email address
+     * @return normalized email address
+     */
+    static String normalize(String email) {
+        int at = email.indexOf('@');
+        if (at == -1) {
+            return email;
+        }
+        int firstUpper = -1;
+        for (int i = at + 1; i < email.length(); i++) {
+            char c = email.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                firstUpper = i;
+                break;
+            }
+        }
+        if (firstUpper == -1) {
+            return email;
+        }
+
+        char[] chars = email.toCharArray();
+        for (int i = firstUpper; i < chars.length; i++) {
+            char c = chars[i];
+            if (c >= 'A' && c <= 'Z') {
+                chars[i] = (char) (c + ('a' - 'A'));
+            }
+        }
+        return new String(chars);
+    }
+
+    /**
+     * LRU segment of the cache. Access MUST be synchronized on the segment.
+     */
+    private static final class Segment extends LinkedHashMap<String, WKDAddress> {
+
+        private final int capacity;
+
+        Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, WKDAddress> eldest) {
+            return size() > capacity;
+        }
+    }
+}
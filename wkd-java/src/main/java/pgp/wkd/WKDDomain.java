@@ -0,0 +1,188 @@
+// SPDX-FileCopyrightText: 2022 Paul Schaub <vanitasvitae@fsfe.org>
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package pgp.wkd;
+
+import pgp.wkd.discovery.DiscoveryMethod;
+
+import javax.annotation.Nonnull;
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Mail domain of one or more {@link WKDAddress WKDAddresses}.
+ * All addresses of a domain share the same hosts, path prefixes and policy {@link URI URIs},
+ * which are therefore computed once per domain.
+ * Domains are compared by their lower-case name, which makes them suitable as keys for per-domain state.
+ *
+ * @see <a href="https://www.ietf.org/archive/id/draft-koch-openpgp-webkey-service-13.html#name-key-discovery">
+ *     OpenPGP Web Key Directory - §3.1. Key Discovery</a>
+ */
+public final class WKDDomain {
+
+    private static final String SCHEME = "https://";
+    private static final String ADVANCED_SUBDOMAIN = "openpgpkey.";
+    private static final String WELL_KNOWN = "/.well-known/openpgpkey/";
+    private static final String HASHED_USER_PATH = "hu/";
+    private static final String POLICY = "policy";
+
+    // Recently used domains are shared between addresses. Each segment evicts its least recently used domains.
+    private static final int CACHE_SEGMENTS = 16;
+    private static final int CACHE_SEGMENT_SIZE = 256;
+    private static final Segment[] CACHE = new Segment[CACHE_SEGMENTS];
+
+    static {
+        for (int i = 0; i < CACHE_SEGMENTS; i++) {
+            CACHE[i] = new Segment(CACHE_SEGMENT_SIZE);
+        }
+    }
+
+    private final String name;
+    private final String directMethodPrefix;
+    private final String advancedMethodPrefix;
+    private final URI directMethodPolicyUri;
+    private final URI advancedMethodPolicyUri;
+
+    private WKDDomain(String name) {
+        this.name = name;
+
+        String directRoot = SCHEME + name + WELL_KNOWN;
+        String advancedRoot = SCHEME + ADVANCED_SUBDOMAIN + name + WELL_KNOWN + name + '/';
+        this.directMethodPrefix = directRoot + HASHED_USER_PATH;
+        this.advancedMethodPrefix = advancedRoot + HASHED_USER_PATH;
+        this.directMethodPolicyUri = URI.create(directRoot + POLICY);
+        this.advancedMethodPolicyUri = URI.create(advancedRoot + POLICY);
+    }
+
+    /**
+     * Return the {@link WKDDomain} for the given domain name.
+     *
+     * @param domainPart domain part of an email address, case-insensitive
+     * @return domain
+     * @throws IllegalArgumentException in case of a malformed domain
+     */
+    @Nonnull
+    public static WKDDomain of(@Nonnull String domainPart) {
+        if (!MailAddressScanner.isValidDomainPart(domainPart)) {
+            throw new IllegalArgumentException("Invalid domain part.");
+        }
+        return ofValidated(domainPart.toLowerCase());
+    }
+
+    /**
+     * Return the {@link WKDDomain} for an already validated, lower-case domain name.
+     *
+     * @param name domain name
+     * @return domain
+     */
+    @Nonnull
+    static WKDDomain ofValidated(@Nonnull String name) {
+        int hash = name.hashCode();
+        Segment segment = CACHE[(hash ^ (hash >>> 16)) & (CACHE_SEGMENTS - 1)];
+        WKDDomain domain;
+        synchronized (segment) {
+            domain = segment.get(name);
+        }
+        if (domain != null) {
+            return domain;
+        }
+
+        // Compute the URIs outside the lock
+        WKDDomain created = new WKDDomain(name);
+        synchronized (segment) {
+            WKDDomain existing = segment.putIfAbsent(name, created);
+            return existing != null ? existing : created;
+        }
+    }
+
+    /**
+     * Return the lower-case name of the domain.
+     *
+     * @return domain name
+     */
+    @Nonnull
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Return the prefix of certificate URIs for the given {@link DiscoveryMethod}.
+     * Appending the hashed local part and the query yields the URI of a certificate.
+     *
+     * Example (direct method): <pre>https://example.org/.well-known/openpgpkey/hu/</pre>
+     * Example (advanced method): <pre>https://openpgpkey.example.org/.well-known/openpgpkey/example.org/hu/</pre>
+     *
+     * @param method discovery method
+     * @return uri prefix
+     */
+    @Nonnull
+    public String getUriPrefix(@Nonnull DiscoveryMethod method) {
+        switch (method) {
+            case advanced:
+                return advancedMethodPrefix;
+            case direct:
+                return directMethodPrefix;
+            default:
+                throw new IllegalArgumentException("Invalid discovery method: " + method);
+        }
+    }
+
+    /**
+     * Return a {@link URI} pointing to the policy document for the given {@link DiscoveryMethod}.
+     *
+     * @param method discovery method
+     * @return policy uri
+     */
+    @Nonnull
+    public URI getPolicyUri(@Nonnull DiscoveryMethod method) {
+        switch (method) {
+            case advanced:
+                return advancedMethodPolicyUri;
+            case direct:
+                return directMethodPolicyUri;
+            default:
+                throw new IllegalArgumentException("Invalid discovery method: " + method);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof WKDDomain)) {
+            return false;
+        }
+        return name.equals(((WKDDomain) o).name);
+    }
+
+    @Override
+    public int hashCode() {
+        return name.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    /**
+     * LRU segment of the domain cache. Access MUST be synchronized on the segment.
+     */
+    private static final class Segment extends LinkedHashMap<String, WKDDomain> {
+
+        private final int capacity;
+
+        Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, WKDDomain> eldest) {
+            return size() > capacity;
+        }
+    }
+}
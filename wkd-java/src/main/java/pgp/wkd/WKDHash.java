@@ -0,0 +1,199 @@
+// SPDX-FileCopyrightText: 2022 Paul Schaub <vanitasvitae@fsfe.org>
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package pgp.wkd;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+
+/**
+ * Immutable WKD hash of a local part, which is the SHA-1 sum of the lower-case local part.
+ * The 160 bits are held in primitive fields, which makes instances compact and cheap to compare,
+ * so that they can be used as keys of large in-memory lookup structures instead of the Z-Base32 encoded
+ * {@link String}.
+ *
+ * @see WKDAddress#getHash()
+ */
+public final class WKDHash {
+
+    private static final byte[] ZBASE32_DECODING = new byte[128];
+
+    static {
+        Arrays.fill(ZBASE32_DECODING, (byte) -1);
+        for (int i = 0; i < WKDHashEngine.ZBASE32_ALPHABET.length; i++) {
+            ZBASE32_DECODING[WKDHashEngine.ZBASE32_ALPHABET[i]] = (byte) i;
+        }
+    }
+
+    // big-endian: bytes 0-7, 8-15 and 16-19 of the SHA-1 sum
+    private final long high;
+    private final long middle;
+    private final int low;
+
+    private WKDHash(long high, long middle, int low) {
+        this.high = high;
+        this.middle = middle;
+        this.low = low;
+    }
+
+    /**
+     * Create a {@link WKDHash} from the {@link WKDHashEngine#SHA1_LENGTH} bytes of a SHA-1 sum.
+     *
+     * @param sha1 buffer containing the SHA-1 sum
+     * @param offset offset of the SHA-1 sum in the buffer
+     * @return hash
+     */
+    @Nonnull
+    public static WKDHash fromBytes(@Nonnull byte[] sha1, int offset) {
+        if (offset < 0 || offset > sha1.length - WKDHashEngine.SHA1_LENGTH) {
+            throw new IndexOutOfBoundsException("Buffer of length " + sha1.length +
+                    " does not contain a SHA-1 sum at offset " + offset);
+        }
+        return new WKDHash(readLong(sha1, offset), readLong(sha1, offset + 8), (int) readBits(sha1, offset + 16, 4));
+    }
+
+    /**
+     * Parse a {@link WKDHash} from its Z-Base32 encoding, as used in WKD URIs.
+     *
+     * @param zbase32 Z-Base32 encoded SHA-1 sum
+     * @return hash
+     * @throws IllegalArgumentException if the input is not a Z-Base32 encoded SHA-1 sum
+     */
+    @Nonnull
+    public static WKDHash fromZBase32(@Nonnull CharSequence zbase32) {
+        if (zbase32.length() != WKDHashEngine.ZBASE32_LENGTH) {
+            throw new IllegalArgumentException("Z-Base32 encoded SHA-1 sum MUST be " +
+                    WKDHashEngine.ZBASE32_LENGTH + " characters long.");
+        }
+        // 8 characters make up 40 bits
+        long group0 = decodeGroup(zbase32, 0);
+        long group1 = decodeGroup(zbase32, 8);
+        long group2 = decodeGroup(zbase32, 16);
+        long group3 = decodeGroup(zbase32, 24);
+        return new WKDHash(
+                (group0 << 24) | (group1 >>> 16),
+                (group1 << 48) | (group2 << 8) | (group3 >>> 32),
+                (int) group3);
+    }
+
+    /**
+     * Write the {@link WKDHashEngine#SHA1_LENGTH} bytes of the SHA-1 sum into the given buffer.
+     *
+     * @param out output buffer
+     * @param offset offset in the output buffer
+     */
+    public void writeBytes(@Nonnull byte[] out, int offset) {
+        if (offset < 0 || offset > out.length - WKDHashEngine.SHA1_LENGTH) {
+            throw new IndexOutOfBoundsException("Buffer of length " + out.length +
+                    " cannot hold a SHA-1 sum at offset " + offset);
+        }
+        writeBits(high, out, offset, 8);
+        writeBits(middle, out, offset + 8, 8);
+        writeBits(low, out, offset + 16, 4);
+    }
+
+    /**
+     * Return the bytes of the SHA-1 sum.
+     *
+     * @return SHA-1 sum
+     */
+    @Nonnull
+    public byte[] toBytes() {
+        byte[] bytes = new byte[WKDHashEngine.SHA1_LENGTH];
+        writeBytes(bytes, 0);
+        return bytes;
+    }
+
+    /**
+     * Write the {@link WKDHashEngine#ZBASE32_LENGTH} characters of the Z-Base32 encoding into the given buffer.
+     *
+     * @param out output buffer
+     * @param offset offset in the output buffer
+     */
+    public void writeZBase32(@Nonnull char[] out, int offset) {
+        if (offset < 0 || offset > out.length - WKDHashEngine.ZBASE32_LENGTH) {
+            throw new IndexOutOfBoundsException("Buffer of length " + out.length +
+                    " cannot hold a Z-Base32 encoded SHA-1 sum at offset " + offset);
+        }
+        encodeGroup(high >>> 24, out, offset);
+        encodeGroup((high << 16) | (middle >>> 48), out, offset + 8);
+        encodeGroup(middle >>> 8, out, offset + 16);
+        encodeGroup((middle << 32) | (low & 0xffffffffL), out, offset + 24);
+    }
+
+    /**
+     * Return the Z-Base32 encoding of the SHA-1 sum.
+     * This is the file name of the certificate below the <pre>hu/</pre> directory of the WKD.
+     *
+     * @return Z-Base32 encoded SHA-1 sum
+     */
+    @Nonnull
+    public String toZBase32() {
+        char[] chars = new char[WKDHashEngine.ZBASE32_LENGTH];
+        writeZBase32(chars, 0);
+        return new String(chars);
+    }
+
+    private static long readLong(byte[] in, int offset) {
+        return readBits(in, offset, 8);
+    }
+
+    private static long readBits(byte[] in, int offset, int length) {
+        long value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            value = (value << 8) | (in[i] & 0xff);
+        }
+        return value;
+    }
+
+    private static void writeBits(long value, byte[] out, int offset, int length) {
+        for (int i = offset + length - 1; i >= offset; i--) {
+            out[i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    private static long decodeGroup(CharSequence zbase32, int offset) {
+        long group = 0;
+        for (int i = offset; i < offset + 8; i++) {
+            char c = zbase32.charAt(i);
+            int value = c < ZBASE32_DECODING.length ? ZBASE32_DECODING[c] : -1;
+            if (value == -1) {
+                throw new IllegalArgumentException("Invalid Z-Base32 character at index " + i + ".");
+            }
+            group = (group << 5) | value;
+        }
+        return group;
+    }
+
+    private static void encodeGroup(long group, char[] out, int offset) {
+        // only the lower 40 bits of the group are encoded
+        for (int i = 0; i < 8; i++) {
+            out[offset + i] = WKDHashEngine.ZBASE32_ALPHABET[(int) (group >>> (35 - 5 * i)) & 0x1f];
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof WKDHash)) {
+            return false;
+        }
+        WKDHash other = (WKDHash) o;
+        return high == other.high && middle == other.middle && low == other.low;
+    }
+
+    @Override
+    public int hashCode() {
+        // SHA-1 output is uniformly distributed, so any of its bits make a good hash code
+        return (int) (high >>> 32);
+    }
+
+    @Override
+    public String toString() {
+        return toZBase32();
+    }
+}
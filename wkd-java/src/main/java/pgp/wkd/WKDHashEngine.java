@@ -0,0 +1,289 @@
+// SPDX-FileCopyrightText: 2022 Paul Schaub <vanitasvitae@fsfe.org>
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package pgp.wkd;
+
+import javax.annotation.Nonnull;
+import java.nio.charset.Charset;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+
+/**
+ * Engine for calculating the WKD hash of an email address' local part.
+ * The hash is the SHA-1 sum of the lower-case local part, encoded using Z-Base32.
+ *
+ * Instances are bound to the calling thread and can be obtained using {@link #getInstance()}.
+ * Apart from the returned {@link String} in {@link #hashLocalPart(CharSequence)}, hashing does not allocate.
+ * Callers that want to avoid even that can pass in their own output buffers.
+ *
+ * @see <a href="https://www.ietf.org/archive/id/draft-koch-openpgp-webkey-service-13.html#section-3.1-5">
+ *     OpenPGP Web Key Directory: §3.1. Key Discovery</a>
+ */
+public final class WKDHashEngine {
+
+    /**
+     * Length of a SHA-1 sum in bytes.
+     */
+    public static final int SHA1_LENGTH = 20;
+
+    /**
+     * Length of a Z-Base32 encoded SHA-1 sum in characters.
+     */
+    public static final int ZBASE32_LENGTH = 32;
+
+    // Z-Base32 encoding is described in https://www.rfc-editor.org/rfc/rfc6189.html#section-5.1.6
+    static final char[] ZBASE32_ALPHABET = "ybndrfg8ejkmcpqxot1uwisza345h769".toCharArray();
+
+    // Android API lvl 10 does not yet know StandardCharsets.UTF_8 :/
+    @SuppressWarnings("CharsetObjectCanBeUsed")
+    private static final Charset utf8 = Charset.forName("UTF8");
+
+    // Local parts are fed into the digest in chunks of this size
+    private static final int CHUNK_SIZE = 64;
+
+    private static final ThreadLocal<WKDHashEngine> INSTANCE = ThreadLocal.withInitial(WKDHashEngine::new);
+
+    private final MessageDigest sha1;
+    private final byte[] inputBuffer = new byte[CHUNK_SIZE];
+    private final byte[] digestBuffer = new byte[SHA1_LENGTH];
+    private final char[] encodingBuffer = new char[ZBASE32_LENGTH];
+
+    private WKDHashEngine() {
+        try {
+            this.sha1 = MessageDigest.getInstance("SHA1");
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-1 is a MUST on JVM implementations
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Return the {@link WKDHashEngine} of the current thread.
+     * The returned instance MUST NOT be shared with other threads.
+     *
+     * @return hash engine
+     */
+    @Nonnull
+    public static WKDHashEngine getInstance() {
+        return INSTANCE.get();
+    }
+
+    /**
+     * Calculate the Z-Base32 encoded SHA-1 sum of the lower-case representation of the given local part.
+     *
+     * @param localPart local part of an email address
+     * @return zbase32 encoded sha1 sum of the lower-case local part
+     */
+    @Nonnull
+    public String hashLocalPart(@Nonnull CharSequence localPart) {
+        hashLocalPart(localPart, encodingBuffer, 0);
+        return new String(encodingBuffer);
+    }
+
+    /**
+     * Calculate the {@link WKDHash} of the given local part.
+     *
+     * @param localPart local part of an email address
+     * @return hash of the lower-case local part
+     */
+    @Nonnull
+    public WKDHash hash(@Nonnull CharSequence localPart) {
+        sha1OfLowerCase(localPart, digestBuffer, 0);
+        return WKDHash.fromBytes(digestBuffer, 0);
+    }
+
+    /**
+     * Calculate the {@link WKDHash} of the local part, which is given as ASCII bytes.
+     *
+     * @param localPart buffer containing the ASCII encoded local part
+     * @param offset offset of the local part in the buffer
+     * @param length length of the local part
+     * @return hash of the lower-case local part
+     */
+    @Nonnull
+    public WKDHash hash(@Nonnull byte[] localPart, int offset, int length) {
+        sha1OfLowerCase(localPart, offset, length, digestBuffer, 0);
+        return WKDHash.fromBytes(digestBuffer, 0);
+    }
+
+    /**
+     * Calculate the Z-Base32 encoded SHA-1 sum of the lower-case representation of the given local part
+     * and write the {@link #ZBASE32_LENGTH} resulting characters into the given buffer.
+     *
+     * @param localPart local part of an email address
+     * @param out output buffer
+     * @param offset offset in the output buffer
+     */
+    public void hashLocalPart(@Nonnull CharSequence localPart, @Nonnull char[] out, int offset) {
+        checkBounds(out.length, offset, ZBASE32_LENGTH);
+        sha1OfLowerCase(localPart, digestBuffer, 0);
+        zBase32Encode(digestBuffer, 0, SHA1_LENGTH, out, offset);
+    }
+
+    /**
+     * Calculate the SHA-1 sum of the lower-case representation of the given local part
+     * and write the {@link #SHA1_LENGTH} resulting bytes into the given buffer.
+     *
+     * @param localPart local part of an email address
+     * @param out output buffer
+     * @param offset offset in the output buffer
+     */
+    public void sha1OfLowerCase(@Nonnull CharSequence localPart, @Nonnull byte[] out, int offset) {
+        checkBounds(out.length, offset, SHA1_LENGTH);
+        sha1.reset();
+
+        int length = localPart.length();
+        int buffered = 0;
+        for (int i = 0; i < length; i++) {
+            char c = localPart.charAt(i);
+            if (c >= 0x80) {
+                // Valid local parts are ASCII only, so this is the rare case.
+                sha1.reset();
+                sha1.update(localPart.toString().toLowerCase(Locale.ROOT).getBytes(utf8));
+                finishDigest(out, offset);
+                return;
+            }
+            if (c >= 'A' && c <= 'Z') {
+                c += 'a' - 'A';
+            }
+            inputBuffer[buffered++] = (byte) c;
+            if (buffered == CHUNK_SIZE) {
+                sha1.update(inputBuffer, 0, buffered);
+                buffered = 0;
+            }
+        }
+        sha1.update(inputBuffer, 0, buffered);
+        finishDigest(out, offset);
+    }
+
+    /**
+     * Calculate the Z-Base32 encoded SHA-1 sum of the lower-case representation of the local part,
+     * which is given as ASCII bytes.
+     *
+     * @param localPart buffer containing the ASCII encoded local part
+     * @param offset offset of the local part in the buffer
+     * @param length length of the local part
+     * @return zbase32 encoded sha1 sum of the lower-case local part
+     */
+    @Nonnull
+    public String hashLocalPart(@Nonnull byte[] localPart, int offset, int length) {
+        sha1OfLowerCase(localPart, offset, length, digestBuffer, 0);
+        zBase32Encode(digestBuffer, 0, SHA1_LENGTH, encodingBuffer, 0);
+        return new String(encodingBuffer);
+    }
+
+    /**
+     * Calculate the SHA-1 sum of the lower-case representation of the local part, which is given as ASCII bytes,
+     * and write the {@link #SHA1_LENGTH} resulting bytes into the given buffer.
+     *
+     * @param localPart buffer containing the ASCII encoded local part
+     * @param offset offset of the local part in the buffer
+     * @param length length of the local part
+     * @param out output buffer
+     * @param outOffset offset in the output buffer
+     */
+    public void sha1OfLowerCase(@Nonnull byte[] localPart, int offset, int length, @Nonnull byte[] out, int outOffset) {
+        checkBounds(localPart.length, offset, length);
+        checkBounds(out.length, outOffset, SHA1_LENGTH);
+        sha1.reset();
+
+        int end = offset + length;
+        int buffered = 0;
+        for (int i = offset; i < end; i++) {
+            byte b = localPart[i];
+            if (b < 0) {
+                // Not ASCII. Fall back to treating the input as characters.
+                sha1OfLowerCase(new AsciiSequence(localPart, offset, length), out, outOffset);
+                return;
+            }
+            if (b >= 'A' && b <= 'Z') {
+                b += 'a' - 'A';
+            }
+            inputBuffer[buffered++] = b;
+            if (buffered == CHUNK_SIZE) {
+                sha1.update(inputBuffer, 0, buffered);
+                buffered = 0;
+            }
+        }
+        sha1.update(inputBuffer, 0, buffered);
+        finishDigest(out, outOffset);
+    }
+
+    private void finishDigest(byte[] out, int offset) {
+        try {
+            sha1.digest(out, offset, SHA1_LENGTH);
+        } catch (DigestException e) {
+            // We checked the bounds beforehand
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Encode the given bytes using Z-Base32 (without padding) and write the result into the given char buffer.
+     * The number of written characters can be determined beforehand using {@link #zBase32EncodedLength(int)}.
+     *
+     * @param in input bytes
+     * @param inOffset offset in the input
+     * @param length number of bytes to encode
+     * @param out output buffer
+     * @param outOffset offset in the output buffer
+     * @return number of written characters
+     */
+    public static int zBase32Encode(@Nonnull byte[] in, int inOffset, int length, @Nonnull char[] out, int outOffset) {
+        checkBounds(in.length, inOffset, length);
+        checkBounds(out.length, outOffset, zBase32EncodedLength(length));
+
+        int i = inOffset;
+        int end = inOffset + length;
+        int o = outOffset;
+
+        // 5 bytes make up 8 characters
+        while (end - i >= 5) {
+            long group = ((long) (in[i] & 0xff) << 32)
+                    | ((long) (in[i + 1] & 0xff) << 24)
+                    | ((in[i + 2] & 0xff) << 16)
+                    | ((in[i + 3] & 0xff) << 8)
+                    | (in[i + 4] & 0xff);
+            for (int shift = 35; shift >= 0; shift -= 5) {
+                out[o++] = ZBASE32_ALPHABET[(int) (group >>> shift) & 0x1f];
+            }
+            i += 5;
+        }
+
+        // Remaining bits
+        int buffer = 0;
+        int bits = 0;
+        while (i < end) {
+            buffer = (buffer << 8) | (in[i++] & 0xff);
+            bits += 8;
+            while (bits >= 5) {
+                out[o++] = ZBASE32_ALPHABET[(buffer >>> (bits - 5)) & 0x1f];
+                bits -= 5;
+            }
+        }
+        if (bits > 0) {
+            out[o++] = ZBASE32_ALPHABET[(buffer << (5 - bits)) & 0x1f];
+        }
+        return o - outOffset;
+    }
+
+    /**
+     * Return the number of characters needed to Z-Base32 encode the given number of bytes.
+     *
+     * @param byteLength number of bytes
+     * @return number of characters
+     */
+    public static int zBase32EncodedLength(int byteLength) {
+        return (byteLength * 8 + 4) / 5;
+    }
+
+    private static void checkBounds(int bufferLength, int offset, int length) {
+        if (offset < 0 || length < 0 || offset > bufferLength - length) {
+            throw new IndexOutOfBoundsException("Buffer of length " + bufferLength +
+                    " cannot hold " + length + " elements at offset " + offset);
+        }
+    }
+}
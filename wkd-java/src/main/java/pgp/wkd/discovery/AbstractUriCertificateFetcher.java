@@ -7,6 +7,7 @@ package pgp.wkd.discovery;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import pgp.wkd.WKDAddress;
+import pgp.wkd.exception.NotModifiedException;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -33,11 +34,64 @@ public abstract class AbstractUriCertificateFetcher implements CertificateFetche
      */
     protected abstract InputStream fetchFromUri(URI uri) throws IOException;
 
+    /**
+     * Fetch the contents of the file that the {@link URI} points to from the remote server within the given
+     * {@link Deadline}.
+     * The default implementation ignores the deadline.
+     *
+     * @param uri uri
+     * @param deadline deadline of the lookup
+     * @return file contents
+     *
+     * @throws java.net.ConnectException in case the file or host does not exist
+     * @throws IOException in case of an IO-error
+     */
+    protected InputStream fetchFromUri(URI uri, Deadline deadline) throws IOException {
+        return fetchFromUri(uri);
+    }
+
+    /**
+     * Conditionally fetch the contents of the file that the {@link URI} points to from the remote server within
+     * the given {@link Deadline}.
+     * The default implementation ignores the cached headers and fetches the file unconditionally.
+     *
+     * @param uri uri
+     * @param deadline deadline of the lookup
+     * @param cached headers of the cached response, whose validators are sent with the request
+     * @return file contents
+     *
+     * @throws NotModifiedException if the file was not modified since the cached response
+     * @throws IOException in case of an IO-error
+     */
+    protected InputStream fetchFromUri(URI uri, Deadline deadline, ResponseHeaders cached) throws IOException {
+        return fetchFromUri(uri, deadline);
+    }
+
     @Override
     public InputStream fetchCertificate(WKDAddress address, DiscoveryMethod method) throws IOException {
+        return fetchCertificate(address, method, Deadline.none());
+    }
+
+    @Override
+    public InputStream fetchPolicy(WKDAddress address, DiscoveryMethod method) throws IOException {
+        return fetchPolicy(address, method, Deadline.none());
+    }
+
+    @Override
+    public InputStream fetchCertificate(WKDAddress address, DiscoveryMethod method, Deadline deadline)
+            throws IOException {
+        return fetchCertificate(address, method, deadline, ResponseHeaders.empty());
+    }
+
+    @Override
+    public InputStream fetchCertificate(WKDAddress address, DiscoveryMethod method, Deadline deadline,
+                                        ResponseHeaders cached)
+            throws IOException {
         URI uri = address.getUri(method);
         try {
-            return fetchFromUri(uri);
+            return fetchFromUri(uri, deadline, cached);
+        } catch (NotModifiedException e) {
+            throw e;
         } catch (IOException e) {
             LOGGER.debug("Could not fetch key using " + method + " method from " + uri, e);
             throw e;
@@ -45,10 +99,11 @@ public abstract class AbstractUriCertificateFetcher implements CertificateFetche
     }
 
     @Override
-    public InputStream fetchPolicy(WKDAddress address, DiscoveryMethod method) throws IOException {
+    public InputStream fetchPolicy(WKDAddress address, DiscoveryMethod method, Deadline deadline)
+            throws IOException {
         URI uri = address.getPolicyUri(method);
         try {
-            return fetchFromUri(uri);
+            return fetchFromUri(uri, deadline);
         } catch (IOException e) {
             LOGGER.debug("Could not fetch policy file using " + method + " method from " + uri, e);
             throw e;
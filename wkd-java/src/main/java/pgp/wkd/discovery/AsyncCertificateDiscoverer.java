@@ -0,0 +1,109 @@
+// SPDX-FileCopyrightText: 2022 Paul Schaub <vanitasvitae@fsfe.org>
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package pgp.wkd.discovery;
+
+import pgp.wkd.WKDAddress;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Asynchronous counterpart of the {@link CertificateDiscoverer}.
+ * Lookups do not block the calling thread, so that many lookups can be in flight on few threads.
+ */
+public interface AsyncCertificateDiscoverer {
+
+    /**
+     * Discover OpenPGP certificates by querying the given <pre>address</pre> via the given <pre>method</pre>.
+     *
+     * @param method discovery method
+     * @param address wkd address
+     * @return future of the response
+     */
+    CompletableFuture<DiscoveryResponse> discoverAsync(DiscoveryMethod method, WKDAddress address);
+
+    /**
+     * Discover OpenPGP certificates by querying the given <pre>address</pre> via the given <pre>method</pre>
+     * within the given {@link Deadline}.
+     * The default implementation ignores the deadline.
+     *
+     * @param method discovery method
+     * @param address wkd address
+     * @param deadline deadline of the lookup
+     * @return future of the response
+     */
+    default CompletableFuture<DiscoveryResponse> discoverAsync(DiscoveryMethod method, WKDAddress address,
+                                                               Deadline deadline) {
+        return discoverAsync(method, address);
+    }
+
+    /**
+     * Revalidate a cached response by querying the given <pre>address</pre> via the given <pre>method</pre>
+     * within the given {@link Deadline}.
+     * The default implementation performs an unconditional lookup.
+     *
+     * @param method discovery method
+     * @param address wkd address
+     * @param deadline deadline of the lookup
+     * @param cached headers of the cached response
+     * @return future of the response
+     * @see CertificateDiscoverer#revalidate(DiscoveryMethod, WKDAddress, Deadline, ResponseHeaders)
+     */
+    default CompletableFuture<DiscoveryResponse> revalidateAsync(DiscoveryMethod method, WKDAddress address,
+                                                                 Deadline deadline, ResponseHeaders cached) {
+        return discoverAsync(method, address, deadline);
+    }
+
+    /**
+     * Discover OpenPGP certificates by {@link WKDAddress}.
+     * Like {@link CertificateDiscoverer#discover(WKDAddress)}, the direct method is only queried if the
+     * advanced method was not successful.
+     *
+     * @param address address
+     * @return future of the discovery result
+     */
+    default CompletableFuture<DiscoveryResult> discoverAsync(WKDAddress address) {
+        return discoverAsync(address, Deadline.none());
+    }
+
+    /**
+     * Discover OpenPGP certificates by {@link WKDAddress} within the given {@link Deadline}.
+     * The deadline is shared by both discovery methods.
+     * Cancelling the returned future cancels the lookup of the method in flight.
+     *
+     * @param address address
+     * @param deadline deadline of the lookup
+     * @return future of the discovery result
+     */
+    default CompletableFuture<DiscoveryResult> discoverAsync(WKDAddress address, Deadline deadline) {
+        CompletableFuture<DiscoveryResult> result = new CompletableFuture<>();
+        CompletableFuture<DiscoveryResponse> advancedLookup = discoverAsync(DiscoveryMethod.advanced, address, deadline);
+        Futures.cancelOnCancel(result, advancedLookup);
+        advancedLookup.whenComplete((advanced, advancedFailure) -> {
+            if (advancedFailure != null) {
+                result.completeExceptionally(Futures.unwrap(advancedFailure));
+                return;
+            }
+            List<DiscoveryResponse> results = new ArrayList<>();
+            results.add(advanced);
+            if (advanced.isSuccessful() || result.isDone()) {
+                result.complete(new DiscoveryResult(results));
+                return;
+            }
+            CompletableFuture<DiscoveryResponse> directLookup = discoverAsync(DiscoveryMethod.direct, address, deadline);
+            Futures.cancelOnCancel(result, directLookup);
+            directLookup.whenComplete((direct, directFailure) -> {
+                if (directFailure != null) {
+                    result.completeExceptionally(Futures.unwrap(directFailure));
+                    return;
+                }
+                results.add(direct);
+                result.complete(new DiscoveryResult(results));
+            });
+        });
+        return result;
+    }
+}
@@ -0,0 +1,127 @@
+// SPDX-FileCopyrightText: 2022 Paul Schaub <vanitasvitae@fsfe.org>
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package pgp.wkd.discovery;
+
+import pgp.wkd.WKDAddress;
+
+import javax.annotation.Nonnull;
+import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Asynchronous counterpart of the {@link CertificateFetcher}.
+ * Instead of blocking the calling thread, the methods return a {@link CompletableFuture} which completes
+ * with the fetched file, or exceptionally with an {@link java.io.IOException} in case of an error.
+ */
+public interface AsyncCertificateFetcher {
+
+    /**
+     * Attempt to fetch an OpenPGP certificate from the Web Key Directory.
+     *
+     * @param address WKDAddress object
+     * @param method discovery method
+     * @return future of an input stream containing the certificate in its binary representation
+     */
+    CompletableFuture<InputStream> fetchCertificate(WKDAddress address, DiscoveryMethod method);
+
+    /**
+     * Fetch the policy file belonging to the address and discovery method.
+     *
+     * @param address WKDAddress object
+     * @param method discovery method
+     * @return future of an input stream containing the WKD policy file
+     */
+    CompletableFuture<InputStream> fetchPolicy(WKDAddress address, DiscoveryMethod method);
+
+    /**
+     * Attempt to fetch an OpenPGP certificate from the Web Key Directory within the given {@link Deadline}.
+     * Implementations should use the remaining time of the deadline as timeout of the request.
+     * The default implementation ignores the deadline.
+     *
+     * @param address WKDAddress object
+     * @param method discovery method
+     * @param deadline deadline of the lookup
+     * @return future of an input stream containing the certificate in its binary representation
+     */
+    default CompletableFuture<InputStream> fetchCertificate(WKDAddress address, DiscoveryMethod method,
+                                                            Deadline deadline) {
+        return fetchCertificate(address, method);
+    }
+
+    /**
+     * Fetch the policy file belonging to the address and discovery method within the given {@link Deadline}.
+     * Implementations should use the remaining time of the deadline as timeout of the request.
+     * The default implementation ignores the deadline.
+     *
+     * @param address WKDAddress object
+     * @param method discovery method
+     * @param deadline deadline of the lookup
+     * @return future of an input stream containing the WKD policy file
+     */
+    default CompletableFuture<InputStream> fetchPolicy(WKDAddress address, DiscoveryMethod method,
+                                                       Deadline deadline) {
+        return fetchPolicy(address, method);
+    }
+
+    /**
+     * Conditionally fetch an OpenPGP certificate from the Web Key Directory within the given {@link Deadline}.
+     * If the server answers with <pre>304 Not Modified</pre>, the future fails with a
+     * {@link pgp.wkd.exception.NotModifiedException}.
+     * The default implementation ignores the cached headers and fetches the certificate unconditionally.
+     *
+     * @param address WKDAddress object
+     * @param method discovery method
+     * @param deadline deadline of the lookup
+     * @param cached headers of the cached response
+     * @return future of an input stream containing the certificate in its binary representation
+     * @see CertificateFetcher#fetchCertificate(WKDAddress, DiscoveryMethod, Deadline, ResponseHeaders)
+     */
+    default CompletableFuture<InputStream> fetchCertificate(WKDAddress address, DiscoveryMethod method,
+                                                            Deadline deadline, ResponseHeaders cached) {
+        return fetchCertificate(address, method, deadline);
+    }
+
+    /**
+     * Adapt a blocking {@link CertificateFetcher} by running its requests on the given {@link Executor}.
+     * Note, that each request occupies a thread of the executor for its whole duration.
+     *
+     * @param fetcher blocking fetcher
+     * @param executor executor running the blocking requests
+     * @return asynchronous fetcher
+     */
+    @Nonnull
+    static AsyncCertificateFetcher fromBlocking(@Nonnull CertificateFetcher fetcher, @Nonnull Executor executor) {
+        return new AsyncCertificateFetcher() {
+            @Override
+            public CompletableFuture<InputStream> fetchCertificate(WKDAddress address, DiscoveryMethod method) {
+                return Futures.call(executor, () -> fetcher.fetchCertificate(address, method));
+            }
+
+            @Override
+            public CompletableFuture<InputStream> fetchPolicy(WKDAddress address, DiscoveryMethod method) {
+                return Futures.call(executor, () -> fetcher.fetchPolicy(address, method));
+            }
+
+            @Override
+            public CompletableFuture<InputStream> fetchCertificate(WKDAddress address, DiscoveryMethod method,
+                                                                   Deadline deadline) {
+                return Futures.call(executor, () -> fetcher.fetchCertificate(address, method, deadline));
+            }
+
+            @Override
+            public CompletableFuture<InputStream> fetchPolicy(WKDAddress address, DiscoveryMethod method,
+                                                              Deadline deadline) {
+                return Futures.call(executor, () -> fetcher.fetchPolicy(address, method, deadline));
+            }
+
+            @Override
+            public CompletableFuture<InputStream> fetchCertificate(WKDAddress address, DiscoveryMethod method,
+                                                                   Deadline deadline, ResponseHeaders cached) {
+                return Futures.call(executor, () -> fetcher.fetchCertificate(address, method, deadline, cached));
+            }
+        };
+    }
+}
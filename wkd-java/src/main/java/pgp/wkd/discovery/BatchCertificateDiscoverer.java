@@ -0,0 +1,234 @@
+// SPDX-FileCopyrightText: 2022 Paul Schaub <vanitasvitae@fsfe.org>
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package pgp.wkd.discovery;
+
+import pgp.wkd.WKDAddress;
+import pgp.wkd.WKDDomain;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Discoverer for the certificates of many {@link WKDAddress WKDAddresses} at once, e.g. of all recipients of a message.
+ *
+ * Lookups run in parallel, limited by a global and a per-domain cap on concurrent lookups.
+ * The limits apply across all batches of this discoverer.
+ * Lookups of the same batch share one policy fetch per domain and {@link DiscoveryMethod}.
+ */
+public class BatchCertificateDiscoverer {
+
+    private final CertificateParser reader;
+    private final AsyncCertificateFetcher fetcher;
+    private final Executor executor;
+    private final int maxConcurrentLookups;
+    private final int maxConcurrentLookupsPerDomain;
+
+    // Guarded by this
+    private final Map<WKDDomain, Queue<Lookup>> pending = new LinkedHashMap<>();
+    private final Map<WKDDomain, Integer> runningPerDomain = new HashMap<>();
+    private int running = 0;
+    private boolean dispatching = false;
+
+    /**
+     * Create a {@link BatchCertificateDiscoverer}.
+     *
+     * @param reader certificate parser
+     * @param fetcher asynchronous fetcher
+     * @param executor executor which starts lookups and parses and validates the fetched files
+     * @param maxConcurrentLookups maximum number of concurrent lookups
+     * @param maxConcurrentLookupsPerDomain maximum number of concurrent lookups of addresses on the same domain
+     */
+    public BatchCertificateDiscoverer(@Nonnull CertificateParser reader,
+                                      @Nonnull AsyncCertificateFetcher fetcher,
+                                      @Nonnull Executor executor,
+                                      int maxConcurrentLookups,
+                                      int maxConcurrentLookupsPerDomain) {
+        if (maxConcurrentLookups < 1 || maxConcurrentLookupsPerDomain < 1) {
+            throw new IllegalArgumentException("Concurrency limits MUST be positive.");
+        }
+        this.reader = reader;
+        this.fetcher = fetcher;
+        this.executor = executor;
+        this.maxConcurrentLookups = maxConcurrentLookups;
+        this.maxConcurrentLookupsPerDomain = maxConcurrentLookupsPerDomain;
+    }
+
+    /**
+     * Discover the certificates of all given addresses.
+     * The returned map is keyed by the given addresses in iteration order.
+     * Equal addresses are only looked up once, and share one entry.
+     * Each future completes as soon as the lookup of its address is done.
+     *
+     * @param addresses addresses
+     * @return futures of the discovery results by address
+     */
+    @Nonnull
+    public Map<WKDAddress, CompletableFuture<DiscoveryResult>> discoverAllAsync(@Nonnull Collection<WKDAddress> addresses) {
+        ValidatingCertificateDiscoverer discoverer = new ValidatingCertificateDiscoverer(
+                reader, CoalescingCertificateFetcher.memoizingPolicies(fetcher), executor);
+
+        Map<WKDAddress, CompletableFuture<DiscoveryResult>> results = new LinkedHashMap<>();
+        List<Lookup> lookups = new ArrayList<>(addresses.size());
+        for (WKDAddress address : addresses) {
+            if (results.containsKey(address)) {
+                continue;
+            }
+            Lookup lookup = new Lookup(discoverer, address);
+            results.put(address, lookup.result);
+            lookups.add(lookup);
+        }
+
+        synchronized (this) {
+            for (Lookup lookup : lookups) {
+                pending.computeIfAbsent(lookup.address.getDomain(), domain -> new ArrayDeque<>()).add(lookup);
+            }
+        }
+        dispatch();
+        return results;
+    }
+
+    /**
+     * Discover the certificates of all given addresses and wait for all lookups to complete.
+     *
+     * @see #discoverAllAsync(Collection)
+     *
+     * @param addresses addresses
+     * @return discovery results by address
+     */
+    @Nonnull
+    public Map<WKDAddress, DiscoveryResult> discoverAll(@Nonnull Collection<WKDAddress> addresses) {
+        Map<WKDAddress, CompletableFuture<DiscoveryResult>> futures = discoverAllAsync(addresses);
+        Map<WKDAddress, DiscoveryResult> results = new LinkedHashMap<>();
+        for (Map.Entry<WKDAddress, CompletableFuture<DiscoveryResult>> entry : futures.entrySet()) {
+            results.put(entry.getKey(), Futures.join(entry.getValue()));
+        }
+        return results;
+    }
+
+    /**
+     * Start as many pending lookups as the limits allow.
+     *
+     * Lookups which finish while lookups are started, e.g. on a direct executor, call this method re-entrantly.
+     * Only the outermost call starts lookups, in a loop until no more lookups can be started,
+     * so that the stack does not grow with the size of the batch.
+     */
+    private void dispatch() {
+        synchronized (this) {
+            if (dispatching) {
+                // The outermost call picks up the freed slots
+                return;
+            }
+            dispatching = true;
+        }
+
+        while (true) {
+            List<Lookup> startable = new ArrayList<>();
+            synchronized (this) {
+                takeStartable(startable);
+                if (startable.isEmpty()) {
+                    dispatching = false;
+                    return;
+                }
+            }
+
+            for (Lookup lookup : startable) {
+                try {
+                    executor.execute(lookup::start);
+                } catch (RejectedExecutionException e) {
+                    lookup.result.completeExceptionally(e);
+                    release(lookup.address.getDomain());
+                }
+            }
+        }
+    }
+
+    /**
+     * Take as many pending lookups as the limits allow, and count them as running.
+     *
+     * @param startable list to add the lookups to
+     */
+    private void takeStartable(List<Lookup> startable) {
+        // Take one lookup per domain in turn, so that a large domain does not starve the others
+        boolean progress = true;
+        while (running < maxConcurrentLookups && progress) {
+            progress = false;
+            Iterator<Map.Entry<WKDDomain, Queue<Lookup>>> iterator = pending.entrySet().iterator();
+            while (iterator.hasNext() && running < maxConcurrentLookups) {
+                Map.Entry<WKDDomain, Queue<Lookup>> entry = iterator.next();
+                int domainRunning = runningPerDomain.getOrDefault(entry.getKey(), 0);
+                if (domainRunning >= maxConcurrentLookupsPerDomain) {
+                    continue;
+                }
+                startable.add(entry.getValue().remove());
+                if (entry.getValue().isEmpty()) {
+                    iterator.remove();
+                }
+                runningPerDomain.put(entry.getKey(), domainRunning + 1);
+                running++;
+                progress = true;
+            }
+        }
+    }
+
+    private synchronized void release(WKDDomain domain) {
+        running--;
+        int domainRunning = runningPerDomain.get(domain) - 1;
+        if (domainRunning == 0) {
+            runningPerDomain.remove(domain);
+        } else {
+            runningPerDomain.put(domain, domainRunning);
+        }
+    }
+
+    private void finished(WKDDomain domain) {
+        release(domain);
+        dispatch();
+    }
+
+    /**
+     * Lookup of a single address.
+     */
+    private final class Lookup {
+
+        private final AsyncCertificateDiscoverer discoverer;
+        private final WKDAddress address;
+        private final CompletableFuture<DiscoveryResult> result = new CompletableFuture<>();
+
+        Lookup(AsyncCertificateDiscoverer discoverer, WKDAddress address) {
+            this.discoverer = discoverer;
+            this.address = address;
+        }
+
+        void start() {
+            CompletableFuture<DiscoveryResult> lookup;
+            try {
+                lookup = discoverer.discoverAsync(address);
+            } catch (RuntimeException e) {
+                lookup = new CompletableFuture<>();
+                lookup.completeExceptionally(e);
+            }
+            lookup.whenComplete((discoveryResult, failure) -> {
+                // Complete the result first, so that starting further lookups does not delay it
+                if (failure != null) {
+                    result.completeExceptionally(Futures.unwrap(failure));
+                } else {
+                    result.complete(discoveryResult);
+                }
+                finished(address.getDomain());
+            });
+        }
+    }
+}
@@ -0,0 +1,195 @@
+// SPDX-FileCopyrightText: 2022 Paul Schaub <vanitasvitae@fsfe.org>
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package pgp.wkd.discovery;
+
+import javax.annotation.Nonnull;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Scheduler which refreshes hot entries of a {@link CachingCertificateDiscoverer} shortly before they expire,
+ * so that lookups of popular addresses never wait for a refresh.
+ *
+ * An entry is hot, if it answered at least the configured number of lookups since it was fetched.
+ * Once a hot entry expires within the refresh-ahead time, it is refreshed in the background by the delegate
+ * of the cache, using a conditional request if possible.
+ * Since the count of lookups starts over with each fetch, entries only stay hot while they are looked up.
+ *
+ * Refreshes are limited to the configured rate. The scheduler works in rounds of one second, and spreads the
+ * refreshes of a round evenly over the round, with random jitter, so that they do not arrive at the servers
+ * in bursts. Hot entries which cannot be refreshed within the budget of a round are skipped, most urgent entries
+ * first, and are considered again in the next round.
+ *
+ * Refreshes run on worker threads of the scheduler, so that slow servers do not delay the following refreshes.
+ * Each refresh has a deadline of the refresh-ahead time, or of one round if that is longer. An entry whose refresh
+ * did not complete within its deadline can be refreshed again.
+ *
+ * The scheduler runs on its own daemon threads, and should be {@link #close() closed} once it is no longer needed.
+ */
+public final class CacheRefreshScheduler implements AutoCloseable {
+
+    /**
+     * Default time before expiry at which hot entries are refreshed.
+     */
+    public static final Duration DEFAULT_REFRESH_AHEAD = Duration.ofSeconds(30);
+
+    /**
+     * Default number of lookups after which an entry is hot.
+     */
+    public static final int DEFAULT_MIN_ACCESSES = 2;
+
+    private static final Duration ROUND = Duration.ofSeconds(1);
+
+    private final CachingCertificateDiscoverer cache;
+    private final double refreshesPerRound;
+    private final long refreshAheadNanos;
+    private final int minAccesses;
+    private final long roundNanos;
+    private final Duration refreshDeadline;
+    private final ScheduledThreadPoolExecutor executor;
+    // Runs the refreshes, which may block on a blocking delegate
+    private final ThreadPoolExecutor workers;
+
+    // Only accessed by the scheduler thread
+    private double budget;
+
+    private final LongAdder refreshed = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+
+    /**
+     * Create a {@link CacheRefreshScheduler} with the {@link #DEFAULT_REFRESH_AHEAD default refresh-ahead time}
+     * and the {@link #DEFAULT_MIN_ACCESSES default number of lookups} after which an entry is hot.
+     *
+     * @param cache cache whose entries are refreshed
+     * @param refreshesPerSecond maximum number of refreshes per second
+     */
+    public CacheRefreshScheduler(@Nonnull CachingCertificateDiscoverer cache, double refreshesPerSecond) {
+        this(cache, refreshesPerSecond, DEFAULT_REFRESH_AHEAD, DEFAULT_MIN_ACCESSES);
+    }
+
+    /**
+     * Create a {@link CacheRefreshScheduler}.
+     *
+     * @param cache cache whose entries are refreshed
+     * @param refreshesPerSecond maximum number of refreshes per second
+     * @param refreshAhead time before expiry at which hot entries are refreshed
+     * @param minAccesses number of lookups since the last fetch after which an entry is hot
+     */
+    public CacheRefreshScheduler(@Nonnull CachingCertificateDiscoverer cache,
+                                 double refreshesPerSecond,
+                                 @Nonnull Duration refreshAhead,
+                                 int minAccesses) {
+        this(cache, refreshesPerSecond, refreshAhead, minAccesses, ROUND);
+    }
+
+    CacheRefreshScheduler(CachingCertificateDiscoverer cache,
+                          double refreshesPerSecond,
+                          Duration refreshAhead,
+                          int minAccesses,
+                          Duration round) {
+        if (!(refreshesPerSecond > 0) || Double.isInfinite(refreshesPerSecond)) {
+            throw new IllegalArgumentException("Refresh rate MUST be positive and finite.");
+        }
+        if (refreshAhead.isNegative() || minAccesses < 0) {
+            throw new IllegalArgumentException("Refresh-ahead time and minimum accesses MUST NOT be negative.");
+        }
+        this.cache = cache;
+        this.roundNanos = round.toNanos();
+        this.refreshesPerRound = refreshesPerSecond * roundNanos / TimeUnit.SECONDS.toNanos(1);
+        this.refreshAheadNanos = refreshAhead.toNanos();
+        this.minAccesses = minAccesses;
+        this.refreshDeadline = refreshAhead.compareTo(round) > 0 ? refreshAhead : round;
+        this.executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "wkd-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // The number of refreshes in flight is bounded by the rate and the deadline of the refreshes
+        AtomicInteger workerCount = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 1, TimeUnit.MINUTES, new SynchronousQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "wkd-refresh-" + workerCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        this.executor.scheduleWithFixedDelay(this::runRound, roundNanos, roundNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Plan the refreshes of the next round.
+     */
+    private void runRound() {
+        // Unused budget carries over for at most one round, so that a slow rate still allows single refreshes
+        budget = Math.min(budget + refreshesPerRound, Math.max(1, refreshesPerRound));
+        List<CachingCertificateDiscoverer.RefreshCandidate> candidates =
+                cache.getRefreshCandidates(refreshAheadNanos, minAccesses);
+        int count = (int) Math.min(candidates.size(), Math.floor(budget));
+        budget -= count;
+        skipped.add(candidates.size() - count);
+        if (count == 0) {
+            return;
+        }
+
+        long slot = roundNanos / count;
+        for (int i = 0; i < count; i++) {
+            CachingCertificateDiscoverer.RefreshCandidate candidate = candidates.get(i);
+            long delay = i * slot + ThreadLocalRandom.current().nextLong(Math.max(1, slot));
+            try {
+                executor.schedule(() -> refresh(candidate), delay, TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException e) {
+                // Closed
+                return;
+            }
+        }
+    }
+
+    private void refresh(CachingCertificateDiscoverer.RefreshCandidate candidate) {
+        if (cache.refresh(candidate, workers, Deadline.after(refreshDeadline))) {
+            refreshed.increment();
+        } else {
+            // Replaced, evicted, or refreshed by a lookup meanwhile
+            skipped.increment();
+        }
+    }
+
+    /**
+     * Return the number of refreshes which were started by this scheduler.
+     *
+     * @return number of refreshes
+     */
+    public long getRefreshCount() {
+        return refreshed.sum();
+    }
+
+    /**
+     * Return the number of times a hot entry was due for a refresh, but was not refreshed,
+     * either since the refresh budget of the round was used up, or since the entry was replaced meanwhile.
+     * Entries which are skipped due to the budget are considered again in the next round,
+     * and are counted again if they are skipped again.
+     *
+     * @return number of skipped refreshes
+     */
+    public long getSkippedCount() {
+        return skipped.sum();
+    }
+
+    /**
+     * Stop the scheduler. Refreshes in flight are completed, planned refreshes are dropped.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        workers.shutdown();
+    }
+}
@@ -0,0 +1,598 @@
+// SPDX-FileCopyrightText: 2022 Paul Schaub <vanitasvitae@fsfe.org>
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package pgp.wkd.discovery;
+
+import pgp.wkd.WKDAddress;
+import pgp.wkd.discovery.CoalescingCertificateDiscoverer.LookupKey;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * {@link CertificateDiscoverer} decorator which caches the {@link DiscoveryResponse DiscoveryResponses} of its
+ * delegate by email address and {@link DiscoveryMethod}.
+ *
+ * Successful responses are cached for the freshness lifetime given by the <pre>Cache-Control</pre> and
+ * <pre>Expires</pre> headers of the certificate response (see {@link ResponseHeaders#getFreshnessLifetime()}),
+ * clamped to the configured minimum and maximum time to live.
+ * Responses without caching headers, as well as unsuccessful responses, are cached for the minimum time to live.
+ * Responses marked <pre>no-store</pre>, cancelled lookups and lookups which exceeded their deadline are not cached.
+ * Responses marked <pre>no-cache</pre> are only cached if they can be revalidated, and are revalidated on every lookup.
+ *
+ * Expired responses carrying an <pre>ETag</pre> or <pre>Last-Modified</pre> header are kept, and
+ * {@link CertificateDiscoverer#revalidate(DiscoveryMethod, WKDAddress, Deadline, ResponseHeaders) revalidated}
+ * on their next lookup. If the certificate was not modified, the cached certificates are returned again
+ * together with the policy fetched by the revalidation, and their time to live is renewed, without parsing the
+ * certificate again. If the policy appeared or disappeared since, the response is fetched again.
+ *
+ * Optionally, expired responses are served for a grace period:
+ * <ul>
+ *     <li>Within the stale-while-revalidate window, an expired response is returned at once,
+ *     while a single background refresh updates it.</li>
+ *     <li>Within the stale-if-error window, an expired successful response is returned if refreshing it fails,
+ *     e.g. since the WKD cannot be reached or the deadline of the lookup passed.</li>
+ * </ul>
+ * The <pre>stale-while-revalidate</pre> and <pre>stale-if-error</pre> directives of the <pre>Cache-Control</pre>
+ * header override the configured windows, the <pre>must-revalidate</pre> and <pre>no-cache</pre> directives
+ * disable them. Stale responses are marked {@link DiscoveryResponse#isStale()}.
+ *
+ * Use a {@link CacheRefreshScheduler} to refresh frequently looked up entries before they expire.
+ *
+ * The cache holds a bounded number of entries. Once it is full, the least recently used entry is evicted.
+ */
+public final class CachingCertificateDiscoverer implements CertificateDiscoverer, AsyncCertificateDiscoverer {
+
+    /**
+     * Default maximum number of cached responses.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 10_000;
+
+    /**
+     * Default minimum time to live of cached responses.
+     */
+    public static final Duration DEFAULT_MIN_TTL = Duration.ofMinutes(1);
+
+    /**
+     * Default maximum time to live of cached responses.
+     */
+    public static final Duration DEFAULT_MAX_TTL = Duration.ofDays(1);
+
+    private final Lookup lookup;
+    private final int maxEntries;
+    private final Duration minTtl;
+    private final Duration maxTtl;
+    private final Duration staleWhileRevalidate;
+    private final Duration staleIfError;
+    private final Executor refreshExecutor;
+    private final LongSupplier nanoTime;
+
+    // Guarded by this, in access order
+    private final LinkedHashMap<LookupKey, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder revalidations = new LongAdder();
+    private final LongAdder staleHits = new LongAdder();
+
+    /**
+     * Create a {@link CachingCertificateDiscoverer} with the default size and times to live.
+     *
+     * @param delegate discoverer performing the lookups
+     */
+    public CachingCertificateDiscoverer(@Nonnull CertificateDiscoverer delegate) {
+        this(delegate, DEFAULT_MAX_ENTRIES, DEFAULT_MIN_TTL, DEFAULT_MAX_TTL);
+    }
+
+    /**
+     * Create a {@link CachingCertificateDiscoverer}.
+     * If the delegate is an {@link AsyncCertificateDiscoverer}, lookups are performed asynchronously.
+     *
+     * @param delegate discoverer performing the lookups
+     * @param maxEntries maximum number of cached responses
+     * @param minTtl minimum time to live of cached responses
+     * @param maxTtl maximum time to live of cached responses
+     */
+    public CachingCertificateDiscoverer(@Nonnull CertificateDiscoverer delegate,
+                                        int maxEntries,
+                                        @Nonnull Duration minTtl,
+                                        @Nonnull Duration maxTtl) {
+        this(delegate, maxEntries, minTtl, maxTtl, Duration.ZERO, Duration.ZERO, Runnable::run);
+    }
+
+    /**
+     * Create a {@link CachingCertificateDiscoverer}, which serves expired responses for the given grace periods.
+     *
+     * @param delegate discoverer performing the lookups
+     * @param maxEntries maximum number of cached responses
+     * @param minTtl minimum time to live of cached responses
+     * @param maxTtl maximum time to live of cached responses
+     * @param staleWhileRevalidate time after expiry during which a response is served while it is refreshed
+     * @param staleIfError time after expiry during which a response is served if refreshing it fails
+     * @param refreshExecutor executor which runs the background refreshes
+     */
+    public CachingCertificateDiscoverer(@Nonnull CertificateDiscoverer delegate,
+                                        int maxEntries,
+                                        @Nonnull Duration minTtl,
+                                        @Nonnull Duration maxTtl,
+                                        @Nonnull Duration staleWhileRevalidate,
+                                        @Nonnull Duration staleIfError,
+                                        @Nonnull Executor refreshExecutor) {
+        this(delegate, maxEntries, minTtl, maxTtl, staleWhileRevalidate, staleIfError, refreshExecutor,
+                System::nanoTime);
+    }
+
+    CachingCertificateDiscoverer(CertificateDiscoverer delegate,
+                                 int maxEntries,
+                                 Duration minTtl,
+                                 Duration maxTtl,
+                                 Duration staleWhileRevalidate,
+                                 Duration staleIfError,
+                                 Executor refreshExecutor,
+                                 LongSupplier nanoTime) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("Maximum number of entries MUST be positive.");
+        }
+        if (minTtl.isNegative() || maxTtl.compareTo(minTtl) < 0) {
+            throw new IllegalArgumentException("Time to live bounds MUST NOT be negative, minimum MUST NOT exceed maximum.");
+        }
+        if (staleWhileRevalidate.isNegative() || staleIfError.isNegative()) {
+            throw new IllegalArgumentException("Stale windows MUST NOT be negative.");
+        }
+        if (delegate instanceof AsyncCertificateDiscoverer) {
+            AsyncCertificateDiscoverer async = (AsyncCertificateDiscoverer) delegate;
+            this.lookup = (method, address, deadline, cached) -> cached == null
+                    ? async.discoverAsync(method, address, deadline)
+                    : async.revalidateAsync(method, address, deadline, cached);
+        } else {
+            this.lookup = (method, address, deadline, cached) -> CompletableFuture.completedFuture(cached == null
+                    ? delegate.discover(method, address, deadline)
+                    : delegate.revalidate(method, address, deadline, cached));
+        }
+        this.maxEntries = maxEntries;
+        this.minTtl = minTtl;
+        this.maxTtl = maxTtl;
+        this.staleWhileRevalidate = staleWhileRevalidate;
+        this.staleIfError = staleIfError;
+        this.refreshExecutor = refreshExecutor;
+        this.nanoTime = nanoTime;
+    }
+
+    @Override
+    public DiscoveryResponse discover(DiscoveryMethod method, WKDAddress address) {
+        return discover(method, address, Deadline.none());
+    }
+
+    @Override
+    public DiscoveryResponse discover(DiscoveryMethod method, WKDAddress address, Deadline deadline) {
+        return Futures.awaitResponse(discoverAsync(method, address, deadline), method, address);
+    }
+
+    @Override
+    public CompletableFuture<DiscoveryResponse> discoverAsync(DiscoveryMethod method, WKDAddress address) {
+        return discoverAsync(method, address, Deadline.none());
+    }
+
+    @Override
+    public CompletableFuture<DiscoveryResponse> discoverAsync(DiscoveryMethod method, WKDAddress address,
+                                                              Deadline deadline) {
+        LookupKey key = new LookupKey(method, address.getEmail());
+        long now = nanoTime.getAsLong();
+        Entry cached = getEntry(key, now);
+        if (cached != null && !cached.isExpired(now)) {
+            hits.increment();
+            cached.accesses.increment();
+            return CompletableFuture.completedFuture(cached.response);
+        }
+        if (cached != null && now - cached.staleWhileRevalidateUntil < 0) {
+            staleHits.increment();
+            cached.accesses.increment();
+            // The refresh is pointless once the stale window passed
+            refresh(key, method, address, cached, refreshExecutor,
+                    Deadline.after(Duration.ofNanos(cached.staleWhileRevalidateUntil - now)));
+            return CompletableFuture.completedFuture(cached.response.asStale());
+        }
+
+        misses.increment();
+        CompletableFuture<DiscoveryResponse> delegated = delegate(method, address, cached, deadline);
+        CompletableFuture<DiscoveryResponse> response = delegated.handle(
+                (discoveryResponse, failure) -> complete(key, cached, discoveryResponse, failure));
+        // Cancelling the returned future cancels the lookup of the delegate
+        Futures.cancelOnCancel(response, delegated);
+        return response;
+    }
+
+    /**
+     * Refresh the given entry in the background, unless it is refreshed already.
+     *
+     * @param key key
+     * @param method discovery method
+     * @param address address
+     * @param cached cached entry
+     * @param executor executor which runs the refresh
+     * @param deadline deadline of the refresh, after which the entry can be refreshed again
+     * @return whether a refresh was started
+     */
+    private boolean refresh(LookupKey key, DiscoveryMethod method, WKDAddress address, Entry cached,
+                            Executor executor, Deadline deadline) {
+        if (!cached.refreshing.compareAndSet(false, true)) {
+            return false;
+        }
+        try {
+            executor.execute(() -> delegate(method, address, cached, deadline).whenComplete(
+                    (discoveryResponse, failure) -> {
+                        cached.refreshing.set(false);
+                        complete(key, cached, discoveryResponse, failure);
+                    }));
+            return true;
+        } catch (RuntimeException e) {
+            // Try again on the next lookup
+            cached.refreshing.set(false);
+            return false;
+        }
+    }
+
+    /**
+     * Pass the lookup to the delegate, revalidating the cached entry if possible.
+     * A <pre>304 Not Modified</pre> only covers the certificates. If the policy appeared or disappeared since
+     * the entry was cached, the response is fetched again unconditionally.
+     */
+    private CompletableFuture<DiscoveryResponse> delegate(DiscoveryMethod method, WKDAddress address,
+                                                          @Nullable Entry cached, Deadline deadline) {
+        ResponseHeaders validators = cached != null && cached.headers.hasValidators() ? cached.headers : null;
+        CompletableFuture<DiscoveryResponse> revalidated = start(method, address, deadline, validators);
+        if (validators == null) {
+            return revalidated;
+        }
+
+        CompletableFuture<DiscoveryResponse> response = new CompletableFuture<>();
+        revalidated.whenComplete((discoveryResponse, failure) -> {
+            if (failure != null) {
+                response.completeExceptionally(failure);
+                return;
+            }
+            if (!discoveryResponse.isNotModified() || discoveryResponse.hasPolicy() == cached.response.hasPolicy()) {
+                response.complete(discoveryResponse);
+                return;
+            }
+            CompletableFuture<DiscoveryResponse> fetched = start(method, address, deadline, null);
+            Futures.cancelOnCancel(response, fetched);
+            fetched.whenComplete((fetchedResponse, fetchingFailure) -> {
+                if (fetchingFailure != null) {
+                    response.completeExceptionally(fetchingFailure);
+                } else {
+                    response.complete(fetchedResponse);
+                }
+            });
+        });
+        Futures.cancelOnCancel(response, revalidated);
+        return response;
+    }
+
+    private CompletableFuture<DiscoveryResponse> start(DiscoveryMethod method, WKDAddress address,
+                                                       Deadline deadline, @Nullable ResponseHeaders validators) {
+        try {
+            return lookup.discover(method, address, deadline, validators);
+        } catch (RuntimeException | Error e) {
+            CompletableFuture<DiscoveryResponse> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+
+    /**
+     * Update the cache with the outcome of a lookup of the delegate, and return the response to the caller.
+     *
+     * @param key key
+     * @param cached expired entry or null
+     * @param response response of the delegate, or null if the lookup failed
+     * @param failure failure of the lookup or null
+     * @return response to the caller
+     */
+    private DiscoveryResponse complete(LookupKey key, @Nullable Entry cached,
+                                       @Nullable DiscoveryResponse response, @Nullable Throwable failure) {
+        if (cached != null && response != null && response.isNotModified()) {
+            revalidations.increment();
+            // The policy was fetched anew
+            DiscoveryResponse revalidated = cached.response.withPolicyOf(response);
+            store(key, revalidated, cached.headers.updatedWith(response.getResponseHeaders()));
+            return revalidated;
+        }
+        if (cached != null && isError(response, failure) && cached.response.isSuccessful()
+                && nanoTime.getAsLong() - cached.staleIfErrorUntil < 0) {
+            staleHits.increment();
+            return cached.response.asStale();
+        }
+        if (failure != null) {
+            throw failure instanceof CompletionException
+                    ? (CompletionException) failure : new CompletionException(failure);
+        }
+        store(key, response, response.getResponseHeaders());
+        return response;
+    }
+
+    private static boolean isError(@Nullable DiscoveryResponse response, @Nullable Throwable failure) {
+        if (failure != null) {
+            return !(Futures.unwrap(failure) instanceof CancellationException);
+        }
+        return !response.isSuccessful() && !response.isCancelled();
+    }
+
+    /**
+     * Return the entry of the given key. Expired entries are only returned if they can be revalidated,
+     * or if they are within one of the stale windows.
+     *
+     * @param key key
+     * @param now current time
+     * @return entry or null
+     */
+    @Nullable
+    private synchronized Entry getEntry(LookupKey key, long now) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.isExpired(now) && !entry.headers.hasValidators()
+                && now - entry.staleWhileRevalidateUntil >= 0 && now - entry.staleIfErrorUntil >= 0) {
+            entries.remove(key);
+            return null;
+        }
+        return entry;
+    }
+
+    private void store(LookupKey key, DiscoveryResponse response, ResponseHeaders headers) {
+        if (response.isCancelled() || response.isDeadlineExceeded()) {
+            // Says nothing about the certificate, keep the cached response
+            return;
+        }
+        Duration ttl = timeToLive(response, headers);
+        if (ttl == null) {
+            synchronized (this) {
+                // Drop an expired entry which was revalidated
+                entries.remove(key);
+            }
+            return;
+        }
+        long expiresAt = nanoTime.getAsLong() + ttl.toNanos();
+        boolean revalidate = headers.hasCacheDirective("must-revalidate") || headers.hasCacheDirective("no-cache");
+        Entry entry = new Entry(response, headers, expiresAt,
+                expiresAt + staleWindow(headers, "stale-while-revalidate", staleWhileRevalidate, revalidate),
+                expiresAt + staleWindow(headers, "stale-if-error", staleIfError, revalidate));
+        synchronized (this) {
+            entries.put(key, entry);
+            Iterator<Map.Entry<LookupKey, Entry>> eldest = entries.entrySet().iterator();
+            while (entries.size() > maxEntries) {
+                eldest.next();
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+    private static long staleWindow(ResponseHeaders headers, String directive, Duration configured,
+                                    boolean revalidate) {
+        if (revalidate) {
+            return 0;
+        }
+        Duration window = headers.getCacheDirectiveSeconds(directive);
+        return (window != null ? window : configured).toNanos();
+    }
+
+    /**
+     * Return the time to live of the given response, or null if it must not be cached.
+     * Responses which must be revalidated before each use have a time to live of zero,
+     * which is not raised to the minimum time to live.
+     *
+     * @param response response
+     * @param headers headers of the response
+     * @return time to live
+     */
+    @Nullable
+    private Duration timeToLive(DiscoveryResponse response, ResponseHeaders headers) {
+        if (response.isNotModified()) {
+            // Nothing to cache
+            return null;
+        }
+        if (headers.hasCacheDirective("no-store")) {
+            return null;
+        }
+        if (headers.hasCacheDirective("no-cache")) {
+            // Stored as expired, so that it is revalidated on its next lookup, which requires validators
+            return headers.hasValidators() ? Duration.ZERO : null;
+        }
+        Duration lifetime = response.isSuccessful() ? headers.getFreshnessLifetime() : null;
+        if (lifetime == null || lifetime.compareTo(minTtl) < 0) {
+            return minTtl;
+        }
+        return lifetime.compareTo(maxTtl) > 0 ? maxTtl : lifetime;
+    }
+
+    /**
+     * Remove the cached responses of the given address for all methods.
+     *
+     * @param address address
+     */
+    public synchronized void invalidate(@Nonnull WKDAddress address) {
+        for (DiscoveryMethod method : DiscoveryMethod.values()) {
+            entries.remove(new LookupKey(method, address.getEmail()));
+        }
+    }
+
+    /**
+     * Remove all cached responses.
+     */
+    public synchronized void invalidateAll() {
+        entries.clear();
+    }
+
+    /**
+     * Return the number of cached responses, including expired responses which were not removed yet.
+     *
+     * @return number of cached responses
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Return the number of lookups which were answered from the cache.
+     *
+     * @return number of cache hits
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Return the number of lookups which were passed to the delegate.
+     *
+     * @return number of cache misses
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Return the number of responses which were evicted, since the cache was full.
+     *
+     * @return number of evictions
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * Return the number of lookups which revalidated an expired response, and found the certificate unmodified.
+     * These lookups are counted as cache misses as well.
+     *
+     * @return number of revalidated responses
+     */
+    public long getRevalidationCount() {
+        return revalidations.sum();
+    }
+
+    /**
+     * Return the number of lookups which were answered with a {@link DiscoveryResponse#isStale() stale} response,
+     * either while it was refreshed, or since refreshing it failed.
+     * The latter are counted as cache misses as well.
+     *
+     * @return number of stale responses
+     */
+    public long getStaleHitCount() {
+        return staleHits.sum();
+    }
+
+    /**
+     * Return the cached responses which expire within the given time, and which were looked up at least the
+     * given number of times since they were fetched, ordered by expiry.
+     * Entries which are being refreshed are left out.
+     *
+     * @param horizonNanos time within which the entries expire
+     * @param minAccesses minimum number of lookups answered by the entries
+     * @return refresh candidates
+     */
+    synchronized List<RefreshCandidate> getRefreshCandidates(long horizonNanos, long minAccesses) {
+        long now = nanoTime.getAsLong();
+        List<RefreshCandidate> candidates = new ArrayList<>();
+        for (Map.Entry<LookupKey, Entry> entry : entries.entrySet()) {
+            Entry cached = entry.getValue();
+            if (cached.expiresAt - now <= horizonNanos && !cached.refreshing.get()
+                    && cached.accesses.sum() >= minAccesses) {
+                candidates.add(new RefreshCandidate(entry.getKey(), cached));
+            }
+        }
+        candidates.sort(Comparator.comparingLong(candidate -> candidate.entry.expiresAt - now));
+        return candidates;
+    }
+
+    /**
+     * Refresh the entry of the given candidate in the background.
+     * Nothing happens if the entry was replaced, evicted or is being refreshed already.
+     *
+     * @param candidate candidate
+     * @param executor executor which runs the refresh
+     * @param deadline deadline of the refresh
+     * @return whether a refresh was started
+     */
+    boolean refresh(RefreshCandidate candidate, Executor executor, Deadline deadline) {
+        synchronized (this) {
+            if (entries.get(candidate.key) != candidate.entry) {
+                return false;
+            }
+        }
+        DiscoveryResponse response = candidate.entry.response;
+        return refresh(candidate.key, response.getMethod(), response.getAddress(), candidate.entry,
+                executor, deadline);
+    }
+
+    /**
+     * Lookup performed by the delegate.
+     */
+    private interface Lookup {
+
+        /**
+         * Perform the lookup, or revalidate the cached response, if its headers are given.
+         */
+        CompletableFuture<DiscoveryResponse> discover(DiscoveryMethod method, WKDAddress address, Deadline deadline,
+                                                              @Nullable ResponseHeaders cached);
+    }
+
+    /**
+     * Cached response.
+     */
+    private static final class Entry {
+
+        private final DiscoveryResponse response;
+        // Headers of the response, updated by revalidations
+        private final ResponseHeaders headers;
+        private final long expiresAt;
+        private final long staleWhileRevalidateUntil;
+        private final long staleIfErrorUntil;
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+        // Lookups answered by this entry
+        private final LongAdder accesses = new LongAdder();
+
+        Entry(DiscoveryResponse response, ResponseHeaders headers, long expiresAt,
+              long staleWhileRevalidateUntil, long staleIfErrorUntil) {
+            this.response = response;
+            this.headers = headers;
+            this.expiresAt = expiresAt;
+            this.staleWhileRevalidateUntil = staleWhileRevalidateUntil;
+            this.staleIfErrorUntil = staleIfErrorUntil;
+        }
+
+        boolean isExpired(long now) {
+            return now - expiresAt >= 0;
+        }
+    }
+
+    /**
+     * Cached response which may be refreshed ahead of its expiry.
+     */
+    static final class RefreshCandidate {
+
+        private final LookupKey key;
+        private final Entry entry;
+
+        private RefreshCandidate(LookupKey key, Entry entry) {
+            this.key = key;
+            this.entry = entry;
+        }
+    }
+}
@@ -25,6 +25,41 @@ public interface CertificateDiscoverer {
      */
     DiscoveryResponse discover(DiscoveryMethod method, WKDAddress address);
 
+    /**
+     * Discover OpenPGP certificates by querying the given <pre>address</pre> via the given <pre>method</pre>
+     * within the given {@link Deadline}.
+     * If the deadline passes, the lookup fails fast with a response for which
+     * {@link DiscoveryResponse#isDeadlineExceeded()} returns true.
+     * The default implementation ignores the deadline.
+     *
+     * @param method discovery method
+     * @param address wkd address
+     * @param deadline deadline of the lookup
+     * @return response
+     */
+    default DiscoveryResponse discover(DiscoveryMethod method, WKDAddress address, Deadline deadline) {
+        return discover(method, address);
+    }
+
+    /**
+     * Revalidate a cached response by querying the given <pre>address</pre> via the given <pre>method</pre>
+     * within the given {@link Deadline}.
+     * The certificate is fetched conditionally, using the <pre>ETag</pre> and <pre>Last-Modified</pre> headers of
+     * the cached response. If it was not modified, it is not parsed again, and the returned response is
+     * {@link DiscoveryResponse#isNotModified() not modified}.
+     * The default implementation performs an unconditional lookup.
+     *
+     * @param method discovery method
+     * @param address wkd address
+     * @param deadline deadline of the lookup
+     * @param cached headers of the cached response
+     * @return response
+     */
+    default DiscoveryResponse revalidate(DiscoveryMethod method, WKDAddress address, Deadline deadline,
+                                         ResponseHeaders cached) {
+        return discover(method, address, deadline);
+    }
+
     /**
      * Discover OpenPGP certificates by {@link WKDAddress}.
      *
@@ -32,17 +67,30 @@ public interface CertificateDiscoverer {
      * @return discovery result
      */
     default DiscoveryResult discover(WKDAddress address) {
+        return discover(address, Deadline.none());
+    }
+
+    /**
+     * Discover OpenPGP certificates by {@link WKDAddress} within the given {@link Deadline}.
+     * The deadline is shared by both discovery methods, so the direct method only gets the remaining budget
+     * of the advanced method.
+     *
+     * @param address address
+     * @param deadline deadline of the lookup
+     * @return discovery result
+     */
+    default DiscoveryResult discover(WKDAddress address, Deadline deadline) {
         List<DiscoveryResponse> results = new ArrayList<>();
 
         // advanced method
-        DiscoveryResponse advanced = discover(DiscoveryMethod.advanced, address);
+        DiscoveryResponse advanced = discover(DiscoveryMethod.advanced, address, deadline);
         results.add(advanced);
 
         if (advanced.isSuccessful()) {
             return new DiscoveryResult(results);
         }
         // direct method
-        results.add(discover(DiscoveryMethod.direct, address));
+        results.add(discover(DiscoveryMethod.direct, address, deadline));
 
         return new DiscoveryResult(results);
     }
@@ -5,6 +5,7 @@
 package pgp.wkd.discovery;
 
 import pgp.wkd.WKDAddress;
+import pgp.wkd.exception.NotModifiedException;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -36,4 +37,60 @@ public interface CertificateFetcher {
      * @throws IOException in case of an error
      */
     InputStream fetchPolicy(WKDAddress address, DiscoveryMethod method) throws IOException;
+
+    /**
+     * Attempt to fetch an OpenPGP certificate from the Web Key Directory within the given {@link Deadline}.
+     * Implementations should use the remaining time of the deadline as timeout of the request.
+     * The default implementation ignores the deadline.
+     *
+     * @param address WKDAddress object
+     * @param method discovery method
+     * @param deadline deadline of the lookup
+     * @return input stream containing the certificate in its binary representation
+     *
+     * @throws IOException in case of an error
+     */
+    default InputStream fetchCertificate(WKDAddress address, DiscoveryMethod method, Deadline deadline)
+            throws IOException {
+        return fetchCertificate(address, method);
+    }
+
+    /**
+     * Fetch the policy file belonging to the address and discovery method within the given {@link Deadline}.
+     * Implementations should use the remaining time of the deadline as timeout of the request.
+     * The default implementation ignores the deadline.
+     *
+     * @param address WKDAddress object
+     * @param method discovery method
+     * @param deadline deadline of the lookup
+     * @return input stream containing the WKD policy file
+     *
+     * @throws IOException in case of an error
+     */
+    default InputStream fetchPolicy(WKDAddress address, DiscoveryMethod method, Deadline deadline)
+            throws IOException {
+        return fetchPolicy(address, method);
+    }
+
+    /**
+     * Conditionally fetch an OpenPGP certificate from the Web Key Directory within the given {@link Deadline}.
+     * The <pre>ETag</pre> and <pre>Last-Modified</pre> headers of the cached response are sent as
+     * <pre>If-None-Match</pre> and <pre>If-Modified-Since</pre> headers, so that the server can answer with
+     * <pre>304 Not Modified</pre> instead of sending the certificate again.
+     * The default implementation ignores the cached headers and fetches the certificate unconditionally.
+     *
+     * @param address WKDAddress object
+     * @param method discovery method
+     * @param deadline deadline of the lookup
+     * @param cached headers of the cached response
+     * @return input stream containing the certificate in its binary representation
+     *
+     * @throws NotModifiedException if the certificate was not modified since the cached response
+     * @throws IOException in case of an error
+     */
+    default InputStream fetchCertificate(WKDAddress address, DiscoveryMethod method, Deadline deadline,
+                                         ResponseHeaders cached)
+            throws IOException {
+        return fetchCertificate(address, method, deadline);
+    }
 }
@@ -0,0 +1,272 @@
+// SPDX-FileCopyrightText: 2022 Paul Schaub <vanitasvitae@fsfe.org>
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package pgp.wkd.discovery;
+
+import pgp.wkd.WKDAddress;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link CertificateDiscoverer} decorator which coalesces concurrent lookups of the same address and
+ * {@link DiscoveryMethod}.
+ * While a lookup is in flight, further callers for the same email address and method do not issue requests of
+ * their own, but receive the same {@link DiscoveryResponse} once the lookup completes.
+ * Since the response is shared, {@link DiscoveryResponse#getAddress()} returns the address of the first caller.
+ *
+ * A lookup is performed with the {@link Deadline} of the caller who started it.
+ * Callers joining it wait no longer than their own deadline, and receive a response for which
+ * {@link DiscoveryResponse#isDeadlineExceeded()} returns true if it passes first.
+ *
+ * Cancelling the future returned to a caller only detaches that caller.
+ * Once all callers of a lookup detached, the lookup itself is cancelled.
+ *
+ * {@link #revalidateAsync(DiscoveryMethod, WKDAddress, Deadline, ResponseHeaders) Revalidations} are forwarded to
+ * the delegate, and are only coalesced with revalidations using the same <pre>ETag</pre> and
+ * <pre>Last-Modified</pre> validators.
+ *
+ * Completed lookups are not cached.
+ * To also coalesce policy fetches of different addresses on the same domain, let the delegate fetch via a
+ * {@link CoalescingCertificateFetcher}.
+ */
+public final class CoalescingCertificateDiscoverer implements CertificateDiscoverer, AsyncCertificateDiscoverer {
+
+    private final Lookup lookup;
+    private final Map<LookupKey, SharedLookup> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder coalesced = new LongAdder();
+
+    /**
+     * Coalesce the lookups of the given {@link CertificateDiscoverer}.
+     * If the delegate is an {@link AsyncCertificateDiscoverer}, lookups are performed asynchronously.
+     * Otherwise, the first caller performs the lookup on its own thread, while concurrent callers wait for its response.
+     *
+     * @param delegate discoverer performing the lookups
+     */
+    public CoalescingCertificateDiscoverer(@Nonnull CertificateDiscoverer delegate) {
+        if (delegate instanceof AsyncCertificateDiscoverer) {
+            AsyncCertificateDiscoverer async = (AsyncCertificateDiscoverer) delegate;
+            this.lookup = (method, address, deadline, cached) -> cached == null
+                    ? async.discoverAsync(method, address, deadline)
+                    : async.revalidateAsync(method, address, deadline, cached);
+        } else {
+            this.lookup = (method, address, deadline, cached) -> CompletableFuture.completedFuture(cached == null
+                    ? delegate.discover(method, address, deadline)
+                    : delegate.revalidate(method, address, deadline, cached));
+        }
+    }
+
+    @Override
+    public DiscoveryResponse discover(DiscoveryMethod method, WKDAddress address) {
+        return discover(method, address, Deadline.none());
+    }
+
+    @Override
+    public DiscoveryResponse discover(DiscoveryMethod method, WKDAddress address, Deadline deadline) {
+        return Futures.awaitResponse(discoverAsync(method, address, deadline), method, address);
+    }
+
+    @Override
+    public CompletableFuture<DiscoveryResponse> discoverAsync(DiscoveryMethod method, WKDAddress address) {
+        return discoverAsync(method, address, Deadline.none());
+    }
+
+    @Override
+    public CompletableFuture<DiscoveryResponse> discoverAsync(DiscoveryMethod method, WKDAddress address,
+                                                              Deadline deadline) {
+        return coalesce(new LookupKey(method, address.getEmail()), method, address, deadline, null);
+    }
+
+    @Override
+    public DiscoveryResponse revalidate(DiscoveryMethod method, WKDAddress address, Deadline deadline,
+                                        ResponseHeaders cached) {
+        return Futures.awaitResponse(revalidateAsync(method, address, deadline, cached), method, address);
+    }
+
+    @Override
+    public CompletableFuture<DiscoveryResponse> revalidateAsync(DiscoveryMethod method, WKDAddress address,
+                                                                Deadline deadline, ResponseHeaders cached) {
+        // Revalidations of different cached versions have different outcomes
+        LookupKey key = new LookupKey(method, address.getEmail(),
+                cached.getFirst(ResponseHeaders.ETAG), cached.getFirst(ResponseHeaders.LAST_MODIFIED));
+        return coalesce(key, method, address, deadline, cached);
+    }
+
+    private CompletableFuture<DiscoveryResponse> coalesce(LookupKey key, DiscoveryMethod method, WKDAddress address,
+                                                          Deadline deadline, @Nullable ResponseHeaders cached) {
+        SharedLookup created = new SharedLookup();
+        CompletableFuture<DiscoveryResponse> caller = created.attach();
+        SharedLookup existing;
+        while ((existing = inFlight.putIfAbsent(key, created)) != null) {
+            CompletableFuture<DiscoveryResponse> joined = existing.attach();
+            if (joined == null) {
+                // All callers of the existing lookup detached, it is being cancelled
+                inFlight.remove(key, existing);
+                continue;
+            }
+            coalesced.increment();
+            if (deadline.isBounded()) {
+                joined.completeOnTimeout(DiscoveryResponse.deadlineExceeded(method, address),
+                        Math.max(0, deadline.remainingNanos()), TimeUnit.NANOSECONDS);
+            }
+            return joined;
+        }
+
+        CompletableFuture<DiscoveryResponse> response;
+        try {
+            response = lookup.discover(method, address, deadline, cached);
+        } catch (RuntimeException | Error e) {
+            response = new CompletableFuture<>();
+            response.completeExceptionally(e);
+        }
+        created.start(response);
+        response.whenComplete((discoveryResponse, failure) -> {
+            // Remove first, so that later callers start a fresh lookup
+            inFlight.remove(key, created);
+            if (failure != null) {
+                created.shared.completeExceptionally(Futures.unwrap(failure));
+            } else {
+                created.shared.complete(discoveryResponse);
+            }
+        });
+        return caller;
+    }
+
+    /**
+     * Return the number of lookups which were answered by joining a lookup that was already in flight.
+     *
+     * @return number of coalesced lookups
+     */
+    public long getCoalescedCount() {
+        return coalesced.sum();
+    }
+
+    /**
+     * Return the number of lookups currently in flight.
+     *
+     * @return number of in-flight lookups
+     */
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    /**
+     * Lookup in flight, which is shared by all of its callers.
+     */
+    private static final class SharedLookup {
+
+        private final CompletableFuture<DiscoveryResponse> shared = new CompletableFuture<>();
+
+        // Guarded by this
+        private CompletableFuture<DiscoveryResponse> delegate;
+        private int callers;
+        private boolean abandoned;
+
+        /**
+         * Attach a caller to this lookup.
+         * The returned future is a copy, so that callers cannot complete or cancel the shared lookup.
+         *
+         * @return future of the caller, or null if all callers detached already
+         */
+        synchronized CompletableFuture<DiscoveryResponse> attach() {
+            if (abandoned) {
+                return null;
+            }
+            callers++;
+            CompletableFuture<DiscoveryResponse> caller = shared.copy();
+            caller.whenComplete((response, failure) -> {
+                // Callers which did not receive the shared response were cancelled or timed out
+                if (!shared.isDone()) {
+                    detach();
+                }
+            });
+            return caller;
+        }
+
+        void start(CompletableFuture<DiscoveryResponse> lookup) {
+            boolean cancel;
+            synchronized (this) {
+                delegate = lookup;
+                cancel = abandoned;
+            }
+            if (cancel) {
+                lookup.cancel(true);
+            }
+        }
+
+        private void detach() {
+            CompletableFuture<DiscoveryResponse> cancel = null;
+            synchronized (this) {
+                callers--;
+                if (callers == 0 && !abandoned) {
+                    abandoned = true;
+                    cancel = delegate;
+                }
+            }
+            if (cancel != null) {
+                cancel.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Lookup performed by the delegate.
+     */
+    private interface Lookup {
+
+        /**
+         * Perform the lookup, or revalidate the cached response, if its headers are given.
+         */
+        CompletableFuture<DiscoveryResponse> discover(DiscoveryMethod method, WKDAddress address, Deadline deadline,
+                                                      @Nullable ResponseHeaders cached);
+    }
+
+    /**
+     * Lookups are identified by method and email address, revalidations also by the validators of the cached response.
+     */
+    static final class LookupKey {
+
+        private final DiscoveryMethod method;
+        private final String email;
+        private final String etag;
+        private final String lastModified;
+
+        LookupKey(DiscoveryMethod method, String email) {
+            this(method, email, null, null);
+        }
+
+        LookupKey(DiscoveryMethod method, String email, @Nullable String etag, @Nullable String lastModified) {
+            this.method = method;
+            this.email = email;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof LookupKey)) {
+                return false;
+            }
+            LookupKey other = (LookupKey) o;
+            return method == other.method && email.equals(other.email)
+                    && Objects.equals(etag, other.etag) && Objects.equals(lastModified, other.lastModified);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = 31 * email.hashCode() + method.hashCode();
+            hash = 31 * hash + Objects.hashCode(etag);
+            return 31 * hash + Objects.hashCode(lastModified);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+// SPDX-FileCopyrightText: 2022 Paul Schaub <vanitasvitae@fsfe.org>
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package pgp.wkd.discovery;
+
+import pgp.wkd.WKDAddress;
+import pgp.wkd.WKDDomain;
+import pgp.wkd.exception.DeadlineExceededException;
+
+import javax.annotation.Nonnull;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * {@link AsyncCertificateFetcher} decorator which coalesces concurrent policy fetches.
+ * Concurrent requests for the policy of the same domain and {@link DiscoveryMethod} share a single fetch.
+ * The policy is buffered, so that each caller can read it from its own {@link InputStream}.
+ * A shared fetch is performed with the {@link Deadline} of the caller who started it. If that deadline passes,
+ * callers with a later deadline start the fetch again.
+ * Certificates are fetched by the delegate as usual, use {@link CoalescingCertificateDiscoverer} to coalesce
+ * concurrent lookups of the same address.
+ */
+public final class CoalescingCertificateFetcher implements AsyncCertificateFetcher {
+
+    private final AsyncCertificateFetcher delegate;
+    private final boolean retainCompleted;
+    private final Map<PolicyKey, CompletableFuture<byte[]>> policies = new ConcurrentHashMap<>();
+
+    /**
+     * Create a {@link CoalescingCertificateFetcher}.
+     *
+     * @param delegate fetcher performing the requests
+     */
+    public CoalescingCertificateFetcher(@Nonnull AsyncCertificateFetcher delegate) {
+        this(delegate, false);
+    }
+
+    private CoalescingCertificateFetcher(AsyncCertificateFetcher delegate, boolean retainCompleted) {
+        this.delegate = delegate;
+        this.retainCompleted = retainCompleted;
+    }
+
+    /**
+     * Create a fetcher which fetches the policy of each domain and method only once during its lifetime,
+     * e.g. for the duration of a batch of lookups.
+     *
+     * @param delegate fetcher performing the requests
+     * @return fetcher
+     */
+    static CoalescingCertificateFetcher memoizingPolicies(AsyncCertificateFetcher delegate) {
+        return new CoalescingCertificateFetcher(delegate, true);
+    }
+
+    @Override
+    public CompletableFuture<InputStream> fetchCertificate(WKDAddress address, DiscoveryMethod method) {
+        return delegate.fetchCertificate(address, method);
+    }
+
+    @Override
+    public CompletableFuture<InputStream> fetchCertificate(WKDAddress address, DiscoveryMethod method,
+                                                           Deadline deadline) {
+        return delegate.fetchCertificate(address, method, deadline);
+    }
+
+    @Override
+    public CompletableFuture<InputStream> fetchCertificate(WKDAddress address, DiscoveryMethod method,
+                                                           Deadline deadline, ResponseHeaders cached) {
+        return delegate.fetchCertificate(address, method, deadline, cached);
+    }
+
+    @Override
+    public CompletableFuture<InputStream> fetchPolicy(WKDAddress address, DiscoveryMethod method) {
+        return fetchPolicy(address, method, Deadline.none());
+    }
+
+    @Override
+    public CompletableFuture<InputStream> fetchPolicy(WKDAddress address, DiscoveryMethod method, Deadline deadline) {
+        return sharedPolicy(address, method, deadline, true).thenApply(ByteArrayInputStream::new);
+    }
+
+    /**
+     * Join the fetch of the policy in flight, or start it with the given {@link Deadline}.
+     * If the fetch was started by a caller with an earlier deadline which passed, it is started again once.
+     *
+     * @param address address
+     * @param method discovery method
+     * @param deadline deadline of the caller
+     * @param retry whether to start the fetch again, if the deadline of the caller who started it passed
+     * @return future of the policy
+     */
+    private CompletableFuture<byte[]> sharedPolicy(WKDAddress address, DiscoveryMethod method, Deadline deadline,
+                                                   boolean retry) {
+        PolicyKey key = new PolicyKey(address.getDomain(), method);
+        CompletableFuture<byte[]> policy = policies.get(key);
+        if (policy == null) {
+            CompletableFuture<byte[]> fetching = new CompletableFuture<>();
+            policy = policies.putIfAbsent(key, fetching);
+            if (policy == null) {
+                policy = fetching;
+                delegate.fetchPolicy(address, method, deadline)
+                        .thenApply(CoalescingCertificateFetcher::readFully)
+                        .whenComplete((bytes, failure) -> {
+                            Throwable cause = failure == null ? null : Futures.unwrap(failure);
+                            if (cause != null && !(cause instanceof DeadlineExceededException)
+                                    && deadline.isExpired()) {
+                                cause = new DeadlineExceededException("Deadline exceeded while fetching policy.", cause);
+                            }
+                            // A fetch which ran out of time says nothing about the policy
+                            if (!retainCompleted || cause instanceof DeadlineExceededException) {
+                                policies.remove(key, fetching);
+                            }
+                            if (cause != null) {
+                                fetching.completeExceptionally(cause);
+                            } else {
+                                fetching.complete(bytes);
+                            }
+                        });
+            }
+        }
+        if (!retry) {
+            return policy;
+        }
+        return policy.handle((bytes, failure) -> {
+                    if (failure == null) {
+                        return CompletableFuture.completedFuture(bytes);
+                    }
+                    if (Futures.unwrap(failure) instanceof DeadlineExceededException && !deadline.isExpired()) {
+                        return sharedPolicy(address, method, deadline, false);
+                    }
+                    return CompletableFuture.<byte[]>failedFuture(Futures.unwrap(failure));
+                })
+                .thenCompose(Function.identity());
+    }
+
+    private static byte[] readFully(InputStream inputStream) {
+        try (InputStream in = inputStream) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int read;
+            while ((read = in.read(buf)) != -1) {
+                out.write(buf, 0, read);
+            }
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    /**
+     * Policy files are shared per domain and {@link DiscoveryMethod}.
+     */
+    static final class PolicyKey {
+
+        private final WKDDomain domain;
+        private final DiscoveryMethod method;
+
+        PolicyKey(WKDDomain domain, DiscoveryMethod method) {
+            this.domain = domain;
+            this.method = method;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof PolicyKey)) {
+                return false;
+            }
+            PolicyKey other = (PolicyKey) o;
+            return domain.equals(other.domain) && method == other.method;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * domain.hashCode() + method.hashCode();
+        }
+    }
+}
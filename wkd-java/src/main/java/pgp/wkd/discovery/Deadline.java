@@ -0,0 +1,103 @@
+// SPDX-FileCopyrightText: 2022 Paul Schaub <vanitasvitae@fsfe.org>
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package pgp.wkd.discovery;
+
+import javax.annotation.Nonnull;
+import java.time.Duration;
+
+/**
+ * Point in time by which a lookup must be completed.
+ * A deadline is created once per lookup and passed down to each fetch, which uses the remaining time as its budget.
+ */
+public final class Deadline {
+
+    private static final Deadline NONE = new Deadline(0L, false);
+
+    private final long deadlineNanos;
+    private final boolean bounded;
+
+    private Deadline(long deadlineNanos, boolean bounded) {
+        this.deadlineNanos = deadlineNanos;
+        this.bounded = bounded;
+    }
+
+    /**
+     * Return a {@link Deadline} which never expires.
+     *
+     * @return unbounded deadline
+     */
+    @Nonnull
+    public static Deadline none() {
+        return NONE;
+    }
+
+    /**
+     * Return a {@link Deadline} which expires once the given budget is used up.
+     *
+     * @param budget time budget, starting now
+     * @return deadline
+     */
+    @Nonnull
+    public static Deadline after(@Nonnull Duration budget) {
+        if (budget.isNegative()) {
+            throw new IllegalArgumentException("Budget MUST NOT be negative.");
+        }
+        long nanos;
+        try {
+            nanos = budget.toNanos();
+        } catch (ArithmeticException e) {
+            // Budgets of more than 292 years
+            return NONE;
+        }
+        return new Deadline(System.nanoTime() + nanos, true);
+    }
+
+    /**
+     * Return true, if this deadline expires at all.
+     *
+     * @return whether the deadline is bounded
+     */
+    public boolean isBounded() {
+        return bounded;
+    }
+
+    /**
+     * Return true, if the deadline has passed.
+     *
+     * @return whether the deadline is expired
+     */
+    public boolean isExpired() {
+        return bounded && remainingNanos() <= 0;
+    }
+
+    /**
+     * Return the remaining time in nanoseconds.
+     * The result is {@link Long#MAX_VALUE} for unbounded deadlines and zero or negative for expired deadlines.
+     *
+     * @return remaining nanoseconds
+     */
+    public long remainingNanos() {
+        if (!bounded) {
+            return Long.MAX_VALUE;
+        }
+        return deadlineNanos - System.nanoTime();
+    }
+
+    /**
+     * Return the timeout in milliseconds for a single blocking operation, which is the given default timeout,
+     * capped by the remaining time.
+     * The result is at least 1, since a timeout of 0 usually means "no timeout".
+     *
+     * @param defaultTimeoutMillis default timeout in milliseconds
+     * @return timeout in milliseconds
+     */
+    public int timeoutMillis(int defaultTimeoutMillis) {
+        if (!bounded) {
+            return defaultTimeoutMillis;
+        }
+        long remainingMillis = (remainingNanos() + 999_999) / 1_000_000;
+        return (int) Math.max(1, Math.min(defaultTimeoutMillis, remainingMillis));
+    }
+}
@@ -0,0 +1,332 @@
+// SPDX-FileCopyrightText: 2022 Paul Schaub <vanitasvitae@fsfe.org>
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package pgp.wkd.discovery;
+
+import pgp.wkd.WKDAddress;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * {@link Flow.Processor} which discovers the certificates of the {@link WKDAddress WKDAddresses} it receives
+ * and publishes the {@link DiscoveryResult DiscoveryResults}.
+ *
+ * Addresses are only requested from the upstream publisher if the downstream subscriber signalled demand for
+ * results and fewer than the configured number of lookups are in flight, so that memory use stays constant
+ * regardless of the number of processed addresses.
+ * Results are published in the order their lookups complete, which can differ from the order of the addresses.
+ *
+ * The processor supports a single subscriber.
+ * If a lookup fails exceptionally, the failure is signalled to the subscriber, and the upstream and the other
+ * lookups in flight are cancelled.
+ * If the subscriber cancels its subscription, the upstream and the lookups in flight are cancelled.
+ */
+public final class DiscoveryProcessor implements Flow.Processor<WKDAddress, DiscoveryResult> {
+
+    private final Function<WKDAddress, CompletableFuture<DiscoveryResult>> lookup;
+    private final int maxInFlight;
+
+    private final AtomicInteger wip = new AtomicInteger();
+    private final Object lock = new Object();
+
+    // Guarded by lock
+    private Flow.Subscription upstream;
+    private Flow.Subscriber<? super DiscoveryResult> downstream;
+    private final Queue<DiscoveryResult> ready = new ArrayDeque<>();
+    private final Set<CompletableFuture<DiscoveryResult>> lookups = new HashSet<>();
+    private long demand;
+    private long upstreamRequested;
+    private int inFlight;
+    private boolean upstreamDone;
+    private Throwable failure;
+    private boolean terminated;
+
+    /**
+     * Create a {@link DiscoveryProcessor} using an {@link AsyncCertificateDiscoverer}.
+     *
+     * @param discoverer discoverer
+     * @param maxInFlight maximum number of concurrent lookups
+     */
+    public DiscoveryProcessor(@Nonnull AsyncCertificateDiscoverer discoverer, int maxInFlight) {
+        this((Function<WKDAddress, CompletableFuture<DiscoveryResult>>) discoverer::discoverAsync, maxInFlight);
+    }
+
+    /**
+     * Create a {@link DiscoveryProcessor} using a blocking {@link CertificateDiscoverer},
+     * whose lookups are run on the given {@link Executor}.
+     *
+     * @param discoverer discoverer
+     * @param executor executor running the lookups
+     * @param maxInFlight maximum number of concurrent lookups
+     */
+    public DiscoveryProcessor(@Nonnull CertificateDiscoverer discoverer, @Nonnull Executor executor, int maxInFlight) {
+        this(address -> CompletableFuture.supplyAsync(() -> discoverer.discover(address), executor), maxInFlight);
+    }
+
+    private DiscoveryProcessor(Function<WKDAddress, CompletableFuture<DiscoveryResult>> lookup, int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("Maximum number of in-flight lookups MUST be positive.");
+        }
+        this.lookup = lookup;
+        this.maxInFlight = maxInFlight;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super DiscoveryResult> subscriber) {
+        boolean accepted;
+        synchronized (lock) {
+            accepted = downstream == null;
+            if (accepted) {
+                downstream = subscriber;
+            }
+        }
+        if (!accepted) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                    // rejected
+                }
+
+                @Override
+                public void cancel() {
+                    // rejected
+                }
+            });
+            subscriber.onError(new IllegalStateException("DiscoveryProcessor supports only a single subscriber."));
+            return;
+        }
+        subscriber.onSubscribe(new Subscription());
+        drain();
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        boolean accepted;
+        synchronized (lock) {
+            accepted = upstream == null && !terminated;
+            if (accepted) {
+                upstream = subscription;
+            }
+        }
+        if (!accepted) {
+            subscription.cancel();
+            return;
+        }
+        drain();
+    }
+
+    @Override
+    public void onNext(WKDAddress address) {
+        synchronized (lock) {
+            if (terminated) {
+                return;
+            }
+            upstreamRequested--;
+            inFlight++;
+        }
+
+        CompletableFuture<DiscoveryResult> result;
+        try {
+            result = lookup.apply(address);
+        } catch (RuntimeException e) {
+            result = new CompletableFuture<>();
+            result.completeExceptionally(e);
+        }
+        boolean cancelled;
+        synchronized (lock) {
+            cancelled = terminated;
+            if (!cancelled) {
+                lookups.add(result);
+            }
+        }
+        if (cancelled) {
+            result.cancel(true);
+        }
+        CompletableFuture<DiscoveryResult> lookupFuture = result;
+        result.whenComplete((discoveryResult, throwable) -> {
+            synchronized (lock) {
+                lookups.remove(lookupFuture);
+                inFlight--;
+                if (throwable != null) {
+                    if (failure == null) {
+                        failure = Futures.unwrap(throwable);
+                    }
+                } else {
+                    ready.add(discoveryResult);
+                }
+            }
+            drain();
+        });
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        synchronized (lock) {
+            upstreamDone = true;
+            if (failure == null) {
+                failure = throwable;
+            }
+        }
+        drain();
+    }
+
+    @Override
+    public void onComplete() {
+        synchronized (lock) {
+            upstreamDone = true;
+        }
+        drain();
+    }
+
+    /**
+     * Deliver ready results, signal termination and request more addresses, as state permits.
+     * Only one thread drains at a time, which serializes the signals to the subscriber.
+     */
+    private void drain() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            Flow.Subscriber<? super DiscoveryResult> subscriber;
+            synchronized (lock) {
+                subscriber = downstream;
+            }
+            if (subscriber != null) {
+                deliver(subscriber);
+                terminateIfDone(subscriber);
+                requestMore();
+            }
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private void deliver(Flow.Subscriber<? super DiscoveryResult> subscriber) {
+        while (true) {
+            DiscoveryResult result;
+            synchronized (lock) {
+                if (terminated || failure != null || demand == 0 || ready.isEmpty()) {
+                    return;
+                }
+                result = ready.remove();
+                if (demand != Long.MAX_VALUE) {
+                    demand--;
+                }
+            }
+            subscriber.onNext(result);
+        }
+    }
+
+    private void terminateIfDone(Flow.Subscriber<? super DiscoveryResult> subscriber) {
+        Throwable error;
+        Flow.Subscription cancelUpstream = null;
+        List<CompletableFuture<DiscoveryResult>> cancelLookups = new ArrayList<>();
+        synchronized (lock) {
+            if (terminated) {
+                return;
+            }
+            if (failure != null) {
+                // Fail fast, unless the upstream failed after sending all of its addresses
+                error = failure;
+                if (!upstreamDone) {
+                    cancelUpstream = upstream;
+                }
+            } else if (upstreamDone && inFlight == 0 && ready.isEmpty()) {
+                error = null;
+            } else {
+                return;
+            }
+            terminated = true;
+            ready.clear();
+            // Lookups still in flight once the stream failed
+            cancelLookups.addAll(lookups);
+            lookups.clear();
+        }
+        if (cancelUpstream != null) {
+            cancelUpstream.cancel();
+        }
+        for (CompletableFuture<DiscoveryResult> lookupFuture : cancelLookups) {
+            lookupFuture.cancel(true);
+        }
+        if (error != null) {
+            subscriber.onError(error);
+        } else {
+            subscriber.onComplete();
+        }
+    }
+
+    private void requestMore() {
+        Flow.Subscription subscription;
+        long request;
+        synchronized (lock) {
+            if (terminated || upstreamDone || upstream == null) {
+                return;
+            }
+            long outstanding = upstreamRequested + inFlight + ready.size();
+            request = Math.min(maxInFlight, demand) - outstanding;
+            if (request <= 0) {
+                return;
+            }
+            upstreamRequested += request;
+            subscription = upstream;
+        }
+        subscription.request(request);
+    }
+
+    /**
+     * Subscription of the downstream subscriber.
+     */
+    private final class Subscription implements Flow.Subscription {
+
+        @Override
+        public void request(long n) {
+            synchronized (lock) {
+                if (downstream == null || terminated) {
+                    return;
+                }
+                if (n <= 0) {
+                    if (failure == null) {
+                        failure = new IllegalArgumentException("Requested number of results MUST be positive.");
+                    }
+                } else {
+                    demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                }
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            Flow.Subscription cancelUpstream;
+            List<CompletableFuture<DiscoveryResult>> cancelLookups;
+            synchronized (lock) {
+                if (terminated) {
+                    return;
+                }
+                terminated = true;
+                ready.clear();
+                cancelUpstream = upstream;
+                cancelLookups = new ArrayList<>(lookups);
+                lookups.clear();
+            }
+            if (cancelUpstream != null) {
+                cancelUpstream.cancel();
+            }
+            for (CompletableFuture<DiscoveryResult> lookupFuture : cancelLookups) {
+                lookupFuture.cancel(true);
+            }
+        }
+    }
+}
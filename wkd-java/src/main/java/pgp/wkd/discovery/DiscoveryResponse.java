@@ -7,7 +7,10 @@ package pgp.wkd.discovery;
 import pgp.certificate_store.certificate.Certificate;
 import pgp.wkd.RejectedCertificate;
 import pgp.wkd.WKDAddress;
+import pgp.wkd.exception.DeadlineExceededException;
+import pgp.wkd.exception.LookupCancelledException;
 import pgp.wkd.exception.MissingPolicyFileException;
+import pgp.wkd.exception.NotModifiedException;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -27,6 +30,8 @@ public final class DiscoveryResponse {
     private final Throwable fetchingFailure;
     private final WKDPolicy policy;
     private final MissingPolicyFileException missingPolicyFileException;
+    private final ResponseHeaders responseHeaders;
+    private final boolean stale;
 
     /**
      * Constructor for a {@link DiscoveryResponse} object.
@@ -43,7 +48,9 @@ public final class DiscoveryResponse {
             List<RejectedCertificate> rejectedCertificates,
             Throwable fetchingFailure,
             WKDPolicy policy,
-            MissingPolicyFileException missingPolicyFileException) {
+            MissingPolicyFileException missingPolicyFileException,
+            ResponseHeaders responseHeaders,
+            boolean stale) {
         this.method = method;
         this.address = address;
         this.certificates = certificates;
@@ -51,6 +58,8 @@ public final class DiscoveryResponse {
         this.fetchingFailure = fetchingFailure;
         this.policy = policy;
         this.missingPolicyFileException = missingPolicyFileException;
+        this.responseHeaders = responseHeaders;
+        this.stale = stale;
     }
 
     /**
@@ -156,6 +165,117 @@ public final class DiscoveryResponse {
         return policy;
     }
 
+    /**
+     * Return the headers of the response which contained the certificates.
+     * The headers are empty, if the certificates could not be fetched, or if the
+     * {@link CertificateFetcher} does not expose headers.
+     *
+     * @return response headers
+     */
+    @Nonnull
+    public ResponseHeaders getResponseHeaders() {
+        return responseHeaders;
+    }
+
+    /**
+     * Return true, if the lookup was aborted because its {@link Deadline} passed.
+     * Such a response says nothing about the availability of the certificate.
+     *
+     * @return true if the deadline was exceeded
+     */
+    public boolean isDeadlineExceeded() {
+        return failedWith(DeadlineExceededException.class);
+    }
+
+    /**
+     * Return true, if the lookup was aborted because it was cancelled.
+     * Such a response says nothing about the availability of the certificate.
+     *
+     * @return true if the lookup was cancelled
+     */
+    public boolean isCancelled() {
+        return failedWith(LookupCancelledException.class);
+    }
+
+    /**
+     * Return true, if the lookup revalidated a cached response, and the server answered that the certificate
+     * was not modified since. Such a response carries no certificates, but the headers of the
+     * <pre>304 Not Modified</pre> response.
+     *
+     * @return whether the certificate was not modified
+     * @see CertificateDiscoverer#revalidate(DiscoveryMethod, WKDAddress, Deadline, ResponseHeaders)
+     */
+    public boolean isNotModified() {
+        return fetchingFailure instanceof NotModifiedException;
+    }
+
+    /**
+     * Return true, if this response was served from a cache after it expired, e.g. while it is refreshed in the
+     * background, or since the WKD could not be reached.
+     *
+     * @return whether the response is stale
+     * @see CachingCertificateDiscoverer
+     */
+    public boolean isStale() {
+        return stale;
+    }
+
+    /**
+     * Return a copy of this response, which is marked as {@link #isStale() stale}.
+     *
+     * @return stale response
+     */
+    DiscoveryResponse asStale() {
+        if (stale) {
+            return this;
+        }
+        return new DiscoveryResponse(method, address, certificates, rejectedCertificates, fetchingFailure,
+                policy, missingPolicyFileException, responseHeaders, true);
+    }
+
+    /**
+     * Return a copy of this response, which carries the policy of the given response.
+     * Used when the certificates of this response were revalidated, since the policy is fetched anew.
+     *
+     * @param other response of the revalidation
+     * @return response with the certificates of this, and the policy of the other response
+     */
+    DiscoveryResponse withPolicyOf(DiscoveryResponse other) {
+        return new DiscoveryResponse(method, address, certificates, rejectedCertificates, fetchingFailure,
+                other.policy, other.missingPolicyFileException, responseHeaders, false);
+    }
+
+    private boolean failedWith(Class<? extends Throwable> failureType) {
+        return failureType.isInstance(fetchingFailure)
+                || (missingPolicyFileException != null && failureType.isInstance(missingPolicyFileException.getCause()));
+    }
+
+    /**
+     * Return a response indicating that the lookup was aborted because its {@link Deadline} passed.
+     *
+     * @param discoveryMethod method used for discovery
+     * @param address WKD address
+     * @return response
+     */
+    static DiscoveryResponse deadlineExceeded(@Nonnull DiscoveryMethod discoveryMethod, @Nonnull WKDAddress address) {
+        return builder(discoveryMethod, address)
+                .setFetchingFailure(new DeadlineExceededException("Deadline exceeded during discovery."))
+                .build();
+    }
+
+    /**
+     * Return a response indicating that the lookup was cancelled.
+     *
+     * @param discoveryMethod method used for discovery
+     * @param address WKD address
+     * @return response
+     */
+    static DiscoveryResponse cancelled(@Nonnull DiscoveryMethod discoveryMethod, @Nonnull WKDAddress address) {
+        return builder(discoveryMethod, address)
+                .setFetchingFailure(new LookupCancelledException("Discovery was cancelled."))
+                .build();
+    }
+
     /**
      * Builder for {@link DiscoveryResponse}.
      *
@@ -176,6 +296,7 @@ public final class DiscoveryResponse {
         private Throwable fetchingFailure;
         private WKDPolicy policy;
         private MissingPolicyFileException missingPolicyFileException;
+        private ResponseHeaders responseHeaders = ResponseHeaders.empty();
 
         Builder(DiscoveryMethod discoveryMethod, WKDAddress address) {
             this.discoveryMethod = discoveryMethod;
@@ -207,6 +328,11 @@ public final class DiscoveryResponse {
             return this;
         }
 
+        Builder setResponseHeaders(ResponseHeaders responseHeaders) {
+            this.responseHeaders = responseHeaders;
+            return this;
+        }
+
         DiscoveryResponse build() {
             return new DiscoveryResponse(
                     discoveryMethod,
@@ -215,7 +341,9 @@ public final class DiscoveryResponse {
                     rejectedCertificates,
                     fetchingFailure,
                     policy,
-                    missingPolicyFileException
+                    missingPolicyFileException,
+                    responseHeaders,
+                    false
             );
         }
     }
@@ -62,6 +62,21 @@ public class DiscoveryResult {
         return false;
     }
 
+    /**
+     * Return true, if at least one {@link DiscoveryResponse} is {@link DiscoveryResponse#isStale() stale},
+     * that is, if it was served from a cache after it expired.
+     *
+     * @return whether the result is stale
+     */
+    public boolean isStale() {
+        for (DiscoveryResponse item : items) {
+            if (item.isStale()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Write out the (successful) result (certificates) to the given {@link OutputStream}.
      * This method does not close the output stream.
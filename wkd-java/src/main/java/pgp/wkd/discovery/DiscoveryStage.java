@@ -0,0 +1,186 @@
+// SPDX-FileCopyrightText: 2022 Paul Schaub <vanitasvitae@fsfe.org>
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package pgp.wkd.discovery;
+
+import javax.annotation.Nonnull;
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Stage of a {@link StagedCertificateDiscoverer}, which runs its tasks on a fixed number of threads.
+ *
+ * Tasks wait in a bounded queue until a thread is available.
+ * If the queue is full, further tasks are rejected with a {@link RejectedExecutionException}, which fails the
+ * affected lookups instead of letting the backlog grow without bounds.
+ * The stage records queue metrics, which help with sizing its threads and queue.
+ */
+public final class DiscoveryStage implements Executor, AutoCloseable {
+
+    private final String name;
+    private final int threads;
+    private final int queueCapacity;
+    private final BlockingQueue<Runnable> queue;
+    private final ThreadPoolExecutor executor;
+
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder started = new LongAdder();
+    private final LongAdder queueWaitNanos = new LongAdder();
+    private final LongAccumulator peakQueueSize = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Create a {@link DiscoveryStage}.
+     *
+     * @param name name of the stage, used for its threads
+     * @param threads number of threads
+     * @param queueCapacity maximum number of tasks waiting for a thread
+     */
+    public DiscoveryStage(@Nonnull String name, int threads, int queueCapacity) {
+        if (threads < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("Number of threads and queue capacity MUST be positive.");
+        }
+        this.name = name;
+        this.threads = threads;
+        this.queueCapacity = queueCapacity;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+
+        String prefix = "wkd-" + name + "-";
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, prefix + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        this.executor = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.MINUTES, queue, threadFactory);
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    public void execute(@Nonnull Runnable task) {
+        long enqueued = System.nanoTime();
+        try {
+            executor.execute(() -> {
+                queueWaitNanos.add(System.nanoTime() - enqueued);
+                started.increment();
+                task.run();
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            throw new RejectedExecutionException("Queue of discovery stage '" + name + "' is full.", e);
+        }
+        peakQueueSize.accumulate(queue.size());
+    }
+
+    /**
+     * Return the name of this stage.
+     *
+     * @return name
+     */
+    @Nonnull
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Return the number of threads of this stage.
+     *
+     * @return number of threads
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Return the maximum number of tasks waiting for a thread.
+     *
+     * @return queue capacity
+     */
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * Return the number of tasks currently waiting for a thread.
+     *
+     * @return queue size
+     */
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    /**
+     * Return the largest number of tasks that waited for a thread at the same time.
+     *
+     * @return peak queue size
+     */
+    public long getPeakQueueSize() {
+        return peakQueueSize.get();
+    }
+
+    /**
+     * Return the number of threads currently running tasks.
+     *
+     * @return number of busy threads
+     */
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * Return the number of tasks which were started.
+     *
+     * @return number of started tasks
+     */
+    public long getStartedTaskCount() {
+        return started.sum();
+    }
+
+    /**
+     * Return the number of tasks which were rejected, since the queue was full.
+     *
+     * @return number of rejected tasks
+     */
+    public long getRejectedTaskCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * Return the average time the started tasks waited in the queue.
+     *
+     * @return average queue wait time
+     */
+    @Nonnull
+    public Duration getAverageQueueWait() {
+        long count = started.sum();
+        return count == 0 ? Duration.ZERO : Duration.ofNanos(queueWaitNanos.sum() / count);
+    }
+
+    /**
+     * Shut down the threads of this stage. Queued tasks are still run.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    @Override
+    public String toString() {
+        return "DiscoveryStage{" + name
+                + ", threads=" + getActiveCount() + "/" + threads
+                + ", queue=" + getQueueSize() + "/" + queueCapacity
+                + ", peakQueue=" + getPeakQueueSize()
+                + ", started=" + getStartedTaskCount()
+                + ", rejected=" + getRejectedTaskCount()
+                + ", averageQueueWait=" + getAverageQueueWait().toNanos() / 1000 + "us}";
+    }
+}
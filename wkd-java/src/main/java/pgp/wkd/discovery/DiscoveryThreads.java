@@ -0,0 +1,57 @@
+// SPDX-FileCopyrightText: 2022 Paul Schaub <vanitasvitae@fsfe.org>
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package pgp.wkd.discovery;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Factory for the threads which run blocking discovery requests.
+ *
+ * This is the Java 11 variant, which uses a bounded pool of platform threads.
+ * The multi-release JAR contains a Java 21 variant in <pre>src/main/java21</pre>, which uses virtual threads instead.
+ */
+final class DiscoveryThreads {
+
+    private static final AtomicInteger POOL_COUNT = new AtomicInteger();
+
+    private DiscoveryThreads() {
+
+    }
+
+    /**
+     * Return true, if {@link #newExecutor(int)} creates a virtual thread per task.
+     *
+     * @return whether virtual threads are used
+     */
+    static boolean isVirtual() {
+        return false;
+    }
+
+    /**
+     * Create an {@link ExecutorService} for blocking discovery requests.
+     * Idle threads are discarded after a minute, excess tasks are queued.
+     *
+     * @param platformThreads maximum number of platform threads
+     * @return executor service
+     */
+    static ExecutorService newExecutor(int platformThreads) {
+        String prefix = "wkd-discovery-" + POOL_COUNT.incrementAndGet() + "-";
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, prefix + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(platformThreads, platformThreads,
+                1, TimeUnit.MINUTES, new LinkedBlockingQueue<>(), threadFactory);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
@@ -0,0 +1,250 @@
+// SPDX-FileCopyrightText: 2022 Paul Schaub <vanitasvitae@fsfe.org>
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package pgp.wkd.discovery;
+
+import pgp.wkd.WKDAddress;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Helpers for bridging blocking and {@link CompletableFuture}-based code.
+ */
+final class Futures {
+
+    // Call running on the current thread, if started by call(Executor, BlockingCall)
+    private static final ThreadLocal<CancellableCall> CURRENT_CALL = new ThreadLocal<>();
+
+    private Futures() {
+
+    }
+
+    /**
+     * Blocking call, which might throw an {@link IOException}.
+     *
+     * @param <T> result type
+     */
+    interface BlockingCall<T> {
+
+        /**
+         * Perform the call.
+         *
+         * @return result
+         * @throws IOException in case of an IO error
+         */
+        T call() throws IOException;
+    }
+
+    /**
+     * Execute a blocking call on the given {@link Executor}.
+     * Cancelling the returned future interrupts the thread running the call and closes the resources the call
+     * registered via {@link #closeOnCancel(Closeable)}.
+     * If the call returns a {@link Closeable} result after it was cancelled, the result is closed.
+     *
+     * @param executor executor
+     * @param call blocking call
+     * @param <T> result type
+     * @return future of the result of the call
+     */
+    static <T> CompletableFuture<T> call(Executor executor, BlockingCall<T> call) {
+        CancellableCall cancellable = new CancellableCall();
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.whenComplete((result, failure) -> {
+            if (future.isCancelled()) {
+                cancellable.cancel();
+            }
+        });
+        Runnable task = () -> {
+            if (!cancellable.start()) {
+                return;
+            }
+            CancellableCall outer = CURRENT_CALL.get();
+            CURRENT_CALL.set(cancellable);
+            try {
+                T result = call.call();
+                if (!future.complete(result) && result instanceof Closeable) {
+                    closeQuietly((Closeable) result);
+                }
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            } finally {
+                CURRENT_CALL.set(outer);
+                cancellable.finish();
+            }
+        };
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            // Report overload like any other failure of the call
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Register a resource, which is closed if the call running on the current thread is cancelled.
+     * This allows blocking calls to abort IO operations which do not respond to interrupts.
+     * Outside of calls started by {@link #call(Executor, BlockingCall)}, this method does nothing.
+     *
+     * @param resource resource
+     */
+    static void closeOnCancel(Closeable resource) {
+        CancellableCall current = CURRENT_CALL.get();
+        if (current != null) {
+            current.register(resource);
+        }
+    }
+
+    /**
+     * Cancel the given future, once the given lookup was cancelled.
+     *
+     * @param lookup lookup
+     * @param future future of a part of the lookup
+     */
+    static void cancelOnCancel(CompletableFuture<?> lookup, Future<?> future) {
+        lookup.whenComplete((result, failure) -> {
+            if (lookup.isCancelled()) {
+                future.cancel(true);
+            }
+        });
+    }
+
+    /**
+     * Wait for the given lookup and return its response.
+     * If the waiting thread is interrupted, the lookup is cancelled and a response indicating the cancellation is
+     * returned. The interrupt status of the thread is preserved.
+     *
+     * @param lookup future of the response
+     * @param method discovery method
+     * @param address wkd address
+     * @return response
+     */
+    static DiscoveryResponse awaitResponse(CompletableFuture<DiscoveryResponse> lookup,
+                                           DiscoveryMethod method, WKDAddress address) {
+        try {
+            return lookup.get();
+        } catch (InterruptedException e) {
+            lookup.cancel(true);
+            Thread.currentThread().interrupt();
+            return DiscoveryResponse.cancelled(method, address);
+        } catch (ExecutionException e) {
+            return join(lookup);
+        }
+    }
+
+    /**
+     * Close the given resource, ignoring failures.
+     *
+     * @param resource resource
+     */
+    static void closeQuietly(Closeable resource) {
+        try {
+            resource.close();
+        } catch (IOException | RuntimeException e) {
+            // ignore
+        }
+    }
+
+    /**
+     * Wait for the given future and return its result.
+     * Since none of the callers throw checked exceptions, unchecked failures are rethrown as they are.
+     *
+     * @param future future
+     * @param <T> result type
+     * @return result
+     */
+    static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = unwrap(e);
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Strip the {@link CompletionException} and {@link ExecutionException} wrappers from the given failure.
+     *
+     * @param throwable failure
+     * @return cause
+     */
+    static Throwable unwrap(Throwable throwable) {
+        Throwable cause = throwable;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException)
+                && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+
+    /**
+     * Cancellation state of a blocking call.
+     */
+    private static final class CancellableCall {
+
+        // Guarded by this
+        private final List<Closeable> resources = new ArrayList<>();
+        private Thread thread;
+        private boolean cancelled;
+
+        synchronized boolean start() {
+            if (!cancelled) {
+                thread = Thread.currentThread();
+            }
+            return !cancelled;
+        }
+
+        void register(Closeable resource) {
+            synchronized (this) {
+                if (!cancelled) {
+                    resources.add(resource);
+                    return;
+                }
+            }
+            closeQuietly(resource);
+        }
+
+        synchronized void finish() {
+            thread = null;
+            resources.clear();
+            if (cancelled) {
+                // Clear the interrupt which was meant for this call, before the thread runs other tasks
+                Thread.interrupted();
+            }
+        }
+
+        void cancel() {
+            List<Closeable> toClose;
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                cancelled = true;
+                if (thread != null) {
+                    thread.interrupt();
+                }
+                toClose = new ArrayList<>(resources);
+                resources.clear();
+            }
+            for (Closeable resource : toClose) {
+                closeQuietly(resource);
+            }
+        }
+    }
+}
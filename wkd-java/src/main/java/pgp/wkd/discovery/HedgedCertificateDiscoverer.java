@@ -0,0 +1,201 @@
+// SPDX-FileCopyrightText: 2022 Paul Schaub <vanitasvitae@fsfe.org>
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package pgp.wkd.discovery;
+
+import pgp.wkd.WKDAddress;
+import pgp.wkd.exception.DeadlineExceededException;
+import pgp.wkd.exception.LookupCancelledException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * {@link CertificateDiscoverer} which hedges the discovery of a {@link WKDAddress} by starting the
+ * {@link DiscoveryMethod#direct} method while the {@link DiscoveryMethod#advanced} method is still in flight.
+ *
+ * Sequential discovery only starts the direct method once the advanced method failed, which on domains without an
+ * <pre>openpgpkey</pre> subdomain can take a full connect timeout.
+ * This discoverer instead starts the direct method once the advanced method did not complete within the hedge delay.
+ * The advanced method takes precedence: If the direct method succeeds first, the advanced method is given a grace
+ * period to succeed as well, before it is cancelled and the direct response is returned.
+ * If the advanced method succeeds, the direct method is cancelled.
+ *
+ * Cancellation interrupts the thread executing the losing request.
+ * Whether this aborts the underlying connection depends on the delegate. The {@link ValidatingCertificateDiscoverer}
+ * cancels its lookup, which closes the connections of the built-in fetchers.
+ * If the thread calling {@link #discover(WKDAddress)} is interrupted, both requests are cancelled.
+ * If the lookup has a {@link Deadline}, both methods share it, and requests still in flight once it passed
+ * are cancelled.
+ *
+ * Lookups and revalidations of a single method are passed to the delegate as-is.
+ */
+public class HedgedCertificateDiscoverer implements CertificateDiscoverer {
+
+    private final CertificateDiscoverer delegate;
+    private final Executor executor;
+    private final long hedgeDelayNanos;
+    private final long advancedGracePeriodNanos;
+
+    /**
+     * Create a {@link HedgedCertificateDiscoverer} which gives the advanced method a grace period of the same
+     * length as the hedge delay.
+     *
+     * @param delegate discoverer performing the discovery requests
+     * @param executor executor running the discovery requests
+     * @param hedgeDelay time after which the direct method is started, {@link Duration#ZERO} to start both at once
+     */
+    public HedgedCertificateDiscoverer(@Nonnull CertificateDiscoverer delegate,
+                                       @Nonnull Executor executor,
+                                       @Nonnull Duration hedgeDelay) {
+        this(delegate, executor, hedgeDelay, hedgeDelay);
+    }
+
+    /**
+     * Create a {@link HedgedCertificateDiscoverer}.
+     *
+     * @param delegate discoverer performing the discovery requests
+     * @param executor executor running the discovery requests
+     * @param hedgeDelay time after which the direct method is started, {@link Duration#ZERO} to start both at once
+     * @param advancedGracePeriod time the advanced method is given to succeed, once the direct method succeeded
+     */
+    public HedgedCertificateDiscoverer(@Nonnull CertificateDiscoverer delegate,
+                                       @Nonnull Executor executor,
+                                       @Nonnull Duration hedgeDelay,
+                                       @Nonnull Duration advancedGracePeriod) {
+        if (hedgeDelay.isNegative() || advancedGracePeriod.isNegative()) {
+            throw new IllegalArgumentException("Hedge delay and grace period MUST NOT be negative.");
+        }
+        this.delegate = delegate;
+        this.executor = executor;
+        this.hedgeDelayNanos = hedgeDelay.toNanos();
+        this.advancedGracePeriodNanos = advancedGracePeriod.toNanos();
+    }
+
+    @Override
+    public DiscoveryResponse discover(DiscoveryMethod method, WKDAddress address) {
+        return delegate.discover(method, address);
+    }
+
+    @Override
+    public DiscoveryResponse discover(DiscoveryMethod method, WKDAddress address, Deadline deadline) {
+        return delegate.discover(method, address, deadline);
+    }
+
+    @Override
+    public DiscoveryResponse revalidate(DiscoveryMethod method, WKDAddress address, Deadline deadline,
+                                        ResponseHeaders cached) {
+        return delegate.revalidate(method, address, deadline, cached);
+    }
+
+    @Override
+    public DiscoveryResult discover(WKDAddress address, Deadline deadline) {
+        CompletionService<DiscoveryResponse> completion = new ExecutorCompletionService<>(executor);
+        Future<DiscoveryResponse> advanced = completion.submit(
+                () -> delegate.discover(DiscoveryMethod.advanced, address, deadline));
+        Future<DiscoveryResponse> direct = null;
+
+        try {
+            if (completion.poll(hedgeDelayNanos, TimeUnit.NANOSECONDS) == null) {
+                // Advanced method is slow, hedge with the direct method
+                direct = completion.submit(() -> delegate.discover(DiscoveryMethod.direct, address, deadline));
+                Future<DiscoveryResponse> first = completion.poll(deadline.remainingNanos(), TimeUnit.NANOSECONDS);
+                if (first == null) {
+                    throw new TimeoutException();
+                }
+                if (first == direct) {
+                    DiscoveryResponse directResponse = getResponse(direct, deadline);
+                    long gracePeriodNanos = Math.min(advancedGracePeriodNanos, deadline.remainingNanos());
+                    if (directResponse.isSuccessful()
+                            && completion.poll(gracePeriodNanos, TimeUnit.NANOSECONDS) == null) {
+                        advanced.cancel(true);
+                        return result(null, directResponse);
+                    }
+                }
+            }
+
+            DiscoveryResponse advancedResponse = getResponse(advanced, deadline);
+            if (advancedResponse.isSuccessful()) {
+                if (direct != null) {
+                    direct.cancel(true);
+                }
+                return result(advancedResponse, null);
+            }
+            if (direct == null) {
+                // Advanced method failed within the hedge delay
+                return result(advancedResponse, delegate.discover(DiscoveryMethod.direct, address, deadline));
+            }
+            return result(advancedResponse, getResponse(direct, deadline));
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LookupCancelledException reason = new LookupCancelledException("Discovery was interrupted.");
+            return result(
+                    cancel(advanced, DiscoveryMethod.advanced, address, reason),
+                    direct != null ? cancel(direct, DiscoveryMethod.direct, address, reason) : null);
+        } catch (TimeoutException e) {
+            DeadlineExceededException reason = new DeadlineExceededException("Deadline exceeded during discovery.");
+            return result(
+                    cancel(advanced, DiscoveryMethod.advanced, address, reason),
+                    direct != null ? cancel(direct, DiscoveryMethod.direct, address, reason) : null);
+        }
+    }
+
+    /**
+     * Cancel the given request. Return its response if it completed already, otherwise a response indicating
+     * the given reason.
+     */
+    private static DiscoveryResponse cancel(Future<DiscoveryResponse> future, DiscoveryMethod method,
+                                            WKDAddress address, IOException reason) {
+        if (!future.cancel(true) && !future.isCancelled()) {
+            try {
+                return future.get();
+            } catch (InterruptedException | ExecutionException e) {
+                // fall through
+            }
+        }
+        return DiscoveryResponse.builder(method, address)
+                .setFetchingFailure(reason)
+                .build();
+    }
+
+    private static DiscoveryResponse getResponse(Future<DiscoveryResponse> future, Deadline deadline)
+            throws InterruptedException, TimeoutException {
+        try {
+            return future.get(deadline.remainingNanos(), TimeUnit.NANOSECONDS);
+        } catch (ExecutionException e) {
+            // CertificateDiscoverer does not throw checked exceptions
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    private static DiscoveryResult result(@Nullable DiscoveryResponse advanced, @Nullable DiscoveryResponse direct) {
+        List<DiscoveryResponse> responses = new ArrayList<>(2);
+        if (advanced != null) {
+            responses.add(advanced);
+        }
+        if (direct != null) {
+            responses.add(direct);
+        }
+        return new DiscoveryResult(responses);
+    }
+}
@@ -0,0 +1,166 @@
+// SPDX-FileCopyrightText: 2022 Paul Schaub <vanitasvitae@fsfe.org>
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package pgp.wkd.discovery;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pgp.wkd.WKDAddress;
+import pgp.wkd.exception.DeadlineExceededException;
+import pgp.wkd.exception.NotModifiedException;
+
+import javax.annotation.Nonnull;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Implementation of {@link AsyncCertificateFetcher} using Java's non-blocking {@link HttpClient}.
+ * Responses are received in full before the returned futures complete.
+ * The returned streams are {@link ResponseInputStream ResponseInputStreams}, which expose the response headers.
+ * Cancelling a returned future cancels the exchange, which on Java 16 and newer aborts the connection.
+ */
+public class HttpClientCertificateFetcher implements AsyncCertificateFetcher {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AsyncCertificateFetcher.class);
+
+    private static final Duration TIMEOUT = Duration.ofMillis(5000);
+
+    private final HttpClient client;
+
+    /**
+     * Create a {@link HttpClientCertificateFetcher} whose {@link HttpClient} runs on the given {@link Executor}.
+     *
+     * @param executor executor
+     */
+    public HttpClientCertificateFetcher(@Nonnull Executor executor) {
+        this(HttpClient.newBuilder()
+                .executor(executor)
+                .connectTimeout(TIMEOUT)
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .build());
+    }
+
+    /**
+     * Create a {@link HttpClientCertificateFetcher} using the given {@link HttpClient}.
+     *
+     * @param client http client
+     */
+    public HttpClientCertificateFetcher(@Nonnull HttpClient client) {
+        this.client = client;
+    }
+
+    @Override
+    public CompletableFuture<InputStream> fetchCertificate(WKDAddress address, DiscoveryMethod method) {
+        return fetchCertificate(address, method, Deadline.none());
+    }
+
+    @Override
+    public CompletableFuture<InputStream> fetchPolicy(WKDAddress address, DiscoveryMethod method) {
+        return fetchPolicy(address, method, Deadline.none());
+    }
+
+    @Override
+    public CompletableFuture<InputStream> fetchCertificate(WKDAddress address, DiscoveryMethod method,
+                                                           Deadline deadline) {
+        return fetchCertificate(address, method, deadline, ResponseHeaders.empty());
+    }
+
+    @Override
+    public CompletableFuture<InputStream> fetchCertificate(WKDAddress address, DiscoveryMethod method,
+                                                           Deadline deadline, ResponseHeaders cached) {
+        URI uri = address.getUri(method);
+        CompletableFuture<InputStream> result = fetchFromUri(uri, deadline, cached);
+        // Log on the side, so that the caller can cancel the returned future
+        result.whenComplete((in, e) -> {
+            if (e != null && !(Futures.unwrap(e) instanceof NotModifiedException)) {
+                LOGGER.debug("Could not fetch key using " + method + " method from " + uri, e);
+            }
+        });
+        return result;
+    }
+
+    @Override
+    public CompletableFuture<InputStream> fetchPolicy(WKDAddress address, DiscoveryMethod method,
+                                                      Deadline deadline) {
+        URI uri = address.getPolicyUri(method);
+        CompletableFuture<InputStream> result = fetchFromUri(uri, deadline);
+        result.whenComplete((in, e) -> {
+            if (e != null) {
+                LOGGER.debug("Could not fetch policy file using " + method + " method from " + uri, e);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Fetch the contents of the file that the {@link URI} points to from the remote server.
+     * The request times out after 5 seconds, or after the remaining time of the deadline if less.
+     *
+     * @param uri uri
+     * @param deadline deadline of the lookup
+     * @return future of the file contents
+     */
+    protected CompletableFuture<InputStream> fetchFromUri(URI uri, Deadline deadline) {
+        return fetchFromUri(uri, deadline, ResponseHeaders.empty());
+    }
+
+    /**
+     * Conditionally fetch the contents of the file that the {@link URI} points to from the remote server.
+     * If the cached headers contain an <pre>ETag</pre> or <pre>Last-Modified</pre> header, the request is
+     * conditional, and a <pre>304 Not Modified</pre> response fails the future with a {@link NotModifiedException}.
+     *
+     * @param uri uri
+     * @param deadline deadline of the lookup
+     * @param cached headers of the cached response
+     * @return future of the file contents
+     */
+    protected CompletableFuture<InputStream> fetchFromUri(URI uri, Deadline deadline, ResponseHeaders cached) {
+        if (deadline.isExpired()) {
+            CompletableFuture<InputStream> expired = new CompletableFuture<>();
+            expired.completeExceptionally(
+                    new DeadlineExceededException("Deadline exceeded before requesting URL '" + uri + "'"));
+            return expired;
+        }
+        // At least one millisecond, even if the deadline passed meanwhile
+        Duration timeout = Duration.ofMillis(deadline.timeoutMillis((int) TIMEOUT.toMillis()));
+        HttpRequest.Builder request = HttpRequest.newBuilder(uri)
+                .GET()
+                .timeout(timeout);
+        String etag = cached.getFirst(ResponseHeaders.ETAG);
+        if (etag != null) {
+            request.header("If-None-Match", etag);
+        }
+        String lastModified = cached.getFirst(ResponseHeaders.LAST_MODIFIED);
+        if (lastModified != null) {
+            request.header("If-Modified-Since", lastModified);
+        }
+        CompletableFuture<HttpResponse<byte[]>> exchange =
+                client.sendAsync(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+        CompletableFuture<InputStream> result = exchange
+                .thenCompose(response -> {
+                    CompletableFuture<InputStream> file = new CompletableFuture<>();
+                    if (response.statusCode() == 304) {
+                        file.completeExceptionally(new NotModifiedException(
+                                "URL '" + uri + "' was not modified.", response.headers().map()));
+                    } else if (response.statusCode() != 200) {
+                        file.completeExceptionally(new ConnectException(
+                                "Connecting to URL '" + uri + "' failed. Status: " + response.statusCode()));
+                    } else {
+                        file.complete(new ResponseInputStream(new ByteArrayInputStream(response.body()),
+                                ResponseHeaders.of(response.headers().map())));
+                    }
+                    return file;
+                });
+        Futures.cancelOnCancel(result, exchange);
+        return result;
+    }
+}
@@ -4,6 +4,9 @@
 
 package pgp.wkd.discovery;
 
+import pgp.wkd.exception.DeadlineExceededException;
+import pgp.wkd.exception.NotModifiedException;
+
 import javax.net.ssl.HttpsURLConnection;
 import java.io.IOException;
 import java.io.InputStream;
@@ -17,20 +20,63 @@ import java.net.URL;
  */
 public class HttpsUrlConnectionCertificateFetcher extends AbstractUriCertificateFetcher {
 
+    private static final int TIMEOUT_MILLIS = 5000;
+
     public InputStream fetchFromUri(URI uri) throws IOException {
+        return fetchFromUri(uri, Deadline.none());
+    }
+
+    @Override
+    public InputStream fetchFromUri(URI uri, Deadline deadline) throws IOException {
+        return fetchFromUri(uri, deadline, ResponseHeaders.empty());
+    }
+
+    /**
+     * Fetch the file that the {@link URI} points to.
+     * Connect and read timeouts are 5 seconds, or the remaining time of the deadline if less.
+     * The returned stream is a {@link ResponseInputStream}, which exposes the response headers.
+     * If the cached headers contain an <pre>ETag</pre> or <pre>Last-Modified</pre> header, the request is
+     * conditional, and a <pre>304 Not Modified</pre> response results in a {@link NotModifiedException}.
+     *
+     * @param uri uri
+     * @param deadline deadline of the lookup
+     * @param cached headers of the cached response
+     * @return file contents
+     *
+     * @throws NotModifiedException if the file was not modified since the cached response
+     * @throws IOException in case of an IO-error
+     */
+    @Override
+    public InputStream fetchFromUri(URI uri, Deadline deadline, ResponseHeaders cached) throws IOException {
+        if (deadline.isExpired()) {
+            throw new DeadlineExceededException("Deadline exceeded before connecting to URL '" + uri + "'");
+        }
         URL url = uri.toURL();
         HttpsURLConnection con = (HttpsURLConnection) url.openConnection();
         con.setRequestMethod("GET");
+        String etag = cached.getFirst(ResponseHeaders.ETAG);
+        if (etag != null) {
+            con.setRequestProperty("If-None-Match", etag);
+        }
+        String lastModified = cached.getFirst(ResponseHeaders.LAST_MODIFIED);
+        if (lastModified != null) {
+            con.setRequestProperty("If-Modified-Since", lastModified);
+        }
 
-        con.setConnectTimeout(5000);
-        con.setReadTimeout(5000);
+        con.setConnectTimeout(deadline.timeoutMillis(TIMEOUT_MILLIS));
+        con.setReadTimeout(deadline.timeoutMillis(TIMEOUT_MILLIS));
         con.setInstanceFollowRedirects(false);
+        // Blocking socket IO does not respond to interrupts, so cancelled fetches close the connection instead
+        Futures.closeOnCancel(con::disconnect);
 
         int status = con.getResponseCode();
+        if (status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            throw new NotModifiedException("URL '" + uri + "' was not modified.", con.getHeaderFields());
+        }
         if (status != 200) {
             throw new ConnectException("Connecting to URL '" + uri + "' failed. Status: " + status);
         }
-        return con.getInputStream();
+        return new ResponseInputStream(con.getInputStream(), ResponseHeaders.of(con.getHeaderFields()));
     }
 
 }
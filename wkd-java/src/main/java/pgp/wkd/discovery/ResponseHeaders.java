@@ -0,0 +1,242 @@
+// SPDX-FileCopyrightText: 2022 Paul Schaub <vanitasvitae@fsfe.org>
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package pgp.wkd.discovery;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Headers of an HTTP response of a WKD service.
+ * Header names are case-insensitive.
+ */
+public final class ResponseHeaders {
+
+    public static final String CACHE_CONTROL = "Cache-Control";
+    public static final String EXPIRES = "Expires";
+    public static final String DATE = "Date";
+    public static final String AGE = "Age";
+    public static final String ETAG = "ETag";
+    public static final String LAST_MODIFIED = "Last-Modified";
+
+    private static final ResponseHeaders EMPTY = new ResponseHeaders(Collections.emptyMap());
+
+    private final Map<String, List<String>> headers;
+
+    private ResponseHeaders(Map<String, List<String>> headers) {
+        this.headers = headers;
+    }
+
+    /**
+     * Return {@link ResponseHeaders} without any headers.
+     *
+     * @return empty headers
+     */
+    @Nonnull
+    public static ResponseHeaders empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Create {@link ResponseHeaders} from a map of header names to values.
+     * Entries with a null name, such as the status line reported by {@link java.net.HttpURLConnection}, are skipped.
+     *
+     * @param headers headers
+     * @return response headers
+     */
+    @Nonnull
+    public static ResponseHeaders of(@Nonnull Map<String, List<String>> headers) {
+        Map<String, List<String>> copy = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+            if (entry.getKey() == null || entry.getValue() == null) {
+                continue;
+            }
+            copy.computeIfAbsent(entry.getKey(), name -> new ArrayList<>()).addAll(entry.getValue());
+        }
+        return new ResponseHeaders(Collections.unmodifiableMap(copy));
+    }
+
+    /**
+     * Return all values of the given header.
+     *
+     * @param name header name
+     * @return values
+     */
+    @Nonnull
+    public List<String> getAll(@Nonnull String name) {
+        List<String> values = headers.get(name);
+        return values == null ? Collections.emptyList() : Collections.unmodifiableList(values);
+    }
+
+    /**
+     * Return the first value of the given header.
+     *
+     * @param name header name
+     * @return value or null
+     */
+    @Nullable
+    public String getFirst(@Nonnull String name) {
+        List<String> values = headers.get(name);
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+
+    /**
+     * Return true, if the <pre>Cache-Control</pre> header contains the given directive, e.g. <pre>no-store</pre>.
+     *
+     * @param directive directive name
+     * @return whether the directive is present
+     */
+    public boolean hasCacheDirective(@Nonnull String directive) {
+        return getCacheDirectives().containsKey(directive.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Return the value of a <pre>Cache-Control</pre> directive which takes a number of seconds,
+     * such as <pre>max-age</pre>.
+     *
+     * @param directive directive name
+     * @return duration, or null if the directive is absent or malformed
+     */
+    @Nullable
+    public Duration getCacheDirectiveSeconds(@Nonnull String directive) {
+        String value = getCacheDirectives().get(directive.toLowerCase(Locale.ROOT));
+        if (value == null) {
+            return null;
+        }
+        try {
+            long seconds = Long.parseLong(value);
+            return seconds < 0 ? null : Duration.ofSeconds(seconds);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Return the time for which the response is fresh after it was received, as determined by the
+     * <pre>s-maxage</pre> or <pre>max-age</pre> directive of the <pre>Cache-Control</pre> header, or by the
+     * <pre>Expires</pre> header relative to the <pre>Date</pre> header.
+     * The <pre>Age</pre> header is subtracted.
+     * A malformed <pre>Expires</pre> header means that the response is already stale.
+     *
+     * @return freshness lifetime, or null if the headers do not specify one
+     */
+    @Nullable
+    public Duration getFreshnessLifetime() {
+        Duration lifetime = getCacheDirectiveSeconds("s-maxage");
+        if (lifetime == null) {
+            lifetime = getCacheDirectiveSeconds("max-age");
+        }
+        if (lifetime == null) {
+            String expires = getFirst(EXPIRES);
+            if (expires == null) {
+                return null;
+            }
+            ZonedDateTime expiresAt = parseDate(expires);
+            if (expiresAt == null) {
+                return Duration.ZERO;
+            }
+            ZonedDateTime date = parseDate(getFirst(DATE));
+            lifetime = Duration.between(date != null ? date : ZonedDateTime.now(), expiresAt);
+        }
+
+        String age = getFirst(AGE);
+        if (age != null) {
+            try {
+                lifetime = lifetime.minusSeconds(Math.max(0, Long.parseLong(age.trim())));
+            } catch (NumberFormatException e) {
+                // ignore
+            }
+        }
+        return lifetime.isNegative() ? Duration.ZERO : lifetime;
+    }
+
+    /**
+     * Return true, if the headers contain an <pre>ETag</pre> or <pre>Last-Modified</pre> header,
+     * which allow to revalidate the response using a conditional request.
+     *
+     * @return whether the response can be revalidated
+     */
+    public boolean hasValidators() {
+        return getFirst(ETAG) != null || getFirst(LAST_MODIFIED) != null;
+    }
+
+    /**
+     * Return these headers, updated with the headers of a <pre>304 Not Modified</pre> response.
+     * Headers of the newer response replace the headers of the same name.
+     *
+     * @param newer headers of the newer response
+     * @return updated headers
+     */
+    @Nonnull
+    public ResponseHeaders updatedWith(@Nonnull ResponseHeaders newer) {
+        if (newer.headers.isEmpty()) {
+            return this;
+        }
+        Map<String, List<String>> updated = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        updated.putAll(headers);
+        updated.putAll(newer.headers);
+        return new ResponseHeaders(Collections.unmodifiableMap(updated));
+    }
+
+    /**
+     * Return the headers as a map of header names to values.
+     *
+     * @return headers
+     */
+    @Nonnull
+    public Map<String, List<String>> asMap() {
+        return headers;
+    }
+
+    /**
+     * Parse the directives of all <pre>Cache-Control</pre> headers into a map of lower-case names to values.
+     * Directives without a value map to the empty string.
+     */
+    private Map<String, String> getCacheDirectives() {
+        Map<String, String> directives = new TreeMap<>();
+        for (String header : getAll(CACHE_CONTROL)) {
+            for (String directive : header.split(",")) {
+                String trimmed = directive.trim();
+                if (trimmed.isEmpty()) {
+                    continue;
+                }
+                int equals = trimmed.indexOf('=');
+                String name = (equals == -1 ? trimmed : trimmed.substring(0, equals)).trim().toLowerCase(Locale.ROOT);
+                String value = equals == -1 ? "" : trimmed.substring(equals + 1).trim();
+                if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+                    value = value.substring(1, value.length() - 1);
+                }
+                directives.putIfAbsent(name, value);
+            }
+        }
+        return directives;
+    }
+
+    @Nullable
+    private static ZonedDateTime parseDate(@Nullable String httpDate) {
+        if (httpDate == null) {
+            return null;
+        }
+        try {
+            return ZonedDateTime.parse(httpDate.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return headers.toString();
+    }
+}
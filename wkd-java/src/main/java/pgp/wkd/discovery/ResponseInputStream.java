@@ -0,0 +1,51 @@
+// SPDX-FileCopyrightText: 2022 Paul Schaub <vanitasvitae@fsfe.org>
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package pgp.wkd.discovery;
+
+import javax.annotation.Nonnull;
+import java.io.FilterInputStream;
+import java.io.InputStream;
+
+/**
+ * {@link InputStream} of the body of an HTTP response, which exposes the {@link ResponseHeaders} of the response.
+ * Fetchers return these streams, so that discoverers can make use of the headers, e.g. for caching.
+ */
+public final class ResponseInputStream extends FilterInputStream {
+
+    private final ResponseHeaders headers;
+
+    /**
+     * Create a {@link ResponseInputStream}.
+     *
+     * @param body stream of the response body
+     * @param headers response headers
+     */
+    public ResponseInputStream(@Nonnull InputStream body, @Nonnull ResponseHeaders headers) {
+        super(body);
+        this.headers = headers;
+    }
+
+    /**
+     * Return the headers of the response.
+     *
+     * @return headers
+     */
+    @Nonnull
+    public ResponseHeaders getHeaders() {
+        return headers;
+    }
+
+    /**
+     * Return the headers of the response whose body the given stream reads, if it is a {@link ResponseInputStream}.
+     *
+     * @param inputStream stream
+     * @return headers, or {@link ResponseHeaders#empty()}
+     */
+    @Nonnull
+    public static ResponseHeaders headersOf(@Nonnull InputStream inputStream) {
+        return inputStream instanceof ResponseInputStream
+                ? ((ResponseInputStream) inputStream).getHeaders() : ResponseHeaders.empty();
+    }
+}
@@ -0,0 +1,145 @@
+// SPDX-FileCopyrightText: 2022 Paul Schaub <vanitasvitae@fsfe.org>
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package pgp.wkd.discovery;
+
+import pgp.wkd.WKDAddress;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * {@link CertificateDiscoverer} which processes lookups in a pipeline of three {@link DiscoveryStage stages}:
+ * <ul>
+ *     <li>The fetch stage runs the IO-bound requests of a blocking {@link CertificateFetcher}.</li>
+ *     <li>The parse stage runs the CPU-bound parsing and validation of the fetched files.</li>
+ *     <li>The assembly stage builds the {@link DiscoveryResponse DiscoveryResponses} and runs the dependent stages
+ *     of the returned futures.</li>
+ * </ul>
+ * Since each stage has its own threads and bounded queue, slow servers do not starve parsing,
+ * and bursts of parsing do not tie up the threads waiting for responses.
+ * Once the queue of a stage is full, lookups needing the stage fail with a
+ * {@link java.util.concurrent.RejectedExecutionException}.
+ *
+ * The policy and the certificate of a method are fetched concurrently.
+ * Stages are owned by the discoverer, so it should be {@link #close() closed} once it is no longer needed.
+ */
+public final class StagedCertificateDiscoverer implements CertificateDiscoverer, AsyncCertificateDiscoverer, AutoCloseable {
+
+    private final DiscoveryStage fetchStage;
+    private final DiscoveryStage parseStage;
+    private final DiscoveryStage assemblyStage;
+    private final ValidatingCertificateDiscoverer discoverer;
+
+    /**
+     * Create a {@link StagedCertificateDiscoverer} with default stages.
+     * The fetch stage has 64 threads, the parse stage has one thread per available processor,
+     * and the assembly stage has a single thread.
+     *
+     * @param reader certificate parser
+     * @param fetcher blocking fetcher
+     */
+    public StagedCertificateDiscoverer(@Nonnull CertificateParser reader, @Nonnull CertificateFetcher fetcher) {
+        this(reader, fetcher,
+                new DiscoveryStage("fetch", 64, 1024),
+                new DiscoveryStage("parse", Runtime.getRuntime().availableProcessors(), 1024),
+                new DiscoveryStage("assembly", 1, 1024));
+    }
+
+    /**
+     * Create a {@link StagedCertificateDiscoverer} with the given stages.
+     * The stages must not be shared with other discoverers, since closing the discoverer closes them.
+     *
+     * @param reader certificate parser
+     * @param fetcher blocking fetcher
+     * @param fetchStage stage running the requests of the fetcher
+     * @param parseStage stage parsing and validating the fetched files
+     * @param assemblyStage stage building the responses
+     */
+    public StagedCertificateDiscoverer(@Nonnull CertificateParser reader,
+                                       @Nonnull CertificateFetcher fetcher,
+                                       @Nonnull DiscoveryStage fetchStage,
+                                       @Nonnull DiscoveryStage parseStage,
+                                       @Nonnull DiscoveryStage assemblyStage) {
+        this.fetchStage = fetchStage;
+        this.parseStage = parseStage;
+        this.assemblyStage = assemblyStage;
+        this.discoverer = new ValidatingCertificateDiscoverer(reader,
+                AsyncCertificateFetcher.fromBlocking(fetcher, fetchStage), parseStage, assemblyStage, true, null);
+    }
+
+    /**
+     * Return the stage running the requests of the fetcher.
+     *
+     * @return fetch stage
+     */
+    @Nonnull
+    public DiscoveryStage getFetchStage() {
+        return fetchStage;
+    }
+
+    /**
+     * Return the stage parsing and validating the fetched files.
+     *
+     * @return parse stage
+     */
+    @Nonnull
+    public DiscoveryStage getParseStage() {
+        return parseStage;
+    }
+
+    /**
+     * Return the stage building the responses.
+     *
+     * @return assembly stage
+     */
+    @Nonnull
+    public DiscoveryStage getAssemblyStage() {
+        return assemblyStage;
+    }
+
+    @Override
+    public DiscoveryResponse discover(DiscoveryMethod method, WKDAddress address) {
+        return discoverer.discover(method, address);
+    }
+
+    @Override
+    public DiscoveryResponse discover(DiscoveryMethod method, WKDAddress address, Deadline deadline) {
+        return discoverer.discover(method, address, deadline);
+    }
+
+    @Override
+    public CompletableFuture<DiscoveryResponse> discoverAsync(DiscoveryMethod method, WKDAddress address) {
+        return discoverer.discoverAsync(method, address);
+    }
+
+    @Override
+    public CompletableFuture<DiscoveryResponse> discoverAsync(DiscoveryMethod method, WKDAddress address,
+                                                              Deadline deadline) {
+        return discoverer.discoverAsync(method, address, deadline);
+    }
+
+    @Override
+    public DiscoveryResponse revalidate(DiscoveryMethod method, WKDAddress address, Deadline deadline,
+                                        ResponseHeaders cached) {
+        return discoverer.revalidate(method, address, deadline, cached);
+    }
+
+    @Override
+    public CompletableFuture<DiscoveryResponse> revalidateAsync(DiscoveryMethod method, WKDAddress address,
+                                                                Deadline deadline, ResponseHeaders cached) {
+        return discoverer.revalidateAsync(method, address, deadline, cached);
+    }
+
+    /**
+     * Shut down the stages of this discoverer.
+     * Queued tasks are still run, but lookups in flight fail once they need a stage that was shut down.
+     */
+    @Override
+    public void close() {
+        fetchStage.close();
+        parseStage.close();
+        assemblyStage.close();
+    }
+}
@@ -0,0 +1,111 @@
+// SPDX-FileCopyrightText: 2022 Paul Schaub <vanitasvitae@fsfe.org>
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package pgp.wkd.discovery;
+
+import pgp.wkd.WKDAddress;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * {@link CertificateDiscoverer} which runs each request of a blocking {@link CertificateFetcher},
+ * as well as the parsing and validation of each {@link DiscoveryMethod}, on a thread of its own.
+ *
+ * On Java 21 and newer, every task is run on a new virtual thread, so that existing blocking fetchers scale to
+ * tens of thousands of concurrent lookups.
+ * On older Java versions, tasks are run on a bounded pool of platform threads.
+ *
+ * Discoverers own their threads, so they should be {@link #close() closed} once they are no longer needed.
+ */
+public final class ThreadedCertificateDiscoverer implements CertificateDiscoverer, AsyncCertificateDiscoverer, AutoCloseable {
+
+    /**
+     * Default number of platform threads if virtual threads are not available.
+     */
+    public static final int DEFAULT_PLATFORM_THREADS = 64;
+
+    private final ExecutorService executor;
+    private final ValidatingCertificateDiscoverer discoverer;
+
+    /**
+     * Create a {@link ThreadedCertificateDiscoverer} which uses up to {@link #DEFAULT_PLATFORM_THREADS} platform
+     * threads if virtual threads are not available.
+     *
+     * @param reader certificate parser
+     * @param fetcher blocking fetcher
+     */
+    public ThreadedCertificateDiscoverer(@Nonnull CertificateParser reader, @Nonnull CertificateFetcher fetcher) {
+        this(reader, fetcher, DEFAULT_PLATFORM_THREADS);
+    }
+
+    /**
+     * Create a {@link ThreadedCertificateDiscoverer}.
+     *
+     * @param reader certificate parser
+     * @param fetcher blocking fetcher
+     * @param platformThreads maximum number of platform threads, if virtual threads are not available
+     */
+    public ThreadedCertificateDiscoverer(@Nonnull CertificateParser reader,
+                                         @Nonnull CertificateFetcher fetcher,
+                                         int platformThreads) {
+        if (platformThreads < 1) {
+            throw new IllegalArgumentException("Number of platform threads MUST be positive.");
+        }
+        this.executor = DiscoveryThreads.newExecutor(platformThreads);
+        this.discoverer = new ValidatingCertificateDiscoverer(reader,
+                AsyncCertificateFetcher.fromBlocking(fetcher, executor), executor);
+    }
+
+    /**
+     * Return true, if this discoverer runs its tasks on virtual threads.
+     *
+     * @return whether virtual threads are used
+     */
+    public static boolean isUsingVirtualThreads() {
+        return DiscoveryThreads.isVirtual();
+    }
+
+    @Override
+    public DiscoveryResponse discover(DiscoveryMethod method, WKDAddress address) {
+        return discoverer.discover(method, address);
+    }
+
+    @Override
+    public DiscoveryResponse discover(DiscoveryMethod method, WKDAddress address, Deadline deadline) {
+        return discoverer.discover(method, address, deadline);
+    }
+
+    @Override
+    public CompletableFuture<DiscoveryResponse> discoverAsync(DiscoveryMethod method, WKDAddress address) {
+        return discoverer.discoverAsync(method, address);
+    }
+
+    @Override
+    public CompletableFuture<DiscoveryResponse> discoverAsync(DiscoveryMethod method, WKDAddress address,
+                                                              Deadline deadline) {
+        return discoverer.discoverAsync(method, address, deadline);
+    }
+
+    @Override
+    public DiscoveryResponse revalidate(DiscoveryMethod method, WKDAddress address, Deadline deadline,
+                                        ResponseHeaders cached) {
+        return discoverer.revalidate(method, address, deadline, cached);
+    }
+
+    @Override
+    public CompletableFuture<DiscoveryResponse> revalidateAsync(DiscoveryMethod method, WKDAddress address,
+                                                                Deadline deadline, ResponseHeaders cached) {
+        return discoverer.revalidateAsync(method, address, deadline, cached);
+    }
+
+    /**
+     * Shut down the threads of this discoverer. Lookups which are in flight are completed.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+}
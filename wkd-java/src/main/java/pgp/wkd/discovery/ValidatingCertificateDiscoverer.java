@@ -6,83 +6,564 @@ package pgp.wkd.discovery;
 
 import pgp.certificate_store.certificate.Certificate;
 import pgp.wkd.CertificateAndUserIds;
+import pgp.wkd.exception.DeadlineExceededException;
+import pgp.wkd.exception.LookupCancelledException;
 import pgp.wkd.exception.MissingPolicyFileException;
+import pgp.wkd.exception.NotModifiedException;
 import pgp.wkd.exception.RejectedCertificateException;
 import pgp.wkd.RejectedCertificate;
 import pgp.wkd.WKDAddress;
 
+import javax.annotation.Nullable;
+
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
- * Default implementation of the {@link CertificateDiscoverer}.
+ * Default implementation of the {@link CertificateDiscoverer} and {@link AsyncCertificateDiscoverer}.
  * This implementation validates the received certificates.
+ *
+ * When constructed with an {@link AsyncCertificateFetcher}, lookups do not block,
+ * and parsing and validation of received files happens on the given {@link Executor}.
+ * The blocking methods of {@link CertificateDiscoverer} wait for the asynchronous lookup to complete.
+ *
+ * By default, the certificate is fetched once the policy was fetched.
+ * With concurrent fetching enabled, both requests are issued at once, which saves a round trip per method.
+ * Both modes produce the same {@link DiscoveryResponse}.
+ *
+ * If a lookup is given a {@link Deadline}, each fetch is passed the remaining budget and is abandoned once the
+ * deadline passes. Fetches are not started after the deadline passed.
+ *
+ * Cached responses can be {@link #revalidate(DiscoveryMethod, WKDAddress, Deadline, ResponseHeaders) revalidated}
+ * using a conditional fetch. If the certificate was not modified, nothing is parsed.
+ *
+ * If a {@link WKDPolicyCache} is given, policies are taken from the cache, and only fetched if they are not cached.
+ *
+ * The futures returned by {@link #discoverAsync(DiscoveryMethod, WKDAddress)} serve as cancellation handles.
+ * Cancelling a lookup cancels its fetches in flight and closes the streams it reads from, which aborts parsing.
+ * Blocking lookups are cancelled by interrupting the waiting thread, in which case a response for which
+ * {@link DiscoveryResponse#isCancelled()} returns true is returned.
  */
-public class ValidatingCertificateDiscoverer implements CertificateDiscoverer {
+public class ValidatingCertificateDiscoverer implements CertificateDiscoverer, AsyncCertificateDiscoverer {
+
+    // Runs tasks on the calling thread
+    private static final Executor DIRECT_EXECUTOR = Runnable::run;
 
     protected final CertificateParser reader;
     protected final CertificateFetcher fetcher;
+    protected final AsyncCertificateFetcher asyncFetcher;
+    protected final Executor executor;
+    protected final Executor assemblyExecutor;
+    protected final boolean concurrentFetching;
+    @Nullable
+    protected final WKDPolicyCache policyCache;
 
+    /**
+     * Create a blocking {@link ValidatingCertificateDiscoverer}.
+     * Asynchronous lookups are performed on the calling thread.
+     *
+     * @param reader certificate parser
+     * @param fetcher blocking fetcher
+     */
     public ValidatingCertificateDiscoverer(CertificateParser reader, CertificateFetcher fetcher) {
+        this(reader, fetcher, null);
+    }
+
+    /**
+     * Create a blocking {@link ValidatingCertificateDiscoverer}, which takes policies from the given cache.
+     * Asynchronous lookups are performed on the calling thread.
+     *
+     * @param reader certificate parser
+     * @param fetcher blocking fetcher
+     * @param policyCache policy cache, or null to fetch the policy for every lookup
+     */
+    public ValidatingCertificateDiscoverer(CertificateParser reader,
+                                           CertificateFetcher fetcher,
+                                           @Nullable WKDPolicyCache policyCache) {
         this.reader = reader;
         this.fetcher = fetcher;
+        this.executor = DIRECT_EXECUTOR;
+        this.assemblyExecutor = DIRECT_EXECUTOR;
+        this.concurrentFetching = false;
+        this.policyCache = policyCache;
+        this.asyncFetcher = AsyncCertificateFetcher.fromBlocking(fetcher, DIRECT_EXECUTOR);
+    }
+
+    /**
+     * Create an asynchronous {@link ValidatingCertificateDiscoverer}.
+     *
+     * @param reader certificate parser
+     * @param fetcher asynchronous fetcher
+     * @param executor executor which parses and validates the fetched files
+     */
+    public ValidatingCertificateDiscoverer(CertificateParser reader, AsyncCertificateFetcher fetcher, Executor executor) {
+        this(reader, fetcher, executor, false);
+    }
+
+    /**
+     * Create an asynchronous {@link ValidatingCertificateDiscoverer}.
+     * To fetch from a blocking {@link CertificateFetcher} concurrently, adapt it using
+     * {@link AsyncCertificateFetcher#fromBlocking(CertificateFetcher, Executor)}.
+     *
+     * @param reader certificate parser
+     * @param fetcher asynchronous fetcher
+     * @param executor executor which parses and validates the fetched files
+     * @param concurrentFetching whether to fetch the policy and the certificate of a method concurrently
+     */
+    public ValidatingCertificateDiscoverer(CertificateParser reader,
+                                           AsyncCertificateFetcher fetcher,
+                                           Executor executor,
+                                           boolean concurrentFetching) {
+        this(reader, fetcher, executor, concurrentFetching, null);
+    }
+
+    /**
+     * Create an asynchronous {@link ValidatingCertificateDiscoverer}, which takes policies from the given cache.
+     *
+     * @param reader certificate parser
+     * @param fetcher asynchronous fetcher
+     * @param executor executor which parses and validates the fetched files
+     * @param concurrentFetching whether to fetch the policy and the certificate of a method concurrently
+     * @param policyCache policy cache, or null to fetch the policy for every lookup
+     */
+    public ValidatingCertificateDiscoverer(CertificateParser reader,
+                                           AsyncCertificateFetcher fetcher,
+                                           Executor executor,
+                                           boolean concurrentFetching,
+                                           @Nullable WKDPolicyCache policyCache) {
+        this(reader, fetcher, executor, DIRECT_EXECUTOR, concurrentFetching, policyCache);
+    }
+
+    /**
+     * Create an asynchronous {@link ValidatingCertificateDiscoverer}, which builds the responses on a separate
+     * {@link Executor}. Dependent stages of the returned futures run on the assembly executor as well.
+     *
+     * @param reader certificate parser
+     * @param fetcher asynchronous fetcher
+     * @param executor executor which parses and validates the fetched files
+     * @param assemblyExecutor executor which builds the responses
+     * @param concurrentFetching whether to fetch the policy and the certificate of a method concurrently
+     * @param policyCache policy cache, or null to fetch the policy for every lookup
+     */
+    ValidatingCertificateDiscoverer(CertificateParser reader,
+                                    AsyncCertificateFetcher fetcher,
+                                    Executor executor,
+                                    Executor assemblyExecutor,
+                                    boolean concurrentFetching,
+                                    @Nullable WKDPolicyCache policyCache) {
+        this.reader = reader;
+        this.asyncFetcher = fetcher;
+        this.executor = executor;
+        this.assemblyExecutor = assemblyExecutor;
+        this.concurrentFetching = concurrentFetching;
+        this.policyCache = policyCache;
+        this.fetcher = new BlockingCertificateFetcher(fetcher);
     }
 
     @Override
     public DiscoveryResponse discover(DiscoveryMethod method, WKDAddress address) {
+        return discover(method, address, Deadline.none());
+    }
+
+    @Override
+    public DiscoveryResponse discover(DiscoveryMethod method, WKDAddress address, Deadline deadline) {
+        return Futures.awaitResponse(discoverAsync(method, address, deadline), method, address);
+    }
+
+    @Override
+    public CompletableFuture<DiscoveryResponse> discoverAsync(DiscoveryMethod method, WKDAddress address) {
+        return discoverAsync(method, address, Deadline.none());
+    }
+
+    @Override
+    public CompletableFuture<DiscoveryResponse> discoverAsync(DiscoveryMethod method, WKDAddress address,
+                                                              Deadline deadline) {
+        return revalidateAsync(method, address, deadline, ResponseHeaders.empty());
+    }
+
+    @Override
+    public DiscoveryResponse revalidate(DiscoveryMethod method, WKDAddress address, Deadline deadline,
+                                        ResponseHeaders cached) {
+        return Futures.awaitResponse(revalidateAsync(method, address, deadline, cached), method, address);
+    }
+
+    @Override
+    public CompletableFuture<DiscoveryResponse> revalidateAsync(DiscoveryMethod method, WKDAddress address,
+                                                                Deadline deadline, ResponseHeaders cached) {
         DiscoveryResponse.Builder builder = DiscoveryResponse.builder(method, address);
+        Lookup lookup = new Lookup(deadline);
+
+        CompletableFuture<DiscoveryResponse> response;
+        if (concurrentFetching) {
+            // Both stages set distinct properties of the builder
+            response = fetchPolicy(method, address, lookup, builder)
+                    .thenCombineAsync(fetchCertificates(method, address, cached, lookup, builder),
+                            (policy, certificates) -> builder.build(), assemblyExecutor);
+        } else {
+            response = fetchPolicy(method, address, lookup, builder)
+                    .thenCompose(ignored -> fetchCertificates(method, address, cached, lookup, builder))
+                    .thenApplyAsync(ignored -> builder.build(), assemblyExecutor);
+        }
+        response.whenComplete((discoveryResponse, failure) -> {
+            if (response.isCancelled()) {
+                lookup.cancel();
+            }
+        });
+        return response;
+    }
+
+    private CompletableFuture<Void> fetchCertificates(DiscoveryMethod method, WKDAddress address,
+                                                      ResponseHeaders cached, Lookup lookup,
+                                                      DiscoveryResponse.Builder builder) {
+        return readAsync(lookup.fetch(() -> asyncFetcher.fetchCertificate(address, method, lookup.deadline, cached)),
+                certificateIn -> {
+                    builder.setResponseHeaders(ResponseInputStream.headersOf(certificateIn));
+                    return lookup.read(certificateIn, reader::read);
+                })
+                .handle((fetchedCertificates, failure) -> {
+                    if (failure != null) {
+                        IOException fetchingFailure = ioExceptionOrThrow(failure);
+                        if (fetchingFailure instanceof NotModifiedException) {
+                            // Nothing to parse, the cached certificates are still current
+                            builder.setResponseHeaders(
+                                    ResponseHeaders.of(((NotModifiedException) fetchingFailure).getHeaders()));
+                        }
+                        builder.setFetchingFailure(fetchingFailure);
+                        return null;
+                    }
+                    validateCertificates(address, fetchedCertificates, builder);
+                    return null;
+                });
+    }
+
+    private void validateCertificates(WKDAddress address, List<CertificateAndUserIds> fetchedCertificates, DiscoveryResponse.Builder builder) {
+        List<RejectedCertificate> rejectedCertificates = new ArrayList<>();
+        List<Certificate> acceptableCertificates = new ArrayList<>();
+
+        String email = address.getEmail();
+
+        for (CertificateAndUserIds certAndUserIds : fetchedCertificates) {
+            Certificate certificate = certAndUserIds.getCertificate();
+            boolean containsEmail = false;
+            for (String userId : certAndUserIds.getUserIds()) {
+                if (userId.contains("<" + email + ">") || userId.equals(email)) {
+                    containsEmail = true;
+                    break;
+                }
+            }
+            if (!containsEmail) {
+                rejectedCertificates.add(new RejectedCertificate(certificate,
+                        new RejectedCertificateException.MissingUserId("Certificate " + certificate.getFingerprint() +
+                                " does not contain user-id with email '" + email + "'")));
+            } else {
+                acceptableCertificates.add(certificate);
+            }
+        }
+
+        builder.setAcceptableCertificates(acceptableCertificates);
+        builder.setRejectedCertificates(rejectedCertificates);
+    }
+
+    private CompletableFuture<Void> fetchPolicy(DiscoveryMethod method, WKDAddress address, Lookup lookup,
+                                                DiscoveryResponse.Builder builder) {
+        CompletableFuture<WKDPolicy> policyFuture = policyCache == null
+                ? loadPolicy(method, address, lookup)
+                : cachedPolicy(method, address, lookup, true);
+        return policyFuture.handle((policy, failure) -> {
+            if (failure == null) {
+                builder.setPolicy(policy);
+            } else if (Futures.unwrap(failure) instanceof MissingPolicyFileException) {
+                // Cached failure
+                builder.setMissingPolicyFileException((MissingPolicyFileException) Futures.unwrap(failure));
+            } else {
+                builder.setMissingPolicyFileException(new MissingPolicyFileException(ioExceptionOrThrow(failure)));
+            }
+            return null;
+        });
+    }
+
+    private CompletableFuture<WKDPolicy> loadPolicy(DiscoveryMethod method, WKDAddress address, Lookup lookup) {
+        return readAsync(lookup.fetch(() -> asyncFetcher.fetchPolicy(address, method, lookup.deadline)),
+                policyIn -> lookup.read(policyIn, WKDPolicy::fromInputStream));
+    }
+
+    /**
+     * Read the fetched file on the parsing executor.
+     * If the executor rejects reading the file, the fetched stream is closed, since nobody else will close it.
+     *
+     * @param fetched future of the fetched file
+     * @param reader reader, which closes the stream
+     * @param <T> result type
+     * @return future of the result
+     */
+    private <T> CompletableFuture<T> readAsync(CompletableFuture<InputStream> fetched, StreamReader<T> reader) {
+        return fetched
+                .thenApplyAsync(in -> {
+                    try {
+                        return reader.read(in);
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                }, executor)
+                .whenComplete((result, failure) -> {
+                    if (failure != null && Futures.unwrap(failure) instanceof RejectedExecutionException) {
+                        // Frees the connection
+                        fetched.thenAccept(Futures::closeQuietly);
+                    }
+                });
+    }
 
-        fetchPolicy(method, address, builder);
-        fetchCertificates(method, address, builder);
+    private CompletableFuture<WKDPolicy> cachedPolicy(DiscoveryMethod method, WKDAddress address, Lookup lookup,
+                                                      boolean retry) {
+        // The policy is shared with other lookups, so cancelling this lookup does not abort fetching it
+        return policyCache.get(address.getDomain(), method,
+                        () -> loadPolicy(method, address, new Lookup(lookup.deadline)))
+                .handle((policy, failure) -> {
+                    if (failure == null) {
+                        return CompletableFuture.completedFuture(policy);
+                    }
+                    if (retry && Futures.unwrap(failure) instanceof DeadlineExceededException
+                            && !lookup.deadline.isExpired()) {
+                        // The lookup which fetched the policy had an earlier deadline
+                        return cachedPolicy(method, address, lookup, false);
+                    }
+                    return CompletableFuture.<WKDPolicy>failedFuture(Futures.unwrap(failure));
+                })
+                .thenCompose(Function.identity());
+    }
 
-        return builder.build();
+    /**
+     * Return the {@link IOException} which caused the given failure.
+     * Other failures are not related to fetching and are propagated.
+     *
+     * @param failure failure
+     * @return io exception
+     */
+    private static IOException ioExceptionOrThrow(Throwable failure) {
+        Throwable cause = Futures.unwrap(failure);
+        if (cause instanceof IOException) {
+            return (IOException) cause;
+        }
+        throw failure instanceof CompletionException ? (CompletionException) failure : new CompletionException(cause);
     }
 
-    private void fetchCertificates(DiscoveryMethod method, WKDAddress address, DiscoveryResponse.Builder builder) {
-        try {
-            InputStream certificateIn = fetcher.fetchCertificate(address, method);
-            List<CertificateAndUserIds> fetchedCertificates = reader.read(certificateIn);
+    /**
+     * Reader of a fetched file.
+     *
+     * @param <T> result type
+     */
+    private interface StreamReader<T> {
 
-            List<RejectedCertificate> rejectedCertificates = new ArrayList<>();
-            List<Certificate> acceptableCertificates = new ArrayList<>();
+        T read(InputStream inputStream) throws IOException;
+    }
 
-            String email = address.getEmail();
+    /**
+     * State of a single lookup, which tracks its fetches in flight and the streams it reads from,
+     * so that they can be aborted once the lookup is cancelled or its deadline passes.
+     */
+    private static final class Lookup {
+
+        private final Deadline deadline;
+
+        // Guarded by this
+        private final List<Future<?>> fetches = new ArrayList<>(2);
+        private final List<Closeable> streams = new ArrayList<>(2);
+        private boolean cancelled;
+
+        Lookup(Deadline deadline) {
+            this.deadline = deadline;
+        }
+
+        /**
+         * Start the given fetch, unless the lookup was cancelled or its deadline passed already.
+         * The fetch fails with a {@link LookupCancelledException} once the lookup is cancelled,
+         * and with a {@link DeadlineExceededException} if it does not complete before the deadline.
+         *
+         * @param fetch fetch
+         * @return future of the fetched file
+         */
+        CompletableFuture<InputStream> fetch(Supplier<CompletableFuture<InputStream>> fetch) {
+            CompletableFuture<InputStream> started;
+            if (isCancelled()) {
+                started = new CompletableFuture<>();
+                started.completeExceptionally(new LookupCancelledException("Lookup was cancelled before fetching."));
+                return started;
+            }
+            if (deadline.isExpired()) {
+                started = new CompletableFuture<>();
+                started.completeExceptionally(new DeadlineExceededException("Deadline exceeded before fetching."));
+                return started;
+            }
 
-            for (CertificateAndUserIds certAndUserIds : fetchedCertificates) {
-                Certificate certificate = certAndUserIds.getCertificate();
-                boolean containsEmail = false;
-                for (String userId : certAndUserIds.getUserIds()) {
-                    if (userId.contains("<" + email + ">") || userId.equals(email)) {
-                        containsEmail = true;
-                        break;
+            started = fetch.get();
+            track(started);
+            CompletableFuture<InputStream> bounded = started;
+            if (deadline.isBounded()) {
+                bounded = started.copy().orTimeout(deadline.remainingNanos(), TimeUnit.NANOSECONDS);
+            }
+            return bounded.handle((in, failure) -> {
+                IOException abort = abortReason(failure);
+                if (abort == null) {
+                    if (failure != null) {
+                        throw failure instanceof CompletionException
+                                ? (CompletionException) failure : new CompletionException(failure);
                     }
+                    return in;
                 }
-                if (!containsEmail) {
-                    rejectedCertificates.add(new RejectedCertificate(certificate,
-                            new RejectedCertificateException.MissingUserId("Certificate " + certificate.getFingerprint() +
-                                    " does not contain user-id with email '" + email + "'")));
-                } else {
-                    acceptableCertificates.add(certificate);
+                if (in != null) {
+                    Futures.closeQuietly(in);
+                }
+                // Free the connection of a fetch which is abandoned
+                started.cancel(true);
+                throw new CompletionException(abort);
+            });
+        }
+
+        /**
+         * Read the given fetched file. The stream is closed afterwards,
+         * or as soon as the lookup is cancelled, which aborts reading.
+         *
+         * @param inputStream fetched file
+         * @param reader reader
+         * @param <T> result type
+         * @return result
+         *
+         * @throws IOException in case of an IO error, or if the lookup was cancelled
+         */
+        <T> T read(InputStream inputStream, StreamReader<T> reader) throws IOException {
+            synchronized (this) {
+                if (!cancelled) {
+                    streams.add(inputStream);
                 }
             }
+            try (InputStream in = inputStream) {
+                if (isCancelled()) {
+                    throw new LookupCancelledException("Lookup was cancelled before parsing.");
+                }
+                return reader.read(in);
+            } catch (IOException | RuntimeException e) {
+                if (isCancelled() && !(e instanceof LookupCancelledException)) {
+                    // Parsers fail in various ways if their stream is closed
+                    throw new LookupCancelledException("Lookup was cancelled while parsing.", e);
+                }
+                throw e;
+            } finally {
+                synchronized (this) {
+                    streams.remove(inputStream);
+                }
+            }
+        }
 
-            builder.setAcceptableCertificates(acceptableCertificates);
-            builder.setRejectedCertificates(rejectedCertificates);
+        synchronized boolean isCancelled() {
+            return cancelled;
+        }
 
-        } catch (IOException e) {
-            builder.setFetchingFailure(e);
+        void cancel() {
+            List<Future<?>> toCancel;
+            List<Closeable> toClose;
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                cancelled = true;
+                toCancel = new ArrayList<>(fetches);
+                toClose = new ArrayList<>(streams);
+                fetches.clear();
+                streams.clear();
+            }
+            for (Future<?> fetch : toCancel) {
+                fetch.cancel(true);
+            }
+            for (Closeable stream : toClose) {
+                Futures.closeQuietly(stream);
+            }
+        }
+
+        private void track(Future<?> fetch) {
+            synchronized (this) {
+                if (!cancelled) {
+                    fetches.add(fetch);
+                    return;
+                }
+            }
+            fetch.cancel(true);
+        }
+
+        /**
+         * Return the reason to abort a fetch that completed with the given failure, or null to proceed.
+         */
+        private IOException abortReason(Throwable failure) {
+            Throwable cause = failure == null ? null : Futures.unwrap(failure);
+            if (isCancelled()) {
+                return cause instanceof LookupCancelledException ? (LookupCancelledException) cause
+                        : new LookupCancelledException("Lookup was cancelled while fetching.", cause);
+            }
+            if (cause != null && deadline.isExpired()) {
+                // Timeouts of the fetcher or of the bounded future alike
+                return cause instanceof DeadlineExceededException ? (DeadlineExceededException) cause
+                        : new DeadlineExceededException("Deadline exceeded while fetching.", cause);
+            }
+            return null;
         }
     }
 
-    private void fetchPolicy(DiscoveryMethod method, WKDAddress address, DiscoveryResponse.Builder builder) {
-        try {
-            InputStream policyIn = fetcher.fetchPolicy(address, method);
-            WKDPolicy policy = WKDPolicy.fromInputStream(policyIn);
-            builder.setPolicy(policy);
-        } catch (IOException e) {
-            builder.setMissingPolicyFileException(new MissingPolicyFileException(e));
+    /**
+     * Blocking view of an {@link AsyncCertificateFetcher}.
+     */
+    private static final class BlockingCertificateFetcher implements CertificateFetcher {
+
+        private final AsyncCertificateFetcher fetcher;
+
+        BlockingCertificateFetcher(AsyncCertificateFetcher fetcher) {
+            this.fetcher = fetcher;
+        }
+
+        @Override
+        public InputStream fetchCertificate(WKDAddress address, DiscoveryMethod method) throws IOException {
+            return await(fetcher.fetchCertificate(address, method));
+        }
+
+        @Override
+        public InputStream fetchPolicy(WKDAddress address, DiscoveryMethod method) throws IOException {
+            return await(fetcher.fetchPolicy(address, method));
+        }
+
+        @Override
+        public InputStream fetchCertificate(WKDAddress address, DiscoveryMethod method, Deadline deadline)
+                throws IOException {
+            return await(fetcher.fetchCertificate(address, method, deadline));
+        }
+
+        @Override
+        public InputStream fetchPolicy(WKDAddress address, DiscoveryMethod method, Deadline deadline)
+                throws IOException {
+            return await(fetcher.fetchPolicy(address, method, deadline));
+        }
+
+        @Override
+        public InputStream fetchCertificate(WKDAddress address, DiscoveryMethod method, Deadline deadline,
+                                            ResponseHeaders cached)
+                throws IOException {
+            return await(fetcher.fetchCertificate(address, method, deadline, cached));
+        }
+
+        private static InputStream await(CompletableFuture<InputStream> future) throws IOException {
+            try {
+                return Futures.join(future);
+            } catch (CompletionException e) {
+                throw ioExceptionOrThrow(e);
+            }
         }
     }
 }
@@ -46,44 +46,42 @@ public final class WKDPolicy {
      * @throws IOException in case of an error
      */
     public static WKDPolicy fromInputStream(InputStream inputStream) throws IOException {
-        BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(inputStream));
-
         boolean mailboxOnly = false;
         boolean daneOnly = false;
         boolean authSubmit = false;
         Integer protocolVersion = null;
         String submissionAddress = null;
 
-        String line;
-        while ((line = bufferedReader.readLine()) != null) {
-            String prepared = line.trim();
-            if (prepared.equals(KEYWORD_MAILBOX_ONLY)) {
-                mailboxOnly = true;
-                continue;
-            }
-            if (prepared.equals(KEYWORD_DANE_ONLY)) {
-                daneOnly = true;
-                continue;
-            }
-            if (prepared.equals(KEYWORD_AUTH_SUBMIT)) {
-                authSubmit = true;
-                continue;
-            }
-            if (prepared.startsWith(KEYWORD_PROTOCOL_VERSION + ": ")) {
-                try {
-                    protocolVersion = Integer.parseInt(prepared.substring(KEYWORD_PROTOCOL_VERSION.length() + 2));
-                } catch (NumberFormatException e) {
-                    // ignore
+        try (BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(inputStream))) {
+            String line;
+            while ((line = bufferedReader.readLine()) != null) {
+                String prepared = line.trim();
+                if (prepared.equals(KEYWORD_MAILBOX_ONLY)) {
+                    mailboxOnly = true;
+                    continue;
+                }
+                if (prepared.equals(KEYWORD_DANE_ONLY)) {
+                    daneOnly = true;
+                    continue;
+                }
+                if (prepared.equals(KEYWORD_AUTH_SUBMIT)) {
+                    authSubmit = true;
+                    continue;
+                }
+                if (prepared.startsWith(KEYWORD_PROTOCOL_VERSION + ": ")) {
+                    try {
+                        protocolVersion = Integer.parseInt(prepared.substring(KEYWORD_PROTOCOL_VERSION.length() + 2));
+                    } catch (NumberFormatException e) {
+                        // ignore
+                    }
+                    continue;
+                }
+                if (prepared.startsWith(KEYWORD_SUBMISSION_ADDRESS + ": ")) {
+                    submissionAddress = prepared.substring(KEYWORD_SUBMISSION_ADDRESS.length() + 2).trim();
                 }
-                continue;
-            }
-            if (prepared.startsWith(KEYWORD_SUBMISSION_ADDRESS + ": ")) {
-                submissionAddress = prepared.substring(KEYWORD_SUBMISSION_ADDRESS.length() + 2).trim();
             }
         }
 
-        inputStream.close();
-
         return new WKDPolicy(mailboxOnly, daneOnly, authSubmit, protocolVersion, submissionAddress);
     }
 
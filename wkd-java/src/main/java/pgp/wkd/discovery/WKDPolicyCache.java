@@ -0,0 +1,231 @@
+// SPDX-FileCopyrightText: 2022 Paul Schaub <vanitasvitae@fsfe.org>
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package pgp.wkd.discovery;
+
+import pgp.wkd.WKDDomain;
+import pgp.wkd.exception.DeadlineExceededException;
+import pgp.wkd.exception.LookupCancelledException;
+import pgp.wkd.exception.MissingPolicyFileException;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Cache of {@link WKDPolicy WKDPolicies} by domain and {@link DiscoveryMethod}, which can be shared by many lookups
+ * and discoverers.
+ *
+ * Fetched policies are cached for the configured time to live.
+ * Failures to fetch a policy are cached as {@link MissingPolicyFileException} for a shorter time,
+ * so that domains without a WKD are not queried again for every address.
+ * Failures which say nothing about the policy, such as cancelled lookups or exceeded deadlines, are not cached.
+ * Concurrent lookups of a policy which is not cached share a single fetch.
+ */
+public final class WKDPolicyCache {
+
+    /**
+     * Default time to live of fetched policies.
+     */
+    public static final Duration DEFAULT_TTL = Duration.ofHours(1);
+
+    /**
+     * Default time to live of failures to fetch a policy.
+     */
+    public static final Duration DEFAULT_NEGATIVE_TTL = Duration.ofMinutes(5);
+
+    // Expired entries are purged after this many misses
+    private static final int PURGE_INTERVAL = 256;
+
+    private final long ttlNanos;
+    private final long negativeTtlNanos;
+    private final LongSupplier nanoTime;
+    private final Map<CoalescingCertificateFetcher.PolicyKey, Entry> entries = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Create a {@link WKDPolicyCache} with the {@link #DEFAULT_TTL default time to live} and
+     * {@link #DEFAULT_NEGATIVE_TTL default negative time to live}.
+     */
+    public WKDPolicyCache() {
+        this(DEFAULT_TTL, DEFAULT_NEGATIVE_TTL);
+    }
+
+    /**
+     * Create a {@link WKDPolicyCache}.
+     *
+     * @param ttl time to live of fetched policies
+     * @param negativeTtl time to live of failures to fetch a policy
+     */
+    public WKDPolicyCache(@Nonnull Duration ttl, @Nonnull Duration negativeTtl) {
+        this(ttl, negativeTtl, System::nanoTime);
+    }
+
+    WKDPolicyCache(Duration ttl, Duration negativeTtl, LongSupplier nanoTime) {
+        if (ttl.isNegative() || negativeTtl.isNegative()) {
+            throw new IllegalArgumentException("Time to live MUST NOT be negative.");
+        }
+        this.ttlNanos = ttl.toNanos();
+        this.negativeTtlNanos = negativeTtl.toNanos();
+        this.nanoTime = nanoTime;
+    }
+
+    /**
+     * Return the cached policy of the given domain and method, or fetch it using the given loader.
+     * The returned future fails with a {@link MissingPolicyFileException} if the policy cannot be fetched.
+     *
+     * @param domain domain
+     * @param method discovery method
+     * @param loader fetches and parses the policy if it is not cached
+     * @return future of the policy
+     */
+    @Nonnull
+    public CompletableFuture<WKDPolicy> get(@Nonnull WKDDomain domain,
+                                            @Nonnull DiscoveryMethod method,
+                                            @Nonnull Supplier<CompletableFuture<WKDPolicy>> loader) {
+        CoalescingCertificateFetcher.PolicyKey key = new CoalescingCertificateFetcher.PolicyKey(domain, method);
+        while (true) {
+            Entry existing = entries.get(key);
+            if (existing != null && !existing.isExpired(nanoTime.getAsLong())) {
+                hits.increment();
+                // Copy, so that callers cannot complete or cancel the shared entry
+                return existing.policy.copy();
+            }
+
+            Entry created = new Entry();
+            boolean inserted = existing == null
+                    ? entries.putIfAbsent(key, created) == null
+                    : entries.replace(key, existing, created);
+            if (!inserted) {
+                // Lost the race against another lookup, use its entry
+                continue;
+            }
+
+            misses.increment();
+            if (misses.sum() % PURGE_INTERVAL == 0) {
+                purgeExpired();
+            }
+            load(key, created, loader);
+            return created.policy.copy();
+        }
+    }
+
+    private void load(CoalescingCertificateFetcher.PolicyKey key, Entry entry,
+                      Supplier<CompletableFuture<WKDPolicy>> loader) {
+        CompletableFuture<WKDPolicy> loading;
+        try {
+            loading = loader.get();
+        } catch (RuntimeException e) {
+            loading = new CompletableFuture<>();
+            loading.completeExceptionally(e);
+        }
+        loading.whenComplete((policy, failure) -> {
+            if (failure == null) {
+                entry.expiresAt = nanoTime.getAsLong() + ttlNanos;
+                entry.policy.complete(policy);
+                return;
+            }
+
+            Throwable cause = Futures.unwrap(failure);
+            if (cause instanceof MissingPolicyFileException) {
+                cause = cause.getCause();
+            }
+            if (!(cause instanceof IOException)
+                    || cause instanceof LookupCancelledException || cause instanceof DeadlineExceededException) {
+                // Not a property of the domain, let the next lookup try again
+                entries.remove(key, entry);
+                entry.policy.completeExceptionally(cause);
+                return;
+            }
+            entry.expiresAt = nanoTime.getAsLong() + negativeTtlNanos;
+            entry.policy.completeExceptionally(new MissingPolicyFileException(cause));
+        });
+    }
+
+    /**
+     * Remove the cached policy of the given domain and method.
+     *
+     * @param domain domain
+     * @param method discovery method
+     */
+    public void invalidate(@Nonnull WKDDomain domain, @Nonnull DiscoveryMethod method) {
+        entries.remove(new CoalescingCertificateFetcher.PolicyKey(domain, method));
+    }
+
+    /**
+     * Remove the cached policies of the given domain for all methods.
+     *
+     * @param domain domain
+     */
+    public void invalidate(@Nonnull WKDDomain domain) {
+        for (DiscoveryMethod method : DiscoveryMethod.values()) {
+            invalidate(domain, method);
+        }
+    }
+
+    /**
+     * Remove all cached policies.
+     */
+    public void invalidateAll() {
+        entries.clear();
+    }
+
+    /**
+     * Remove all expired entries.
+     * Expired entries are also purged periodically while the cache is in use.
+     */
+    public void purgeExpired() {
+        long now = nanoTime.getAsLong();
+        entries.values().removeIf(entry -> entry.isExpired(now));
+    }
+
+    /**
+     * Return the number of cached entries, including failures and expired entries which were not purged yet.
+     *
+     * @return number of entries
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Return the number of lookups which were answered from the cache.
+     *
+     * @return number of cache hits
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Return the number of lookups which had to fetch the policy.
+     *
+     * @return number of cache misses
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Cached policy or failure.
+     */
+    private static final class Entry {
+
+        private final CompletableFuture<WKDPolicy> policy = new CompletableFuture<>();
+        // Set once the policy future completes, entries in flight do not expire
+        private volatile long expiresAt;
+
+        boolean isExpired(long now) {
+            return policy.isDone() && now - expiresAt >= 0;
+        }
+    }
+}
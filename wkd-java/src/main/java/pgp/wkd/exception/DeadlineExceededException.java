@@ -0,0 +1,22 @@
+// SPDX-FileCopyrightText: 2022 Paul Schaub <vanitasvitae@fsfe.org>
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package pgp.wkd.exception;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Exception that signals that a fetch was skipped or aborted, since the deadline of the lookup was exceeded.
+ */
+public class DeadlineExceededException extends InterruptedIOException {
+
+    public DeadlineExceededException(String message) {
+        super(message);
+    }
+
+    public DeadlineExceededException(String message, Throwable cause) {
+        super(message);
+        initCause(cause);
+    }
+}
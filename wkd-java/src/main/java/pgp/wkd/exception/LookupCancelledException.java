@@ -0,0 +1,22 @@
+// SPDX-FileCopyrightText: 2022 Paul Schaub <vanitasvitae@fsfe.org>
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package pgp.wkd.exception;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Exception that signals that a fetch was skipped or aborted, since the lookup was cancelled.
+ */
+public class LookupCancelledException extends InterruptedIOException {
+
+    public LookupCancelledException(String message) {
+        super(message);
+    }
+
+    public LookupCancelledException(String message, Throwable cause) {
+        super(message);
+        initCause(cause);
+    }
+}
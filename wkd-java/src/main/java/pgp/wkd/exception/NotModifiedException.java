@@ -0,0 +1,34 @@
+// SPDX-FileCopyrightText: 2022 Paul Schaub <vanitasvitae@fsfe.org>
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package pgp.wkd.exception;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Exception that signals that a conditional fetch was answered with <pre>304 Not Modified</pre>,
+ * so the previously fetched file is still current.
+ */
+public class NotModifiedException extends IOException {
+
+    private final Map<String, List<String>> headers;
+
+    public NotModifiedException(String message, Map<String, List<String>> headers) {
+        super(message);
+        this.headers = Collections.unmodifiableMap(headers);
+    }
+
+    /**
+     * Return the headers of the <pre>304 Not Modified</pre> response, which update the headers of the
+     * previously fetched file.
+     *
+     * @return headers
+     */
+    public Map<String, List<String>> getHeaders() {
+        return headers;
+    }
+}
@@ -0,0 +1,43 @@
+// SPDX-FileCopyrightText: 2022 Paul Schaub <vanitasvitae@fsfe.org>
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package pgp.wkd.discovery;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Factory for the threads which run blocking discovery requests.
+ *
+ * This is the Java 21 variant of the multi-release JAR, which starts a new virtual thread per task.
+ */
+final class DiscoveryThreads {
+
+    private static final AtomicInteger POOL_COUNT = new AtomicInteger();
+
+    private DiscoveryThreads() {
+
+    }
+
+    /**
+     * Return true, if {@link #newExecutor(int)} creates a virtual thread per task.
+     *
+     * @return whether virtual threads are used
+     */
+    static boolean isVirtual() {
+        return true;
+    }
+
+    /**
+     * Create an {@link ExecutorService} for blocking discovery requests.
+     *
+     * @param platformThreads ignored, since the number of virtual threads is not limited
+     * @return executor service
+     */
+    static ExecutorService newExecutor(int platformThreads) {
+        String prefix = "wkd-discovery-" + POOL_COUNT.incrementAndGet() + "-";
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(prefix, 1).factory());
+    }
+}
@@ -0,0 +1,82 @@
+// SPDX-FileCopyrightText: 2022 Paul Schaub <vanitasvitae@fsfe.org>
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package pgp.wkd;
+
+import org.junit.jupiter.api.Test;
+import pgp.wkd.exception.MalformedUserIdException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Differential test of the {@link MailAddressScanner} against the regular expressions it replaced.
+ */
+public class MailAddressScannerTest {
+
+    private static final Pattern PATTERN_EMAIL = Pattern.compile("^([a-zA-Z0-9_!#$%&'*+/=?`{|}~^.-]+)@([a-zA-Z0-9.-]+)$");
+    private static final Pattern PATTERN_LOCAL_PART = Pattern.compile("^[a-zA-Z0-9_!#$%&'*+/=?`{|}~^.-]+$");
+    private static final Pattern PATTERN_DOMAIN_PART = Pattern.compile("[a-zA-Z0-9.-]+$");
+
+    @Test
+    public void testEdgeCases() {
+        for (String input : Arrays.asList(
+                "", "@", "a@", "@a", "a@b", "a@@b", "a@b@c", "a@b\n", "a\n@b", "\u00e4@b.c", "a@\u00e4.c",
+                "Joe.Doe@Example.ORG", "john doe@example.org", "x_!#$%&'*+/=?`{|}~^.-@a-b.c",
+                "a@b_c", "<a@b>", "a@b.c ", " a@b.c")) {
+            compare(input);
+        }
+    }
+
+    @Test
+    public void testRandomInputs() {
+        Random random = new Random(1337);
+        char[] alphabet = alphabet();
+        for (int i = 0; i < 100000; i++) {
+            char[] chars = new char[random.nextInt(12)];
+            for (int j = 0; j < chars.length; j++) {
+                // bias towards '@' to get more structurally interesting inputs
+                chars[j] = random.nextInt(8) == 0 ? '@' : alphabet[random.nextInt(alphabet.length)];
+            }
+            compare(new String(chars));
+        }
+    }
+
+    private static char[] alphabet() {
+        List<Character> characters = new ArrayList<>();
+        for (char c = 0; c < 128; c++) {
+            characters.add(c);
+        }
+        characters.add('\u00e4');
+        characters.add('\u00a0'); // non-breaking space
+        characters.add('\u212A'); // Kelvin sign, lower-cases to 'k'
+        char[] alphabet = new char[characters.size()];
+        for (int i = 0; i < alphabet.length; i++) {
+            alphabet[i] = characters.get(i);
+        }
+        return alphabet;
+    }
+
+    private static void compare(String input) {
+        assertEquals(PATTERN_LOCAL_PART.matcher(input).matches(), MailAddressScanner.isValidLocalPart(input), input);
+        assertEquals(PATTERN_DOMAIN_PART.matcher(input).matches(), MailAddressScanner.isValidDomainPart(input), input);
+
+        Matcher matcher = PATTERN_EMAIL.matcher(input);
+        if (matcher.matches()) {
+            WKDAddress address = WKDAddress.fromEmail(input);
+            assertEquals(matcher.group(1), address.getLocalPart(), input);
+            assertEquals(matcher.group(2).toLowerCase(), address.getDomainPart(), input);
+        } else {
+            assertEquals(-1, MailAddressScanner.scanEmail(input), input);
+            assertThrows(MalformedUserIdException.class, () -> WKDAddress.fromEmail(input));
+        }
+    }
+}
@@ -0,0 +1,67 @@
+// SPDX-FileCopyrightText: 2022 Paul Schaub <vanitasvitae@fsfe.org>
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package pgp.wkd;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class WKDAddressBatchHasherTest {
+
+    @Test
+    public void testMixedBatch() {
+        List<String> emails = Arrays.asList("Joe.Doe@Example.ORG", "john doe@example.org", "alice@pgpainless.org");
+        Map<String, HashedMailAddress> results = new ConcurrentHashMap<>();
+
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            new WKDAddressBatchHasher(pool).hashAll(emails, result -> results.put(result.getEmail(), result));
+        } finally {
+            pool.shutdown();
+        }
+
+        assertEquals(3, results.size());
+
+        HashedMailAddress joe = results.get("Joe.Doe@Example.ORG");
+        assertTrue(joe.isValid());
+        assertEquals("iy9q119eutrkn8s1mk4r39qejnbu3n5q", joe.getZBase32LocalPart());
+        assertEquals(".well-known/openpgpkey/hu/iy9q119eutrkn8s1mk4r39qejnbu3n5q", joe.getDirectMethodPath());
+        assertEquals(".well-known/openpgpkey/example.org/hu/iy9q119eutrkn8s1mk4r39qejnbu3n5q",
+                joe.getAdvancedMethodPath());
+
+        HashedMailAddress broken = results.get("john doe@example.org");
+        assertFalse(broken.isValid());
+        assertNotNull(broken.getFailure());
+        assertNull(broken.getAddress());
+        assertNull(broken.getDirectMethodPath());
+
+        assertTrue(results.get("alice@pgpainless.org").isValid());
+    }
+
+    @Test
+    public void testLargeStream() {
+        List<String> emails = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            emails.add("user" + i + "@example.org");
+        }
+
+        Map<Boolean, Long> counts = WKDAddressBatchHasher.stream(emails.stream())
+                .collect(Collectors.partitioningBy(HashedMailAddress::isValid, Collectors.counting()));
+        assertEquals(10000L, (long) counts.get(true));
+        assertEquals(0L, (long) counts.get(false));
+    }
+}
@@ -0,0 +1,93 @@
+// SPDX-FileCopyrightText: 2022 Paul Schaub <vanitasvitae@fsfe.org>
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package pgp.wkd;
+
+import org.junit.jupiter.api.Test;
+import pgp.wkd.exception.MalformedUserIdException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class WKDAddressHelperTest {
+
+    // The regex formerly used by WKDAddressHelper.emailFromUserId()
+    private static final Pattern PATTERN_USER_ID = Pattern.compile("^.*\\<([a-zA-Z0-9_!#$%&'*+/=?`{|}~^.-]+@[a-zA-Z0-9.-]+)\\>.*");
+
+    @Test
+    public void testMultipleEmails() {
+        String userId = "Alice <alice@pgpainless.org> (aka <alice@example.org>) <not an email> <bob@>";
+        assertEquals(Arrays.asList("alice@pgpainless.org", "alice@example.org"),
+                WKDAddressHelper.emailsFromUserId(userId));
+        assertEquals("alice@example.org", WKDAddressHelper.emailFromUserId(userId));
+    }
+
+    @Test
+    public void testOffsets() {
+        String userId = "<<a@b>>";
+        List<Integer> offsets = new ArrayList<>();
+        WKDAddressHelper.emailOffsetsFromUserId(userId, (start, end) -> {
+            offsets.add(start);
+            offsets.add(end);
+        });
+        assertEquals(Arrays.asList(2, 5), offsets);
+    }
+
+    @Test
+    public void testNoEmail() {
+        assertEquals(Collections.emptyList(), WKDAddressHelper.emailsFromUserId("Alice [Work]"));
+        assertThrows(MalformedUserIdException.class, () -> WKDAddressHelper.emailFromUserId("Alice [Work]"));
+    }
+
+    @Test
+    public void testAdversarialUserId() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            sb.append("<a@b");
+        }
+        String userId = sb.toString();
+        assertEquals(Collections.emptyList(), WKDAddressHelper.emailsFromUserId(userId));
+        assertEquals("a@b", WKDAddressHelper.emailFromUserId(userId + '>'));
+    }
+
+    @Test
+    public void testEdgeCasesAgainstRegex() {
+        for (String userId : Arrays.asList(
+                "", "<>", "<@>", "<a@>", "<@b>", "<a@b>", "<a@b", "a@b>", "<a<b@c>", "<a@b<c@d>>",
+                "Joe <joe@example.org>\n", "\n<joe@example.org>", "Joe <joe@example.org> ",
+                "<a@b> <c@d>", "<a@b@c>", "<a b@c>", "<a@b c>")) {
+            compare(userId);
+        }
+    }
+
+    @Test
+    public void testRandomUserIdsAgainstRegex() {
+        Random random = new Random(4711);
+        char[] alphabet = "ab.-_+@<> \n\u00e4".toCharArray();
+        for (int i = 0; i < 100000; i++) {
+            char[] chars = new char[random.nextInt(16)];
+            for (int j = 0; j < chars.length; j++) {
+                chars[j] = alphabet[random.nextInt(alphabet.length)];
+            }
+            compare(new String(chars));
+        }
+    }
+
+    private static void compare(String userId) {
+        Matcher matcher = PATTERN_USER_ID.matcher(userId);
+        if (matcher.matches()) {
+            assertEquals(matcher.group(1), WKDAddressHelper.emailFromUserId(userId), userId);
+        } else {
+            assertThrows(MalformedUserIdException.class, () -> WKDAddressHelper.emailFromUserId(userId));
+        }
+    }
+}
@@ -0,0 +1,93 @@
+// SPDX-FileCopyrightText: 2022 Paul Schaub <vanitasvitae@fsfe.org>
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package pgp.wkd;
+
+import org.junit.jupiter.api.Test;
+import pgp.wkd.exception.MalformedUserIdException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class WKDAddressInternerTest {
+
+    @Test
+    public void testDomainIsNormalizedButLocalPartIsNot() {
+        WKDAddressInterner interner = new WKDAddressInterner(100);
+
+        WKDAddress first = interner.intern("Joe.Doe@Example.ORG");
+        assertSame(first, interner.intern("Joe.Doe@example.org"));
+        assertEquals("Joe.Doe@example.org", first.getEmail());
+        assertNotSame(first, interner.intern("joe.doe@example.org"));
+
+        assertEquals(1, interner.getHitCount());
+        assertEquals(2, interner.getMissCount());
+        assertEquals(2, interner.size());
+    }
+
+    @Test
+    public void testMalformedAddressesAreNotCached() {
+        WKDAddressInterner interner = new WKDAddressInterner(10);
+        assertThrows(MalformedUserIdException.class, () -> interner.intern("john doe@example.org"));
+        assertEquals(0, interner.size());
+    }
+
+    @Test
+    public void testSizeIsBounded() {
+        WKDAddressInterner interner = new WKDAddressInterner(64);
+        for (int i = 0; i < 1000; i++) {
+            interner.intern("user" + i + "@example.org");
+        }
+        assertTrue(interner.size() <= 64);
+
+        interner.clear();
+        assertEquals(0, interner.size());
+    }
+
+    @Test
+    public void testConcurrentAccessReturnsCanonicalInstance() throws InterruptedException {
+        WKDAddressInterner interner = new WKDAddressInterner(1000);
+        WKDAddress canonical = interner.intern("alice@pgpainless.org");
+
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> failures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    if (interner.intern("alice@PGPainless.org") != canonical) {
+                        synchronized (failures) {
+                            failures.add(new AssertionError("Not canonical"));
+                        }
+                    }
+                    interner.intern("user" + (i % 500) + "@example.org");
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(failures.isEmpty());
+    }
+
+    @Test
+    public void testFromEmailUsesRegisteredInterner() {
+        WKDAddressInterner interner = new WKDAddressInterner(10);
+        WKDAddress.setInterner(interner);
+        try {
+            assertSame(WKDAddress.fromEmail("bob@example.com"), WKDAddress.fromEmail("bob@EXAMPLE.com"));
+            assertEquals(1, interner.getHitCount());
+        } finally {
+            WKDAddress.setInterner(null);
+        }
+        assertNotSame(WKDAddress.fromEmail("bob@example.com"), WKDAddress.fromEmail("bob@example.com"));
+    }
+}
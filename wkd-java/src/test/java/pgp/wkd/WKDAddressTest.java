@@ -5,9 +5,14 @@
 package pgp.wkd;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 
 import org.junit.jupiter.api.Test;
@@ -113,4 +118,93 @@ public class WKDAddressTest {
         assertEquals(address.getAdvancedMethodPolicyURI(), address.getPolicyUri(DiscoveryMethod.advanced));
         assertEquals(address.getDirectMethodPolicyURI(), address.getPolicyUri(DiscoveryMethod.direct));
     }
+
+    @Test
+    public void testUrisAreCached() {
+        WKDAddress address = WKDAddress.fromEmail("Joe.Doe@Example.ORG");
+        assertEquals("iy9q119eutrkn8s1mk4r39qejnbu3n5q", address.getZBase32LocalPart());
+        assertSame(address.getDirectMethodURI(), address.getUri(DiscoveryMethod.direct));
+        assertSame(address.getAdvancedMethodURI(), address.getUri(DiscoveryMethod.advanced));
+        assertSame(address.getDirectMethodPolicyURI(), address.getPolicyUri(DiscoveryMethod.direct));
+        assertSame(address.getAdvancedMethodPolicyURI(), address.getPolicyUri(DiscoveryMethod.advanced));
+        assertSame(address.getEmail(), address.getEmail());
+    }
+
+    @Test
+    public void testAddressesShareDomain() {
+        WKDAddress alice = WKDAddress.fromEmail("alice@PGPainless.org");
+        WKDAddress bob = WKDAddress.fromLocalAndDomainPart("bob", "pgpainless.org");
+        assertEquals(WKDDomain.of("pgpainless.org"), alice.getDomain());
+        assertEquals(alice.getDomain(), bob.getDomain());
+        assertSame(alice.getDirectMethodPolicyURI(), bob.getDirectMethodPolicyURI());
+
+        WKDDomain domain = alice.getDomain();
+        assertEquals("pgpainless.org", domain.getName());
+        assertEquals("https://pgpainless.org/.well-known/openpgpkey/hu/",
+                domain.getUriPrefix(DiscoveryMethod.direct));
+        assertEquals("https://openpgpkey.pgpainless.org/.well-known/openpgpkey/pgpainless.org/hu/",
+                domain.getUriPrefix(DiscoveryMethod.advanced));
+        assertThrows(IllegalArgumentException.class, () -> WKDDomain.of("pgpainless org"));
+    }
+
+    @Test
+    public void testEquality() {
+        WKDAddress alice = WKDAddress.fromEmail("alice@PGPainless.org");
+        assertEquals(alice, WKDAddress.fromLocalAndDomainPart("alice", "pgpainless.org"));
+        assertEquals(alice.hashCode(), WKDAddress.fromEmail("alice@pgpainless.org").hashCode());
+        // The local part is case-sensitive
+        assertNotEquals(alice, WKDAddress.fromEmail("Alice@pgpainless.org"));
+        assertNotEquals(alice, WKDAddress.fromEmail("alice@example.org"));
+    }
+
+    @Test
+    public void testSharedDomainsAreEvicted() {
+        WKDDomain unused = WKDAddress.fromEmail("alice@unused.example").getDomain();
+        WKDDomain used = WKDAddress.fromEmail("alice@used.example").getDomain();
+        for (int i = 0; i < 10000; i++) {
+            WKDAddress.fromEmail("alice@domain" + i + ".example");
+            assertSame(used, WKDAddress.fromEmail("bob@used.example").getDomain());
+        }
+        assertNotSame(unused, WKDAddress.fromEmail("bob@unused.example").getDomain());
+        assertEquals(unused, WKDAddress.fromEmail("bob@unused.example").getDomain());
+    }
+
+    @Test
+    public void testFromBuffers() {
+        WKDAddress expected = WKDAddress.fromEmail("Joe.Doe@Example.ORG");
+        byte[] bytes = "xxJoe.Doe@Example.ORGyy".getBytes(StandardCharsets.US_ASCII);
+
+        WKDAddress fromBytes = WKDAddress.fromEmail(bytes, 2, 19);
+        Arrays.fill(bytes, (byte) 'z'); // buffer is not retained
+        assertSameUris(expected, fromBytes);
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(19);
+        direct.put("Joe.Doe@Example.ORG".getBytes(StandardCharsets.US_ASCII)).flip();
+        assertSameUris(expected, WKDAddress.fromEmail(direct));
+        assertEquals(0, direct.position());
+
+        ByteBuffer heap = ByteBuffer.wrap("xxJoe.Doe@Example.ORG".getBytes(StandardCharsets.US_ASCII), 2, 19);
+        assertSameUris(expected, WKDAddress.fromEmail(heap.slice()));
+
+        assertSameUris(expected, WKDAddress.fromEmail(new StringBuilder("<Joe.Doe@Example.ORG>"), 1, 20));
+    }
+
+    @Test
+    public void testFromInvalidBuffers() {
+        byte[] umlaut = "J\u00f6e@example.org".getBytes(StandardCharsets.ISO_8859_1);
+        assertThrows(MalformedUserIdException.class, () -> WKDAddress.fromEmail(umlaut, 0, umlaut.length));
+        byte[] bytes = "joe@example.org".getBytes(StandardCharsets.US_ASCII);
+        assertThrows(MalformedUserIdException.class, () -> WKDAddress.fromEmail(bytes, 0, 4));
+        assertThrows(IndexOutOfBoundsException.class, () -> WKDAddress.fromEmail(bytes, 1, bytes.length));
+        assertThrows(MalformedUserIdException.class, () -> WKDAddress.fromEmail(new StringBuilder("joe@")));
+    }
+
+    private static void assertSameUris(WKDAddress expected, WKDAddress actual) {
+        assertEquals(expected.getEmail(), actual.getEmail());
+        assertEquals(expected.getLocalPart(), actual.getLocalPart());
+        assertEquals(expected.getZBase32LocalPart(), actual.getZBase32LocalPart());
+        assertEquals(expected.getDirectMethodURI(), actual.getDirectMethodURI());
+        assertEquals(expected.getAdvancedMethodURI(), actual.getAdvancedMethodURI());
+        assertSame(expected.getDomain(), actual.getDomain());
+    }
 }
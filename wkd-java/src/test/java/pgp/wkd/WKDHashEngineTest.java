@@ -0,0 +1,82 @@
+// SPDX-FileCopyrightText: 2022 Paul Schaub <vanitasvitae@fsfe.org>
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package pgp.wkd;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class WKDHashEngineTest {
+
+    @Test
+    public void testKnownHashes() {
+        WKDHashEngine engine = WKDHashEngine.getInstance();
+        assertEquals("iy9q119eutrkn8s1mk4r39qejnbu3n5q", engine.hashLocalPart("Joe.Doe"));
+        assertEquals("kei1q4tipxxu1yj79k9kfukdhfy631xe", engine.hashLocalPart("alice"));
+    }
+
+    @Test
+    public void testHashIsCaseInsensitive() {
+        WKDHashEngine engine = WKDHashEngine.getInstance();
+        assertEquals(engine.hashLocalPart("joe.doe"), engine.hashLocalPart("JOE.DOE"));
+    }
+
+    @Test
+    public void testLongLocalPartMatchesMessageDigest() throws NoSuchAlgorithmException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            sb.append((char) ('A' + i % 26));
+        }
+        String localPart = sb.toString();
+
+        byte[] expected = MessageDigest.getInstance("SHA1")
+                .digest(localPart.toLowerCase().getBytes(StandardCharsets.UTF_8));
+        byte[] actual = new byte[WKDHashEngine.SHA1_LENGTH + 3];
+        WKDHashEngine.getInstance().sha1OfLowerCase(localPart, actual, 3);
+
+        byte[] actualDigest = new byte[WKDHashEngine.SHA1_LENGTH];
+        System.arraycopy(actual, 3, actualDigest, 0, actualDigest.length);
+        assertArrayEquals(expected, actualDigest);
+    }
+
+    @Test
+    public void testHashIntoBufferAtOffset() {
+        char[] buffer = new char[WKDHashEngine.ZBASE32_LENGTH + 2];
+        buffer[0] = '<';
+        buffer[buffer.length - 1] = '>';
+        WKDHashEngine.getInstance().hashLocalPart("alice", buffer, 1);
+        assertEquals("<kei1q4tipxxu1yj79k9kfukdhfy631xe>", new String(buffer));
+    }
+
+    @Test
+    public void testBufferTooSmall() {
+        WKDHashEngine engine = WKDHashEngine.getInstance();
+        assertThrows(IndexOutOfBoundsException.class,
+                () -> engine.hashLocalPart("alice", new char[WKDHashEngine.ZBASE32_LENGTH], 1));
+        assertThrows(IndexOutOfBoundsException.class,
+                () -> engine.sha1OfLowerCase("alice", new byte[WKDHashEngine.SHA1_LENGTH - 1], 0));
+    }
+
+    @Test
+    public void testZBase32EncodeUnalignedInput() {
+        // Test vectors from https://philzimmermann.com/docs/human-oriented-base-32-encoding.txt
+        byte[] input = new byte[] {(byte) 0xf0, (byte) 0xbf, (byte) 0xc7};
+        char[] out = new char[WKDHashEngine.zBase32EncodedLength(input.length)];
+        int written = WKDHashEngine.zBase32Encode(input, 0, input.length, out, 0);
+        assertEquals(5, written);
+        assertEquals("6n9hq", new String(out));
+
+        input = new byte[] {(byte) 0xd4, (byte) 0x7a, (byte) 0x04};
+        out = new char[WKDHashEngine.zBase32EncodedLength(input.length)];
+        WKDHashEngine.zBase32Encode(input, 0, input.length, out, 0);
+        assertEquals("4t7ye", new String(out));
+    }
+}
@@ -0,0 +1,55 @@
+// SPDX-FileCopyrightText: 2022 Paul Schaub <vanitasvitae@fsfe.org>
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package pgp.wkd;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class WKDHashTest {
+
+    @Test
+    public void testKnownHash() {
+        WKDHash hash = WKDAddress.fromEmail("Joe.Doe@Example.ORG").getHash();
+        assertEquals("iy9q119eutrkn8s1mk4r39qejnbu3n5q", hash.toZBase32());
+        assertEquals(hash, WKDHash.fromZBase32("iy9q119eutrkn8s1mk4r39qejnbu3n5q"));
+        assertEquals(hash.hashCode(), WKDHash.fromZBase32("iy9q119eutrkn8s1mk4r39qejnbu3n5q").hashCode());
+        assertEquals(hash, WKDHashEngine.getInstance().hash("joe.doe"));
+        assertNotEquals(hash, WKDHashEngine.getInstance().hash("alice"));
+    }
+
+    @Test
+    public void testRandomRoundTrips() {
+        Random random = new Random(4711);
+        for (int i = 0; i < 1000; i++) {
+            byte[] sha1 = new byte[WKDHashEngine.SHA1_LENGTH + 1];
+            random.nextBytes(sha1);
+            WKDHash hash = WKDHash.fromBytes(sha1, 1);
+
+            byte[] bytes = new byte[WKDHashEngine.SHA1_LENGTH];
+            System.arraycopy(sha1, 1, bytes, 0, WKDHashEngine.SHA1_LENGTH);
+            assertArrayEquals(bytes, hash.toBytes());
+
+            char[] zbase32 = new char[WKDHashEngine.ZBASE32_LENGTH];
+            WKDHashEngine.zBase32Encode(sha1, 1, WKDHashEngine.SHA1_LENGTH, zbase32, 0);
+            assertEquals(new String(zbase32), hash.toZBase32());
+            assertEquals(hash, WKDHash.fromZBase32(new String(zbase32)));
+        }
+    }
+
+    @Test
+    public void testInvalidZBase32() {
+        assertThrows(IllegalArgumentException.class, () -> WKDHash.fromZBase32("iy9q119eutrkn8s1mk4r39qejnbu3n5"));
+        // 'l' and 'v' are not part of the alphabet
+        assertThrows(IllegalArgumentException.class, () -> WKDHash.fromZBase32("iy9q119eutrkn8s1mk4r39qejnbu3n5l"));
+        assertThrows(IllegalArgumentException.class, () -> WKDHash.fromZBase32("iy9q119eutrkn8s1mk4r39qejnbu3n5\u00e4"));
+        assertThrows(IndexOutOfBoundsException.class, () -> WKDHash.fromBytes(new byte[WKDHashEngine.SHA1_LENGTH], 1));
+    }
+}
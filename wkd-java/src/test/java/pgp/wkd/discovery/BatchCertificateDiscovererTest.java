@@ -0,0 +1,179 @@
+// SPDX-FileCopyrightText: 2022 Paul Schaub <vanitasvitae@fsfe.org>
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package pgp.wkd.discovery;
+
+import org.junit.jupiter.api.Test;
+import pgp.wkd.WKDAddress;
+import pgp.wkd.WKDDomain;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BatchCertificateDiscovererTest {
+
+    @Test
+    public void testLimitsAndSharedPolicies() {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        CountingFetcher fetcher = new CountingFetcher(scheduler);
+        BatchCertificateDiscoverer discoverer = new BatchCertificateDiscoverer(
+                in -> Collections.emptyList(), fetcher, executor, 5, 2);
+
+        List<WKDAddress> addresses = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            addresses.add(WKDAddress.fromEmail("user" + i + "@domain" + (i % 3) + ".org"));
+        }
+
+        Map<WKDAddress, DiscoveryResult> results = discoverer.discoverAll(addresses);
+        assertEquals(addresses, new ArrayList<>(results.keySet()));
+        for (DiscoveryResult result : results.values()) {
+            assertEquals(1, result.getResponses().size());
+            assertTrue(result.getResponses().get(0).isSuccessful());
+        }
+
+        // one policy fetch per domain
+        assertEquals(3, fetcher.policyFetches.get());
+        assertTrue(fetcher.maxInFlight.get() <= 5);
+        for (AtomicInteger max : fetcher.maxInFlightPerDomain.values()) {
+            assertTrue(max.get() <= 2);
+        }
+
+        executor.shutdownNow();
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void testDuplicateRecipientsAreLookedUpOnce() {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        CountingFetcher fetcher = new CountingFetcher(scheduler);
+        BatchCertificateDiscoverer discoverer = new BatchCertificateDiscoverer(
+                in -> Collections.emptyList(), fetcher, Runnable::run, 5, 2);
+
+        List<WKDAddress> addresses = Arrays.asList(
+                WKDAddress.fromEmail("alice@pgpainless.org"),
+                WKDAddress.fromEmail("bob@pgpainless.org"),
+                WKDAddress.fromEmail("alice@PGPainless.org"));
+        Map<WKDAddress, DiscoveryResult> results = discoverer.discoverAll(addresses);
+        assertEquals(2, results.size());
+        assertEquals(2, fetcher.certificateFetches.get());
+        assertTrue(results.get(WKDAddress.fromLocalAndDomainPart("alice", "pgpainless.org"))
+                .getResponses().get(0).isSuccessful());
+
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void testLargeBatchOnDirectExecutor() {
+        AsyncCertificateFetcher fetcher = new AsyncCertificateFetcher() {
+            @Override
+            public CompletableFuture<InputStream> fetchCertificate(WKDAddress address, DiscoveryMethod method) {
+                return CompletableFuture.completedFuture(new ByteArrayInputStream(new byte[0]));
+            }
+
+            @Override
+            public CompletableFuture<InputStream> fetchPolicy(WKDAddress address, DiscoveryMethod method) {
+                return CompletableFuture.completedFuture(new ByteArrayInputStream(new byte[0]));
+            }
+        };
+        // Every lookup completes while it is started, which must not start the next lookup recursively
+        BatchCertificateDiscoverer discoverer = new BatchCertificateDiscoverer(
+                in -> Collections.emptyList(), fetcher, Runnable::run, 1, 1);
+
+        List<WKDAddress> addresses = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            addresses.add(WKDAddress.fromEmail("user" + i + "@pgpainless.org"));
+        }
+
+        Map<WKDAddress, DiscoveryResult> results = discoverer.discoverAll(addresses);
+        assertEquals(addresses.size(), results.size());
+        for (DiscoveryResult result : results.values()) {
+            assertTrue(result.getResponses().get(0).isSuccessful());
+        }
+    }
+
+    @Test
+    public void testLargeBatchOnRejectingExecutor() {
+        BatchCertificateDiscoverer discoverer = new BatchCertificateDiscoverer(
+                in -> Collections.emptyList(), new CountingFetcher(null),
+                command -> {
+                    throw new RejectedExecutionException();
+                }, 1, 1);
+
+        List<WKDAddress> addresses = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            addresses.add(WKDAddress.fromEmail("user" + i + "@pgpainless.org"));
+        }
+
+        Map<WKDAddress, CompletableFuture<DiscoveryResult>> results = discoverer.discoverAllAsync(addresses);
+        assertEquals(addresses.size(), results.size());
+        for (CompletableFuture<DiscoveryResult> result : results.values()) {
+            assertTrue(result.isCompletedExceptionally());
+        }
+    }
+
+    /**
+     * Fetcher which answers after a short delay and records the number of concurrent certificate fetches.
+     */
+    private static class CountingFetcher implements AsyncCertificateFetcher {
+
+        private final ScheduledExecutorService scheduler;
+        private final AtomicInteger policyFetches = new AtomicInteger();
+        private final AtomicInteger certificateFetches = new AtomicInteger();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger maxInFlight = new AtomicInteger();
+        private final Map<WKDDomain, AtomicInteger> inFlightPerDomain = new ConcurrentHashMap<>();
+        private final Map<WKDDomain, AtomicInteger> maxInFlightPerDomain = new ConcurrentHashMap<>();
+
+        CountingFetcher(ScheduledExecutorService scheduler) {
+            this.scheduler = scheduler;
+        }
+
+        @Override
+        public CompletableFuture<InputStream> fetchCertificate(WKDAddress address, DiscoveryMethod method) {
+            certificateFetches.incrementAndGet();
+            WKDDomain domain = address.getDomain();
+            AtomicInteger domainInFlight = inFlightPerDomain.computeIfAbsent(domain, d -> new AtomicInteger());
+            AtomicInteger domainMax = maxInFlightPerDomain.computeIfAbsent(domain, d -> new AtomicInteger());
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            domainMax.accumulateAndGet(domainInFlight.incrementAndGet(), Math::max);
+            return delayed(() -> {
+                inFlight.decrementAndGet();
+                domainInFlight.decrementAndGet();
+            });
+        }
+
+        @Override
+        public CompletableFuture<InputStream> fetchPolicy(WKDAddress address, DiscoveryMethod method) {
+            policyFetches.incrementAndGet();
+            return delayed(() -> {
+            });
+        }
+
+        private CompletableFuture<InputStream> delayed(Runnable beforeCompletion) {
+            CompletableFuture<InputStream> future = new CompletableFuture<>();
+            scheduler.schedule(() -> {
+                beforeCompletion.run();
+                future.complete(new ByteArrayInputStream(new byte[0]));
+            }, 10, TimeUnit.MILLISECONDS);
+            return future;
+        }
+    }
+}
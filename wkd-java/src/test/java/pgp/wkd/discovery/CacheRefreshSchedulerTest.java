@@ -0,0 +1,143 @@
+// SPDX-FileCopyrightText: 2022 Paul Schaub <vanitasvitae@fsfe.org>
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package pgp.wkd.discovery;
+
+import org.junit.jupiter.api.Test;
+import pgp.wkd.WKDAddress;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CacheRefreshSchedulerTest {
+
+    private static final WKDAddress ALICE = WKDAddress.fromEmail("alice@pgpainless.org");
+    private static final WKDAddress BOB = WKDAddress.fromEmail("bob@pgpainless.org");
+    private static final WKDAddress CAROL = WKDAddress.fromEmail("carol@pgpainless.org");
+
+    @Test
+    public void testHotEntriesAreRefreshedWithinBudget() throws IOException, InterruptedException {
+        AtomicLong now = new AtomicLong();
+        Map<String, AtomicInteger> lookups = new ConcurrentHashMap<>();
+        WKDPolicy policy = WKDPolicy.fromInputStream(new ByteArrayInputStream(new byte[0]));
+        CertificateDiscoverer delegate = (method, address) -> {
+            lookups.computeIfAbsent(address.getEmail(), email -> new AtomicInteger()).incrementAndGet();
+            return DiscoveryResponse.builder(method, address)
+                    .setPolicy(policy)
+                    .setResponseHeaders(ResponseHeaders.of(Collections.singletonMap(
+                            ResponseHeaders.CACHE_CONTROL, Collections.singletonList("max-age=60"))))
+                    .build();
+        };
+        CachingCertificateDiscoverer cache = new CachingCertificateDiscoverer(delegate, 10, Duration.ZERO,
+                Duration.ofDays(1), Duration.ZERO, Duration.ZERO, Runnable::run, now::get);
+
+        for (WKDAddress address : new WKDAddress[] {ALICE, BOB, CAROL}) {
+            cache.discover(DiscoveryMethod.advanced, address);
+        }
+        // Alice and Bob are hot, Carol is not
+        for (int i = 0; i < 3; i++) {
+            cache.discover(DiscoveryMethod.advanced, ALICE);
+            cache.discover(DiscoveryMethod.advanced, BOB);
+        }
+        cache.discover(DiscoveryMethod.advanced, CAROL);
+        now.addAndGet(Duration.ofSeconds(55).toNanos());
+
+        // One refresh per round
+        try (CacheRefreshScheduler scheduler = new CacheRefreshScheduler(
+                cache, 20, Duration.ofSeconds(10), 2, Duration.ofMillis(50))) {
+            long timeout = System.currentTimeMillis() + 5000;
+            while (scheduler.getRefreshCount() < 2 && System.currentTimeMillis() < timeout) {
+                Thread.sleep(10);
+            }
+            assertEquals(2, scheduler.getRefreshCount());
+            // In the first round, one of the hot entries exceeded the budget
+            assertTrue(scheduler.getSkippedCount() >= 1);
+
+            // Refreshed entries are fresh, and are not hot anymore
+            Thread.sleep(200);
+            assertEquals(2, scheduler.getRefreshCount());
+        }
+
+        assertEquals(2, lookups.get(ALICE.getEmail()).get());
+        assertEquals(2, lookups.get(BOB.getEmail()).get());
+        assertEquals(1, lookups.get(CAROL.getEmail()).get());
+        long hits = cache.getHitCount();
+        cache.discover(DiscoveryMethod.advanced, ALICE);
+        assertEquals(hits + 1, cache.getHitCount());
+    }
+
+    @Test
+    public void testBlockingRefreshesDoNotDelayOthers() throws IOException, InterruptedException {
+        AtomicLong now = new AtomicLong();
+        CountDownLatch release = new CountDownLatch(1);
+        List<Deadline> refreshDeadlines = new CopyOnWriteArrayList<>();
+        WKDPolicy policy = WKDPolicy.fromInputStream(new ByteArrayInputStream(new byte[0]));
+        AtomicBoolean populated = new AtomicBoolean();
+        CertificateDiscoverer delegate = new CertificateDiscoverer() {
+            @Override
+            public DiscoveryResponse discover(DiscoveryMethod method, WKDAddress address) {
+                return discover(method, address, Deadline.none());
+            }
+
+            @Override
+            public DiscoveryResponse discover(DiscoveryMethod method, WKDAddress address, Deadline deadline) {
+                if (populated.get()) {
+                    // Refreshes hang until released
+                    refreshDeadlines.add(deadline);
+                    try {
+                        release.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return DiscoveryResponse.builder(method, address)
+                        .setPolicy(policy)
+                        .setResponseHeaders(ResponseHeaders.of(Collections.singletonMap(
+                                ResponseHeaders.CACHE_CONTROL, Collections.singletonList("max-age=60"))))
+                        .build();
+            }
+        };
+        // Without an executor of its own, refreshes would run on the scheduler thread
+        CachingCertificateDiscoverer cache = new CachingCertificateDiscoverer(delegate, 10, Duration.ZERO,
+                Duration.ofDays(1), Duration.ZERO, Duration.ZERO, Runnable::run, now::get);
+
+        for (int i = 0; i < 3; i++) {
+            cache.discover(DiscoveryMethod.advanced, ALICE);
+            cache.discover(DiscoveryMethod.advanced, BOB);
+        }
+        populated.set(true);
+        now.addAndGet(Duration.ofSeconds(55).toNanos());
+
+        try (CacheRefreshScheduler scheduler = new CacheRefreshScheduler(
+                cache, 20, Duration.ofSeconds(10), 2, Duration.ofMillis(50))) {
+            long timeout = System.currentTimeMillis() + 5000;
+            while (refreshDeadlines.size() < 2 && System.currentTimeMillis() < timeout) {
+                Thread.sleep(10);
+            }
+            // Both refreshes were started, although the first one hangs
+            assertEquals(2, refreshDeadlines.size());
+            assertEquals(2, scheduler.getRefreshCount());
+            for (Deadline deadline : refreshDeadlines) {
+                assertTrue(deadline.isBounded());
+                assertTrue(deadline.remainingNanos() <= Duration.ofSeconds(10).toNanos());
+            }
+        } finally {
+            release.countDown();
+        }
+    }
+}
@@ -0,0 +1,450 @@
+// SPDX-FileCopyrightText: 2022 Paul Schaub <vanitasvitae@fsfe.org>
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package pgp.wkd.discovery;
+
+import org.junit.jupiter.api.Test;
+import pgp.wkd.WKDAddress;
+import pgp.wkd.exception.NotModifiedException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CachingCertificateDiscovererTest {
+
+    private static final WKDAddress ALICE = WKDAddress.fromEmail("alice@pgpainless.org");
+    private static final WKDAddress BOB = WKDAddress.fromEmail("bob@pgpainless.org");
+
+    @Test
+    public void testMaxAgeIsClampedToTimeToLiveBounds() throws IOException {
+        AtomicLong now = new AtomicLong();
+        AtomicInteger lookups = new AtomicInteger();
+        WKDPolicy policy = WKDPolicy.fromInputStream(new ByteArrayInputStream(new byte[0]));
+        CertificateDiscoverer delegate = (method, address) -> {
+            lookups.incrementAndGet();
+            String cacheControl = address.getEmail().startsWith("alice") ? "public, max-age=600" : "max-age=5";
+            return DiscoveryResponse.builder(method, address)
+                    .setPolicy(policy)
+                    .setResponseHeaders(ResponseHeaders.of(Collections.singletonMap(
+                            "cache-control", Collections.singletonList(cacheControl))))
+                    .build();
+        };
+        CachingCertificateDiscoverer cache = new CachingCertificateDiscoverer(
+                delegate, 10, Duration.ofSeconds(60), Duration.ofSeconds(300), Duration.ZERO, Duration.ZERO,
+                Runnable::run, now::get);
+
+        DiscoveryResponse alice = cache.discover(DiscoveryMethod.advanced, ALICE);
+        DiscoveryResponse bob = cache.discover(DiscoveryMethod.advanced, BOB);
+        assertSame(alice, cache.discover(DiscoveryMethod.advanced, ALICE));
+        assertEquals(2, lookups.get());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+
+        // max-age=5 is raised to the minimum of 60 seconds
+        now.addAndGet(Duration.ofSeconds(59).toNanos());
+        assertSame(bob, cache.discover(DiscoveryMethod.advanced, BOB));
+        now.addAndGet(Duration.ofSeconds(1).toNanos());
+        assertNotSame(bob, cache.discover(DiscoveryMethod.advanced, BOB));
+
+        // max-age=600 is lowered to the maximum of 300 seconds
+        now.addAndGet(Duration.ofSeconds(239).toNanos());
+        assertSame(alice, cache.discover(DiscoveryMethod.advanced, ALICE));
+        now.addAndGet(Duration.ofSeconds(1).toNanos());
+        assertNotSame(alice, cache.discover(DiscoveryMethod.advanced, ALICE));
+        assertEquals(4, lookups.get());
+    }
+
+    @Test
+    public void testNoStoreAndCancelledResponsesAreNotCached() {
+        AtomicInteger lookups = new AtomicInteger();
+        CertificateDiscoverer delegate = (method, address) -> {
+            lookups.incrementAndGet();
+            if (method == DiscoveryMethod.direct) {
+                return DiscoveryResponse.cancelled(method, address);
+            }
+            return DiscoveryResponse.builder(method, address)
+                    .setResponseHeaders(ResponseHeaders.of(Collections.singletonMap(
+                            ResponseHeaders.CACHE_CONTROL, Collections.singletonList("no-store"))))
+                    .build();
+        };
+        CachingCertificateDiscoverer cache = new CachingCertificateDiscoverer(delegate);
+
+        cache.discover(DiscoveryMethod.advanced, ALICE);
+        cache.discover(DiscoveryMethod.advanced, ALICE);
+        cache.discover(DiscoveryMethod.direct, ALICE);
+        cache.discover(DiscoveryMethod.direct, ALICE);
+        assertEquals(4, lookups.get());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntryIsEvicted() {
+        AtomicInteger lookups = new AtomicInteger();
+        CertificateDiscoverer delegate = (method, address) -> {
+            lookups.incrementAndGet();
+            return DiscoveryResponse.builder(method, address).build();
+        };
+        CachingCertificateDiscoverer cache = new CachingCertificateDiscoverer(
+                delegate, 2, Duration.ofMinutes(1), Duration.ofMinutes(1));
+
+        cache.discover(DiscoveryMethod.advanced, ALICE);
+        cache.discover(DiscoveryMethod.direct, ALICE);
+        // Use advanced again, so that direct is the least recently used entry
+        cache.discover(DiscoveryMethod.advanced, ALICE);
+        cache.discover(DiscoveryMethod.advanced, BOB);
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(3, lookups.get());
+
+        cache.discover(DiscoveryMethod.advanced, ALICE);
+        assertEquals(3, lookups.get());
+        cache.discover(DiscoveryMethod.direct, ALICE);
+        assertEquals(4, lookups.get());
+    }
+
+    @Test
+    public void testExpiredResponseIsRevalidated() {
+        AtomicLong now = new AtomicLong();
+        AtomicInteger parsed = new AtomicInteger();
+        AtomicInteger conditionalFetches = new AtomicInteger();
+        CertificateFetcher fetcher = new CertificateFetcher() {
+            @Override
+            public InputStream fetchCertificate(WKDAddress address, DiscoveryMethod method) {
+                return new ResponseInputStream(new ByteArrayInputStream(new byte[0]), headers(
+                        ResponseHeaders.ETAG, "\"v1\"",
+                        ResponseHeaders.CACHE_CONTROL, "max-age=60"));
+            }
+
+            @Override
+            public InputStream fetchCertificate(WKDAddress address, DiscoveryMethod method, Deadline deadline,
+                                                ResponseHeaders cached)
+                    throws IOException {
+                if (!"\"v1\"".equals(cached.getFirst(ResponseHeaders.ETAG))) {
+                    return fetchCertificate(address, method);
+                }
+                conditionalFetches.incrementAndGet();
+                throw new NotModifiedException("Not modified.",
+                        headers(ResponseHeaders.CACHE_CONTROL, "max-age=120").asMap());
+            }
+
+            @Override
+            public InputStream fetchPolicy(WKDAddress address, DiscoveryMethod method) {
+                return new ByteArrayInputStream(new byte[0]);
+            }
+        };
+        CertificateParser parser = in -> {
+            parsed.incrementAndGet();
+            return Collections.emptyList();
+        };
+        CachingCertificateDiscoverer cache = new CachingCertificateDiscoverer(
+                new ValidatingCertificateDiscoverer(parser, fetcher), 10, Duration.ZERO, Duration.ofDays(1),
+                Duration.ZERO, Duration.ZERO, Runnable::run, now::get);
+
+        DiscoveryResponse response = cache.discover(DiscoveryMethod.advanced, ALICE);
+        assertTrue(response.isSuccessful());
+        assertEquals(1, parsed.get());
+
+        now.addAndGet(Duration.ofSeconds(60).toNanos());
+        assertSame(response.getCertificates(), cache.discover(DiscoveryMethod.advanced, ALICE).getCertificates());
+        assertEquals(1, conditionalFetches.get());
+        assertEquals(1, cache.getRevalidationCount());
+        assertEquals(1, parsed.get());
+
+        // The time to live is taken from the 304 response
+        now.addAndGet(Duration.ofSeconds(119).toNanos());
+        assertSame(response.getCertificates(), cache.discover(DiscoveryMethod.advanced, ALICE).getCertificates());
+        assertEquals(1, conditionalFetches.get());
+        now.addAndGet(Duration.ofSeconds(1).toNanos());
+        assertSame(response.getCertificates(), cache.discover(DiscoveryMethod.advanced, ALICE).getCertificates());
+        assertEquals(2, conditionalFetches.get());
+        assertEquals(1, parsed.get());
+    }
+
+    @Test
+    public void testRevalidationPassesThroughDecorators() {
+        List<Function<CertificateDiscoverer, CertificateDiscoverer>> decorators = Arrays.asList(
+                CoalescingCertificateDiscoverer::new,
+                delegate -> new HedgedCertificateDiscoverer(delegate, Runnable::run, Duration.ZERO));
+        for (Function<CertificateDiscoverer, CertificateDiscoverer> decorator : decorators) {
+            AtomicLong now = new AtomicLong();
+            AtomicInteger parsed = new AtomicInteger();
+            AtomicInteger conditionalFetches = new AtomicInteger();
+            CertificateFetcher fetcher = new CertificateFetcher() {
+                @Override
+                public InputStream fetchCertificate(WKDAddress address, DiscoveryMethod method) {
+                    return new ResponseInputStream(new ByteArrayInputStream(new byte[0]), headers(
+                            ResponseHeaders.ETAG, "\"v1\"",
+                            ResponseHeaders.CACHE_CONTROL, "max-age=60"));
+                }
+
+                @Override
+                public InputStream fetchCertificate(WKDAddress address, DiscoveryMethod method, Deadline deadline,
+                                                    ResponseHeaders cached)
+                        throws IOException {
+                    if (!cached.hasValidators()) {
+                        return fetchCertificate(address, method);
+                    }
+                    conditionalFetches.incrementAndGet();
+                    throw new NotModifiedException("Not modified.", cached.asMap());
+                }
+
+                @Override
+                public InputStream fetchPolicy(WKDAddress address, DiscoveryMethod method) {
+                    return new ByteArrayInputStream(new byte[0]);
+                }
+            };
+            CertificateParser parser = in -> {
+                parsed.incrementAndGet();
+                return Collections.emptyList();
+            };
+            CachingCertificateDiscoverer cache = new CachingCertificateDiscoverer(
+                    decorator.apply(new ValidatingCertificateDiscoverer(parser, fetcher)),
+                    10, Duration.ZERO, Duration.ofDays(1), Duration.ZERO, Duration.ZERO, Runnable::run, now::get);
+
+            assertTrue(cache.discover(DiscoveryMethod.advanced, ALICE).isSuccessful());
+            now.addAndGet(Duration.ofSeconds(60).toNanos());
+            assertTrue(cache.discover(DiscoveryMethod.advanced, ALICE).isSuccessful());
+            assertEquals(1, conditionalFetches.get());
+            assertEquals(1, cache.getRevalidationCount());
+            assertEquals(1, parsed.get());
+        }
+    }
+
+    @Test
+    public void testRevalidationFetchesAgainIfPolicyChanged() {
+        AtomicLong now = new AtomicLong();
+        AtomicBoolean policyAvailable = new AtomicBoolean();
+        AtomicInteger fetches = new AtomicInteger();
+        AtomicInteger conditionalFetches = new AtomicInteger();
+        CertificateFetcher fetcher = new CertificateFetcher() {
+            @Override
+            public InputStream fetchCertificate(WKDAddress address, DiscoveryMethod method) {
+                fetches.incrementAndGet();
+                return new ResponseInputStream(new ByteArrayInputStream(new byte[0]), headers(
+                        ResponseHeaders.ETAG, "\"v1\"",
+                        ResponseHeaders.CACHE_CONTROL, "max-age=60"));
+            }
+
+            @Override
+            public InputStream fetchCertificate(WKDAddress address, DiscoveryMethod method, Deadline deadline,
+                                                ResponseHeaders cached)
+                    throws IOException {
+                if (!cached.hasValidators()) {
+                    return fetchCertificate(address, method);
+                }
+                conditionalFetches.incrementAndGet();
+                throw new NotModifiedException("Not modified.",
+                        headers(ResponseHeaders.CACHE_CONTROL, "max-age=60").asMap());
+            }
+
+            @Override
+            public InputStream fetchPolicy(WKDAddress address, DiscoveryMethod method) throws IOException {
+                if (!policyAvailable.get()) {
+                    throw new IOException("Not found.");
+                }
+                return new ByteArrayInputStream(new byte[0]);
+            }
+        };
+        CachingCertificateDiscoverer cache = new CachingCertificateDiscoverer(
+                new ValidatingCertificateDiscoverer(in -> Collections.emptyList(), fetcher),
+                10, Duration.ofSeconds(60), Duration.ofDays(1), Duration.ZERO, Duration.ZERO, Runnable::run, now::get);
+
+        assertFalse(cache.discover(DiscoveryMethod.advanced, ALICE).isSuccessful());
+        assertEquals(1, fetches.get());
+
+        // The policy appeared, the 304 does not cover that
+        policyAvailable.set(true);
+        now.addAndGet(Duration.ofSeconds(60).toNanos());
+        assertTrue(cache.discover(DiscoveryMethod.advanced, ALICE).isSuccessful());
+        assertEquals(1, conditionalFetches.get());
+        assertEquals(2, fetches.get());
+
+        // Unchanged policy, the certificate is revalidated
+        now.addAndGet(Duration.ofSeconds(60).toNanos());
+        assertTrue(cache.discover(DiscoveryMethod.advanced, ALICE).isSuccessful());
+        assertEquals(2, conditionalFetches.get());
+        assertEquals(2, fetches.get());
+        assertEquals(1, cache.getRevalidationCount());
+
+        // The policy disappeared
+        policyAvailable.set(false);
+        now.addAndGet(Duration.ofSeconds(60).toNanos());
+        assertFalse(cache.discover(DiscoveryMethod.advanced, ALICE).isSuccessful());
+        assertEquals(3, conditionalFetches.get());
+        assertEquals(3, fetches.get());
+    }
+
+    @Test
+    public void testNoCacheResponseIsRevalidatedOnEveryLookup() {
+        AtomicInteger fetches = new AtomicInteger();
+        AtomicInteger conditionalFetches = new AtomicInteger();
+        CertificateFetcher fetcher = new CertificateFetcher() {
+            @Override
+            public InputStream fetchCertificate(WKDAddress address, DiscoveryMethod method) {
+                fetches.incrementAndGet();
+                if (address.equals(BOB)) {
+                    return new ResponseInputStream(new ByteArrayInputStream(new byte[0]), headers(
+                            ResponseHeaders.CACHE_CONTROL, "no-cache"));
+                }
+                return new ResponseInputStream(new ByteArrayInputStream(new byte[0]), headers(
+                        ResponseHeaders.ETAG, "\"v1\"",
+                        ResponseHeaders.CACHE_CONTROL, "no-cache, max-age=600"));
+            }
+
+            @Override
+            public InputStream fetchCertificate(WKDAddress address, DiscoveryMethod method, Deadline deadline,
+                                                ResponseHeaders cached)
+                    throws IOException {
+                if (!cached.hasValidators()) {
+                    return fetchCertificate(address, method);
+                }
+                conditionalFetches.incrementAndGet();
+                throw new NotModifiedException("Not modified.",
+                        headers(ResponseHeaders.CACHE_CONTROL, "no-cache").asMap());
+            }
+
+            @Override
+            public InputStream fetchPolicy(WKDAddress address, DiscoveryMethod method) {
+                return new ByteArrayInputStream(new byte[0]);
+            }
+        };
+        // The minimum time to live does not apply to no-cache responses
+        CachingCertificateDiscoverer cache = new CachingCertificateDiscoverer(
+                new ValidatingCertificateDiscoverer(in -> Collections.emptyList(), fetcher),
+                10, Duration.ofMinutes(1), Duration.ofDays(1));
+
+        DiscoveryResponse response = cache.discover(DiscoveryMethod.advanced, ALICE);
+        assertTrue(response.isSuccessful());
+        assertSame(response.getCertificates(), cache.discover(DiscoveryMethod.advanced, ALICE).getCertificates());
+        assertSame(response.getCertificates(), cache.discover(DiscoveryMethod.advanced, ALICE).getCertificates());
+        assertEquals(1, fetches.get());
+        assertEquals(2, conditionalFetches.get());
+        assertEquals(0, cache.getHitCount());
+
+        // Without validators, no-cache responses are not cached
+        cache.discover(DiscoveryMethod.advanced, BOB);
+        cache.discover(DiscoveryMethod.advanced, BOB);
+        assertEquals(3, fetches.get());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testStaleWhileRevalidate() throws IOException {
+        AtomicLong now = new AtomicLong();
+        AtomicInteger lookups = new AtomicInteger();
+        List<Runnable> refreshes = new ArrayList<>();
+        WKDPolicy policy = WKDPolicy.fromInputStream(new ByteArrayInputStream(new byte[0]));
+        CertificateDiscoverer delegate = (method, address) -> {
+            lookups.incrementAndGet();
+            return DiscoveryResponse.builder(method, address)
+                    .setPolicy(policy)
+                    .setResponseHeaders(headers(ResponseHeaders.CACHE_CONTROL, "max-age=60"))
+                    .build();
+        };
+        CachingCertificateDiscoverer cache = new CachingCertificateDiscoverer(delegate, 10, Duration.ZERO,
+                Duration.ofDays(1), Duration.ofSeconds(30), Duration.ZERO, refreshes::add, now::get);
+
+        DiscoveryResponse response = cache.discover(DiscoveryMethod.advanced, ALICE);
+        assertFalse(response.isStale());
+
+        now.addAndGet(Duration.ofSeconds(70).toNanos());
+        DiscoveryResult stale = cache.discover(ALICE);
+        assertTrue(stale.isStale());
+        // The stale advanced response is successful, so the direct method is not queried
+        assertEquals(1, stale.getResponses().size());
+        assertTrue(cache.discover(DiscoveryMethod.advanced, ALICE).isStale());
+        // A single background refresh is scheduled
+        assertEquals(1, refreshes.size());
+        assertEquals(1, lookups.get());
+        assertEquals(2, cache.getStaleHitCount());
+
+        refreshes.get(0).run();
+        assertEquals(2, lookups.get());
+        DiscoveryResponse refreshed = cache.discover(DiscoveryMethod.advanced, ALICE);
+        assertFalse(refreshed.isStale());
+        assertNotSame(response, refreshed);
+
+        // Beyond the window, the lookup waits for the delegate
+        now.addAndGet(Duration.ofSeconds(90).toNanos());
+        assertFalse(cache.discover(DiscoveryMethod.advanced, ALICE).isStale());
+        assertEquals(3, lookups.get());
+        assertEquals(1, refreshes.size());
+    }
+
+    @Test
+    public void testStaleIfError() throws IOException {
+        AtomicLong now = new AtomicLong();
+        AtomicBoolean down = new AtomicBoolean();
+        WKDPolicy policy = WKDPolicy.fromInputStream(new ByteArrayInputStream(new byte[0]));
+        CertificateDiscoverer delegate = (method, address) -> {
+            if (down.get()) {
+                return DiscoveryResponse.builder(method, address)
+                        .setFetchingFailure(new ConnectException("WKD is down."))
+                        .build();
+            }
+            return DiscoveryResponse.builder(method, address)
+                    .setPolicy(policy)
+                    .setResponseHeaders(headers(ResponseHeaders.CACHE_CONTROL, "max-age=60, stale-if-error=300"))
+                    .build();
+        };
+        CachingCertificateDiscoverer cache = new CachingCertificateDiscoverer(delegate, 10, Duration.ZERO,
+                Duration.ofDays(1), Duration.ZERO, Duration.ZERO, Runnable::run, now::get);
+
+        cache.discover(DiscoveryMethod.advanced, ALICE);
+        down.set(true);
+
+        // The stale-if-error directive overrides the configured window
+        now.addAndGet(Duration.ofSeconds(120).toNanos());
+        DiscoveryResponse stale = cache.discover(DiscoveryMethod.advanced, ALICE);
+        assertTrue(stale.isSuccessful());
+        assertTrue(stale.isStale());
+        assertEquals(1, cache.getStaleHitCount());
+
+        now.addAndGet(Duration.ofSeconds(300).toNanos());
+        DiscoveryResponse failed = cache.discover(DiscoveryMethod.advanced, ALICE);
+        assertFalse(failed.isSuccessful());
+        assertFalse(failed.isStale());
+    }
+
+    @Test
+    public void testFreshnessLifetimeFromExpires() {
+        Map<String, List<String>> map = new HashMap<>();
+        map.put("Date", Collections.singletonList("Sun, 06 Nov 1994 08:49:37 GMT"));
+        map.put("Expires", Collections.singletonList("Sun, 06 Nov 1994 09:49:37 GMT"));
+        map.put("age", Collections.singletonList("60"));
+        ResponseHeaders headers = ResponseHeaders.of(map);
+        assertEquals(Duration.ofMinutes(59), headers.getFreshnessLifetime());
+        assertNull(ResponseHeaders.empty().getFreshnessLifetime());
+        assertEquals(Duration.ZERO, ResponseHeaders.of(Collections.singletonMap(
+                "expires", Collections.singletonList("0"))).getFreshnessLifetime());
+    }
+
+    private static ResponseHeaders headers(String... namesAndValues) {
+        Map<String, List<String>> map = new HashMap<>();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            map.put(namesAndValues[i], Collections.singletonList(namesAndValues[i + 1]));
+        }
+        return ResponseHeaders.of(map);
+    }
+}
@@ -0,0 +1,68 @@
+// SPDX-FileCopyrightText: 2022 Paul Schaub <vanitasvitae@fsfe.org>
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package pgp.wkd.discovery;
+
+import org.junit.jupiter.api.Test;
+import pgp.wkd.WKDAddress;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class CoalescingCertificateDiscovererTest {
+
+    @Test
+    public void testConcurrentLookupsAreCoalesced() {
+        AtomicInteger policyFetches = new AtomicInteger();
+        AtomicInteger certificateFetches = new AtomicInteger();
+        List<CompletableFuture<InputStream>> pending = new ArrayList<>();
+        AsyncCertificateFetcher fetcher = new AsyncCertificateFetcher() {
+            @Override
+            public CompletableFuture<InputStream> fetchCertificate(WKDAddress address, DiscoveryMethod method) {
+                certificateFetches.incrementAndGet();
+                return CompletableFuture.completedFuture(new ByteArrayInputStream(new byte[0]));
+            }
+
+            @Override
+            public CompletableFuture<InputStream> fetchPolicy(WKDAddress address, DiscoveryMethod method) {
+                policyFetches.incrementAndGet();
+                CompletableFuture<InputStream> future = new CompletableFuture<>();
+                pending.add(future);
+                return future;
+            }
+        };
+        CoalescingCertificateDiscoverer discoverer = new CoalescingCertificateDiscoverer(
+                new ValidatingCertificateDiscoverer(in -> Collections.emptyList(),
+                        new CoalescingCertificateFetcher(fetcher), Runnable::run));
+
+        List<CompletableFuture<DiscoveryResponse>> responses = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            responses.add(discoverer.discoverAsync(DiscoveryMethod.advanced, WKDAddress.fromEmail("alice@pgpainless.org")));
+        }
+        responses.add(discoverer.discoverAsync(DiscoveryMethod.advanced, WKDAddress.fromEmail("bob@pgpainless.org")));
+        assertEquals(9, discoverer.getCoalescedCount());
+        assertEquals(2, discoverer.getInFlightCount());
+        // alice and bob share the policy fetch of their domain
+        assertEquals(1, policyFetches.get());
+
+        pending.get(0).complete(new ByteArrayInputStream(new byte[0]));
+        for (int i = 1; i < 10; i++) {
+            assertSame(responses.get(0).join(), responses.get(i).join());
+        }
+        assertEquals(2, certificateFetches.get());
+        assertEquals(0, discoverer.getInFlightCount());
+
+        // completed lookups are not cached
+        discoverer.discoverAsync(DiscoveryMethod.advanced, WKDAddress.fromEmail("alice@pgpainless.org"));
+        assertEquals(2, policyFetches.get());
+    }
+}
@@ -0,0 +1,75 @@
+// SPDX-FileCopyrightText: 2022 Paul Schaub <vanitasvitae@fsfe.org>
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package pgp.wkd.discovery;
+
+import org.junit.jupiter.api.Test;
+import pgp.wkd.WKDAddress;
+import pgp.wkd.exception.DeadlineExceededException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CoalescingCertificateFetcherTest {
+
+    @Test
+    public void testSharedPolicyFetchUsesDeadlineOfFirstCaller() throws InterruptedException, IOException {
+        List<Deadline> deadlines = new ArrayList<>();
+        List<CompletableFuture<InputStream>> pending = new ArrayList<>();
+        AsyncCertificateFetcher delegate = new AsyncCertificateFetcher() {
+            @Override
+            public CompletableFuture<InputStream> fetchCertificate(WKDAddress address, DiscoveryMethod method) {
+                return CompletableFuture.completedFuture(new ByteArrayInputStream(new byte[0]));
+            }
+
+            @Override
+            public CompletableFuture<InputStream> fetchPolicy(WKDAddress address, DiscoveryMethod method) {
+                return fetchPolicy(address, method, Deadline.none());
+            }
+
+            @Override
+            public CompletableFuture<InputStream> fetchPolicy(WKDAddress address, DiscoveryMethod method,
+                                                              Deadline deadline) {
+                deadlines.add(deadline);
+                CompletableFuture<InputStream> future = new CompletableFuture<>();
+                pending.add(future);
+                return future;
+            }
+        };
+        CoalescingCertificateFetcher fetcher = new CoalescingCertificateFetcher(delegate);
+
+        Deadline shortDeadline = Deadline.after(Duration.ofMillis(50));
+        CompletableFuture<InputStream> first = fetcher.fetchPolicy(
+                WKDAddress.fromEmail("alice@pgpainless.org"), DiscoveryMethod.advanced, shortDeadline);
+        CompletableFuture<InputStream> second = fetcher.fetchPolicy(
+                WKDAddress.fromEmail("bob@pgpainless.org"), DiscoveryMethod.advanced, Deadline.none());
+        assertEquals(1, deadlines.size());
+        assertSame(shortDeadline, deadlines.get(0));
+
+        // The request of the first caller times out
+        while (!shortDeadline.isExpired()) {
+            Thread.sleep(10);
+        }
+        pending.get(0).completeExceptionally(new IOException("Read timed out."));
+        CompletionException e = assertThrows(CompletionException.class, first::join);
+        assertTrue(e.getCause() instanceof DeadlineExceededException);
+
+        // The second caller has time left, and fetches again
+        assertEquals(2, deadlines.size());
+        assertSame(Deadline.none(), deadlines.get(1));
+        pending.get(1).complete(new ByteArrayInputStream(new byte[0]));
+        assertEquals(-1, second.join().read());
+    }
+}
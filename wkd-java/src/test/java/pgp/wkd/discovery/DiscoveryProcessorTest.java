@@ -0,0 +1,169 @@
+// SPDX-FileCopyrightText: 2022 Paul Schaub <vanitasvitae@fsfe.org>
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package pgp.wkd.discovery;
+
+import org.junit.jupiter.api.Test;
+import pgp.wkd.WKDAddress;
+
+import java.net.ConnectException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DiscoveryProcessorTest {
+
+    @Test
+    public void testBoundedInFlightLookups() throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        AsyncCertificateDiscoverer discoverer = (method, address) -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            return CompletableFuture.supplyAsync(() -> {
+                sleep(5);
+                inFlight.decrementAndGet();
+                return DiscoveryResponse.builder(method, address)
+                        .setFetchingFailure(new ConnectException())
+                        .build();
+            }, executor);
+        };
+
+        DiscoveryProcessor processor = new DiscoveryProcessor(discoverer, 3);
+        CollectingSubscriber subscriber = new CollectingSubscriber(2);
+        processor.subscribe(subscriber);
+
+        try (SubmissionPublisher<WKDAddress> publisher = new SubmissionPublisher<>()) {
+            publisher.subscribe(processor);
+            for (int i = 0; i < 50; i++) {
+                publisher.submit(WKDAddress.fromEmail("user" + i + "@pgpainless.org"));
+            }
+        }
+
+        assertTrue(subscriber.done.await(10, TimeUnit.SECONDS));
+        assertEquals(50, subscriber.results.size());
+        assertNull(subscriber.error);
+        // each lookup queries both methods, so at most 3 lookups mean at most 3 concurrent method queries
+        assertTrue(maxInFlight.get() <= 3);
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testNoLookupsWithoutDemand() throws InterruptedException {
+        AtomicInteger lookups = new AtomicInteger();
+        CertificateDiscoverer discoverer = (method, address) -> {
+            lookups.incrementAndGet();
+            return DiscoveryResponse.builder(method, address).build();
+        };
+        DiscoveryProcessor processor = new DiscoveryProcessor(discoverer, Runnable::run, 4);
+        CollectingSubscriber subscriber = new CollectingSubscriber(0);
+        processor.subscribe(subscriber);
+
+        SubmissionPublisher<WKDAddress> publisher = new SubmissionPublisher<>(Runnable::run, 16);
+        publisher.subscribe(processor);
+        for (int i = 0; i < 5; i++) {
+            publisher.offer(WKDAddress.fromEmail("user" + i + "@pgpainless.org"), null);
+        }
+        assertEquals(0, lookups.get());
+
+        subscriber.subscription.request(1);
+        assertEquals(1, subscriber.results.size());
+        subscriber.subscription.cancel();
+        publisher.close();
+    }
+
+    @Test
+    public void testFailedLookupCancelsOtherLookups() throws InterruptedException {
+        List<CompletableFuture<DiscoveryResponse>> pending = new CopyOnWriteArrayList<>();
+        AsyncCertificateDiscoverer discoverer = (method, address) -> {
+            CompletableFuture<DiscoveryResponse> response = new CompletableFuture<>();
+            if (address.getLocalPart().equals("fail")) {
+                response.completeExceptionally(new IllegalStateException());
+            } else {
+                pending.add(response);
+            }
+            return response;
+        };
+        DiscoveryProcessor processor = new DiscoveryProcessor(discoverer, 4);
+        CollectingSubscriber subscriber = new CollectingSubscriber(4);
+        processor.subscribe(subscriber);
+
+        SubmissionPublisher<WKDAddress> publisher = new SubmissionPublisher<>(Runnable::run, 16);
+        publisher.subscribe(processor);
+        publisher.offer(WKDAddress.fromEmail("alice@pgpainless.org"), null);
+        publisher.offer(WKDAddress.fromEmail("bob@pgpainless.org"), null);
+        assertEquals(2, pending.size());
+        publisher.offer(WKDAddress.fromEmail("fail@pgpainless.org"), null);
+
+        assertTrue(subscriber.done.await(10, TimeUnit.SECONDS));
+        assertTrue(subscriber.error instanceof IllegalStateException);
+        for (CompletableFuture<DiscoveryResponse> response : pending) {
+            assertTrue(response.isCancelled());
+        }
+        publisher.close();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Subscriber which requests results in small batches.
+     */
+    private static class CollectingSubscriber implements Flow.Subscriber<DiscoveryResult> {
+
+        private final int batchSize;
+        private final List<DiscoveryResult> results = new CopyOnWriteArrayList<>();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile Flow.Subscription subscription;
+        private volatile Throwable error;
+        private int received;
+
+        CollectingSubscriber(int batchSize) {
+            this.batchSize = batchSize;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if (batchSize > 0) {
+                subscription.request(batchSize);
+            }
+        }
+
+        @Override
+        public void onNext(DiscoveryResult item) {
+            results.add(item);
+            if (batchSize > 0 && ++received % batchSize == 0) {
+                subscription.request(batchSize);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+            done.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            done.countDown();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+// SPDX-FileCopyrightText: 2022 Paul Schaub <vanitasvitae@fsfe.org>
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package pgp.wkd.discovery;
+
+import org.junit.jupiter.api.Test;
+import pgp.wkd.WKDAddress;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class HedgedCertificateDiscovererTest {
+
+    private static final WKDAddress ADDRESS = WKDAddress.fromEmail("alice@pgpainless.org");
+
+    @Test
+    public void testDirectWinsIfAdvancedHangs() throws InterruptedException {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        FakeDiscoverer fake = new FakeDiscoverer()
+                .respond(DiscoveryMethod.advanced, 10_000, true)
+                .respond(DiscoveryMethod.direct, 0, true);
+        CertificateDiscoverer discoverer = new HedgedCertificateDiscoverer(fake, executor, Duration.ofMillis(50));
+
+        long start = System.nanoTime();
+        DiscoveryResult result = discoverer.discover(ADDRESS);
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5000);
+
+        assertEquals(1, result.getResponses().size());
+        assertEquals(DiscoveryMethod.direct, result.getResponses().get(0).getMethod());
+        // losing advanced request is cancelled
+        assertTrue(fake.interrupted.await(5, TimeUnit.SECONDS));
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testAdvancedTakesPrecedenceWithinGracePeriod() {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        FakeDiscoverer fake = new FakeDiscoverer()
+                .respond(DiscoveryMethod.advanced, 200, true)
+                .respond(DiscoveryMethod.direct, 0, true);
+        CertificateDiscoverer discoverer = new HedgedCertificateDiscoverer(
+                fake, executor, Duration.ZERO, Duration.ofSeconds(10));
+
+        DiscoveryResult result = discoverer.discover(ADDRESS);
+        assertEquals(1, result.getResponses().size());
+        assertEquals(DiscoveryMethod.advanced, result.getResponses().get(0).getMethod());
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testFastAdvancedDoesNotHedge() {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        FakeDiscoverer fake = new FakeDiscoverer()
+                .respond(DiscoveryMethod.advanced, 0, true)
+                .respond(DiscoveryMethod.direct, 0, true);
+        CertificateDiscoverer discoverer = new HedgedCertificateDiscoverer(fake, executor, Duration.ofSeconds(10));
+
+        DiscoveryResult result = discoverer.discover(ADDRESS);
+        assertEquals(1, result.getResponses().size());
+        assertEquals(DiscoveryMethod.advanced, result.getResponses().get(0).getMethod());
+        assertFalse(fake.called.containsKey(DiscoveryMethod.direct));
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testFailingAdvancedFallsBackToDirect() {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        FakeDiscoverer fake = new FakeDiscoverer()
+                .respond(DiscoveryMethod.advanced, 0, false)
+                .respond(DiscoveryMethod.direct, 0, true);
+        CertificateDiscoverer discoverer = new HedgedCertificateDiscoverer(fake, executor, Duration.ofSeconds(10));
+
+        DiscoveryResult result = discoverer.discover(ADDRESS);
+        assertEquals(2, result.getResponses().size());
+        assertFalse(result.getResponses().get(0).isSuccessful());
+        assertTrue(result.getResponses().get(1).isSuccessful());
+        executor.shutdownNow();
+    }
+
+    /**
+     * Discoverer which answers each method after a delay.
+     */
+    private static class FakeDiscoverer implements CertificateDiscoverer {
+
+        private final Map<DiscoveryMethod, Long> delays = new EnumMap<>(DiscoveryMethod.class);
+        private final Map<DiscoveryMethod, Boolean> successes = new EnumMap<>(DiscoveryMethod.class);
+        private final Map<DiscoveryMethod, Boolean> called = new ConcurrentHashMap<>();
+        private final CountDownLatch interrupted = new CountDownLatch(1);
+
+        FakeDiscoverer respond(DiscoveryMethod method, long delayMillis, boolean success) {
+            delays.put(method, delayMillis);
+            successes.put(method, success);
+            return this;
+        }
+
+        @Override
+        public DiscoveryResponse discover(DiscoveryMethod method, WKDAddress address) {
+            called.put(method, true);
+            DiscoveryResponse.Builder builder = DiscoveryResponse.builder(method, address);
+            try {
+                Thread.sleep(delays.get(method));
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+                return builder.setFetchingFailure(e).build();
+            }
+            if (!successes.get(method)) {
+                return builder.setFetchingFailure(new ConnectException("Connection refused")).build();
+            }
+            try {
+                return builder.setPolicy(WKDPolicy.fromInputStream(new ByteArrayInputStream(new byte[0]))).build();
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,170 @@
+// SPDX-FileCopyrightText: 2022 Paul Schaub <vanitasvitae@fsfe.org>
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package pgp.wkd.discovery;
+
+import org.junit.jupiter.api.Test;
+import pgp.wkd.WKDAddress;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class StagedCertificateDiscovererTest {
+
+    private static final WKDAddress ADDRESS = WKDAddress.fromEmail("alice@pgpainless.org");
+
+    @Test
+    public void testStagesRunOnTheirOwnThreads() {
+        Map<String, String> threads = new ConcurrentHashMap<>();
+        CountDownLatch attached = new CountDownLatch(1);
+        CertificateFetcher fetcher = new CertificateFetcher() {
+            @Override
+            public InputStream fetchCertificate(WKDAddress address, DiscoveryMethod method) throws IOException {
+                threads.put("fetch", Thread.currentThread().getName());
+                try {
+                    // Let the test attach its stage before the response completes
+                    attached.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+                return new ByteArrayInputStream(new byte[0]);
+            }
+
+            @Override
+            public InputStream fetchPolicy(WKDAddress address, DiscoveryMethod method) {
+                return new ByteArrayInputStream(new byte[0]);
+            }
+        };
+        CertificateParser parser = in -> {
+            threads.put("parse", Thread.currentThread().getName());
+            return Collections.emptyList();
+        };
+
+        try (StagedCertificateDiscoverer discoverer = new StagedCertificateDiscoverer(parser, fetcher)) {
+            CompletableFuture<String> assembly = discoverer.discoverAsync(DiscoveryMethod.advanced, ADDRESS)
+                    .thenApply(response -> Thread.currentThread().getName());
+            attached.countDown();
+            assertTrue(assembly.join().startsWith("wkd-assembly-"));
+            assertTrue(threads.get("fetch").startsWith("wkd-fetch-"));
+            assertTrue(threads.get("parse").startsWith("wkd-parse-"));
+
+            assertEquals(2, discoverer.getFetchStage().getStartedTaskCount());
+            assertEquals(2, discoverer.getParseStage().getStartedTaskCount());
+            assertEquals(0, discoverer.getFetchStage().getRejectedTaskCount());
+        }
+    }
+
+    @Test
+    public void testFullQueueRejectsLookups() throws InterruptedException {
+        CountDownLatch fetching = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CertificateFetcher fetcher = new CertificateFetcher() {
+            @Override
+            public InputStream fetchCertificate(WKDAddress address, DiscoveryMethod method) {
+                fetching.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return new ByteArrayInputStream(new byte[0]);
+            }
+
+            @Override
+            public InputStream fetchPolicy(WKDAddress address, DiscoveryMethod method) {
+                return fetchCertificate(address, method);
+            }
+        };
+
+        DiscoveryStage fetchStage = new DiscoveryStage("fetch", 1, 1);
+        try (StagedCertificateDiscoverer discoverer = new StagedCertificateDiscoverer(
+                in -> Collections.emptyList(), fetcher,
+                fetchStage, new DiscoveryStage("parse", 1, 8), new DiscoveryStage("assembly", 1, 8))) {
+            // Occupies the thread and the queue of the fetch stage
+            CompletableFuture<DiscoveryResponse> first = discoverer.discoverAsync(DiscoveryMethod.advanced, ADDRESS);
+            assertTrue(fetching.await(5, TimeUnit.SECONDS));
+
+            CompletableFuture<DiscoveryResponse> second = discoverer.discoverAsync(DiscoveryMethod.direct, ADDRESS);
+            CompletionException e = assertThrows(CompletionException.class, second::join);
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+            assertTrue(fetchStage.getRejectedTaskCount() >= 1);
+            assertEquals(1, fetchStage.getPeakQueueSize());
+
+            release.countDown();
+            assertTrue(first.join().isSuccessful());
+        }
+    }
+
+    @Test
+    public void testFullParseQueueClosesFetchedStreams() throws InterruptedException {
+        List<AtomicBoolean> closed = new CopyOnWriteArrayList<>();
+        CertificateFetcher fetcher = new CertificateFetcher() {
+            @Override
+            public InputStream fetchCertificate(WKDAddress address, DiscoveryMethod method) {
+                AtomicBoolean isClosed = new AtomicBoolean();
+                closed.add(isClosed);
+                return new ByteArrayInputStream(new byte[0]) {
+                    @Override
+                    public void close() {
+                        isClosed.set(true);
+                    }
+                };
+            }
+
+            @Override
+            public InputStream fetchPolicy(WKDAddress address, DiscoveryMethod method) {
+                return fetchCertificate(address, method);
+            }
+        };
+
+        CountDownLatch parsing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        DiscoveryStage parseStage = new DiscoveryStage("parse", 1, 1);
+        try (StagedCertificateDiscoverer discoverer = new StagedCertificateDiscoverer(
+                in -> Collections.emptyList(), fetcher,
+                new DiscoveryStage("fetch", 1, 8), parseStage, new DiscoveryStage("assembly", 1, 8))) {
+            // Occupies the thread and the queue of the parse stage
+            parseStage.execute(() -> {
+                parsing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            assertTrue(parsing.await(5, TimeUnit.SECONDS));
+            parseStage.execute(() -> { });
+
+            CompletableFuture<DiscoveryResponse> rejected = discoverer.discoverAsync(DiscoveryMethod.advanced, ADDRESS);
+            CompletionException e = assertThrows(CompletionException.class, rejected::join);
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+            assertTrue(parseStage.getRejectedTaskCount() >= 1);
+
+            assertFalse(closed.isEmpty());
+            for (AtomicBoolean isClosed : closed) {
+                assertTrue(isClosed.get());
+            }
+        } finally {
+            release.countDown();
+        }
+    }
+}
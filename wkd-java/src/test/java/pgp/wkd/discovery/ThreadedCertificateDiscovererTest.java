@@ -0,0 +1,64 @@
+// SPDX-FileCopyrightText: 2022 Paul Schaub <vanitasvitae@fsfe.org>
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package pgp.wkd.discovery;
+
+import org.junit.jupiter.api.Test;
+import pgp.wkd.WKDAddress;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ThreadedCertificateDiscovererTest {
+
+    @Test
+    public void testBlockingFetchesRunConcurrently() {
+        CertificateFetcher slowFetcher = new CertificateFetcher() {
+            @Override
+            public InputStream fetchCertificate(WKDAddress address, DiscoveryMethod method) throws IOException {
+                return slowly();
+            }
+
+            @Override
+            public InputStream fetchPolicy(WKDAddress address, DiscoveryMethod method) throws IOException {
+                return slowly();
+            }
+
+            private InputStream slowly() throws IOException {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+                return new ByteArrayInputStream(new byte[0]);
+            }
+        };
+
+        try (ThreadedCertificateDiscoverer discoverer = new ThreadedCertificateDiscoverer(
+                in -> Collections.emptyList(), slowFetcher, 16)) {
+            long start = System.nanoTime();
+            List<CompletableFuture<DiscoveryResult>> results = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                results.add(discoverer.discoverAsync(WKDAddress.fromEmail("user" + i + "@pgpainless.org")));
+            }
+            for (CompletableFuture<DiscoveryResult> result : results) {
+                assertTrue(result.join().getResponses().get(0).isSuccessful());
+            }
+            // Sequentially, this would take 16 * 2 * 200ms
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 3000);
+
+            assertTrue(discoverer.discover(WKDAddress.fromEmail("alice@pgpainless.org")).getResponses()
+                    .get(0).isSuccessful());
+        }
+    }
+}
@@ -0,0 +1,252 @@
+// SPDX-FileCopyrightText: 2022 Paul Schaub <vanitasvitae@fsfe.org>
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package pgp.wkd.discovery;
+
+import org.junit.jupiter.api.Test;
+import pgp.wkd.WKDAddress;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ValidatingCertificateDiscovererTest {
+
+    private static final WKDAddress ADDRESS = WKDAddress.fromEmail("alice@pgpainless.org");
+
+    @Test
+    public void testAsyncDiscoveryFallsBackToDirect() {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        // advanced method has no policy, direct method has no certificate
+        AsyncCertificateFetcher fetcher = new AsyncCertificateFetcher() {
+            @Override
+            public CompletableFuture<InputStream> fetchCertificate(WKDAddress address, DiscoveryMethod method) {
+                CompletableFuture<InputStream> future = new CompletableFuture<>();
+                future.completeExceptionally(new ConnectException("404"));
+                return future;
+            }
+
+            @Override
+            public CompletableFuture<InputStream> fetchPolicy(WKDAddress address, DiscoveryMethod method) {
+                if (method == DiscoveryMethod.advanced) {
+                    return fetchCertificate(address, method);
+                }
+                return CompletableFuture.supplyAsync(() -> new ByteArrayInputStream(new byte[0]), executor);
+            }
+        };
+        ValidatingCertificateDiscoverer discoverer = new ValidatingCertificateDiscoverer(
+                in -> Collections.emptyList(), fetcher, executor);
+
+        DiscoveryResult result = discoverer.discoverAsync(ADDRESS).join();
+        assertEquals(2, result.getResponses().size());
+        DiscoveryResponse advanced = result.getResponses().get(0);
+        assertFalse(advanced.hasPolicy());
+        assertTrue(advanced.getFetchingFailure() instanceof ConnectException);
+        DiscoveryResponse direct = result.getResponses().get(1);
+        assertTrue(direct.hasPolicy());
+        assertTrue(direct.getFetchingFailure() instanceof ConnectException);
+
+        // blocking view of the same lookup
+        assertEquals(DiscoveryMethod.direct, discoverer.discover(DiscoveryMethod.direct, ADDRESS).getMethod());
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testBlockingFetcher() {
+        CertificateFetcher fetcher = new CertificateFetcher() {
+            @Override
+            public InputStream fetchCertificate(WKDAddress address, DiscoveryMethod method) {
+                return new ByteArrayInputStream(new byte[0]);
+            }
+
+            @Override
+            public InputStream fetchPolicy(WKDAddress address, DiscoveryMethod method) {
+                return new ByteArrayInputStream(new byte[0]);
+            }
+        };
+        ValidatingCertificateDiscoverer discoverer = new ValidatingCertificateDiscoverer(
+                in -> Collections.emptyList(), fetcher);
+
+        CompletableFuture<DiscoveryResponse> future = discoverer.discoverAsync(DiscoveryMethod.advanced, ADDRESS);
+        // blocking fetchers complete on the calling thread
+        assertTrue(future.isDone());
+        assertTrue(future.join().isSuccessful());
+        assertTrue(discoverer.discover(ADDRESS).getCertificates().isEmpty());
+
+        ValidatingCertificateDiscoverer failing = new ValidatingCertificateDiscoverer(
+                in -> {
+                    throw new IllegalStateException("Parser failure");
+                }, fetcher);
+        assertThrows(IllegalStateException.class, () -> failing.discover(DiscoveryMethod.advanced, ADDRESS));
+    }
+
+    @Test
+    public void testConcurrentFetching() {
+        // The policy is only served once the certificate was requested, so sequential fetching would never complete
+        CompletableFuture<InputStream> policy = new CompletableFuture<>();
+        AsyncCertificateFetcher fetcher = new AsyncCertificateFetcher() {
+            @Override
+            public CompletableFuture<InputStream> fetchCertificate(WKDAddress address, DiscoveryMethod method) {
+                policy.complete(new ByteArrayInputStream(new byte[0]));
+                return CompletableFuture.completedFuture(new ByteArrayInputStream(new byte[0]));
+            }
+
+            @Override
+            public CompletableFuture<InputStream> fetchPolicy(WKDAddress address, DiscoveryMethod method) {
+                return policy;
+            }
+        };
+
+        ValidatingCertificateDiscoverer sequential = new ValidatingCertificateDiscoverer(
+                in -> Collections.emptyList(), fetcher, Runnable::run);
+        assertFalse(sequential.discoverAsync(DiscoveryMethod.advanced, ADDRESS).isDone());
+
+        ValidatingCertificateDiscoverer concurrent = new ValidatingCertificateDiscoverer(
+                in -> Collections.emptyList(), fetcher, Runnable::run, true);
+        DiscoveryResponse response = concurrent.discover(DiscoveryMethod.advanced, ADDRESS);
+        assertTrue(response.isSuccessful());
+        assertTrue(response.hasPolicy());
+    }
+
+    @Test
+    public void testDeadlineExceeded() {
+        // The server never answers
+        AtomicInteger requests = new AtomicInteger();
+        AsyncCertificateFetcher fetcher = new AsyncCertificateFetcher() {
+            @Override
+            public CompletableFuture<InputStream> fetchCertificate(WKDAddress address, DiscoveryMethod method) {
+                requests.incrementAndGet();
+                return new CompletableFuture<>();
+            }
+
+            @Override
+            public CompletableFuture<InputStream> fetchPolicy(WKDAddress address, DiscoveryMethod method) {
+                return fetchCertificate(address, method);
+            }
+        };
+        ValidatingCertificateDiscoverer discoverer = new ValidatingCertificateDiscoverer(
+                in -> Collections.emptyList(), fetcher, Runnable::run);
+
+        long start = System.nanoTime();
+        DiscoveryResult result = discoverer.discover(ADDRESS, Deadline.after(Duration.ofMillis(100)));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5000);
+
+        assertEquals(2, result.getResponses().size());
+        for (DiscoveryResponse response : result.getResponses()) {
+            assertFalse(response.isSuccessful());
+            assertTrue(response.isDeadlineExceeded());
+        }
+        // Once the deadline passed, no further requests are issued
+        assertEquals(1, requests.get());
+
+        DiscoveryResponse expired = discoverer.discover(DiscoveryMethod.advanced, ADDRESS,
+                Deadline.after(Duration.ZERO));
+        assertTrue(expired.isDeadlineExceeded());
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void testCancellationClosesStreamAndCancelsFetch() throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch closed = new CountDownLatch(1);
+        // Policy stream which blocks until it is closed
+        InputStream hangingPolicy = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                reading.countDown();
+                try {
+                    closed.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new IOException("Stream closed");
+            }
+
+            @Override
+            public void close() {
+                closed.countDown();
+            }
+        };
+        CompletableFuture<InputStream> certificateFetch = new CompletableFuture<>();
+        AsyncCertificateFetcher fetcher = new AsyncCertificateFetcher() {
+            @Override
+            public CompletableFuture<InputStream> fetchCertificate(WKDAddress address, DiscoveryMethod method) {
+                return certificateFetch;
+            }
+
+            @Override
+            public CompletableFuture<InputStream> fetchPolicy(WKDAddress address, DiscoveryMethod method) {
+                return CompletableFuture.completedFuture(hangingPolicy);
+            }
+        };
+        ValidatingCertificateDiscoverer discoverer = new ValidatingCertificateDiscoverer(
+                in -> Collections.emptyList(), fetcher, executor, true);
+
+        CompletableFuture<DiscoveryResponse> lookup = discoverer.discoverAsync(DiscoveryMethod.advanced, ADDRESS);
+        assertTrue(reading.await(5, TimeUnit.SECONDS));
+        assertTrue(lookup.cancel(true));
+
+        assertTrue(closed.await(5, TimeUnit.SECONDS));
+        assertTrue(certificateFetch.isCancelled());
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testInterruptedBlockingLookupIsReportedAsCancelled() throws InterruptedException {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        CountDownLatch fetching = new CountDownLatch(1);
+        CountDownLatch disconnected = new CountDownLatch(1);
+        // Blocking fetcher whose request does not respond to interrupts, but to closing its connection
+        CertificateFetcher fetcher = new CertificateFetcher() {
+            @Override
+            public InputStream fetchCertificate(WKDAddress address, DiscoveryMethod method) throws IOException {
+                Futures.closeOnCancel(disconnected::countDown);
+                fetching.countDown();
+                while (true) {
+                    try {
+                        if (disconnected.await(10, TimeUnit.SECONDS)) {
+                            throw new IOException("Connection closed");
+                        }
+                    } catch (InterruptedException e) {
+                        // ignore
+                    }
+                }
+            }
+
+            @Override
+            public InputStream fetchPolicy(WKDAddress address, DiscoveryMethod method) throws IOException {
+                return fetchCertificate(address, method);
+            }
+        };
+        ValidatingCertificateDiscoverer discoverer = new ValidatingCertificateDiscoverer(
+                in -> Collections.emptyList(), AsyncCertificateFetcher.fromBlocking(fetcher, executor), executor);
+
+        CompletableFuture<DiscoveryResponse> response = new CompletableFuture<>();
+        Thread caller = new Thread(() -> response.complete(discoverer.discover(DiscoveryMethod.advanced, ADDRESS)));
+        caller.start();
+        assertTrue(fetching.await(5, TimeUnit.SECONDS));
+        caller.interrupt();
+        caller.join(5000);
+
+        assertTrue(response.isDone());
+        assertTrue(response.join().isCancelled());
+        assertTrue(disconnected.await(5, TimeUnit.SECONDS));
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,95 @@
+// SPDX-FileCopyrightText: 2022 Paul Schaub <vanitasvitae@fsfe.org>
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package pgp.wkd.discovery;
+
+import org.junit.jupiter.api.Test;
+import pgp.wkd.WKDAddress;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class WKDPolicyCacheTest {
+
+    private static final WKDAddress ALICE = WKDAddress.fromEmail("alice@pgpainless.org");
+    private static final WKDAddress BOB = WKDAddress.fromEmail("bob@pgpainless.org");
+
+    private final AtomicLong now = new AtomicLong();
+    private final AtomicInteger policyFetches = new AtomicInteger();
+    private volatile boolean policyAvailable = true;
+
+    private final CertificateFetcher fetcher = new CertificateFetcher() {
+        @Override
+        public InputStream fetchCertificate(WKDAddress address, DiscoveryMethod method) {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+
+        @Override
+        public InputStream fetchPolicy(WKDAddress address, DiscoveryMethod method) throws IOException {
+            policyFetches.incrementAndGet();
+            if (!policyAvailable) {
+                throw new ConnectException("404");
+            }
+            return new ByteArrayInputStream(new byte[0]);
+        }
+    };
+
+    @Test
+    public void testPolicyIsSharedPerDomainUntilExpiry() {
+        WKDPolicyCache cache = new WKDPolicyCache(Duration.ofMinutes(10), Duration.ofMinutes(1), now::get);
+        ValidatingCertificateDiscoverer discoverer = new ValidatingCertificateDiscoverer(
+                in -> Collections.emptyList(), fetcher, cache);
+
+        assertTrue(discoverer.discover(DiscoveryMethod.advanced, ALICE).hasPolicy());
+        assertTrue(discoverer.discover(DiscoveryMethod.advanced, BOB).hasPolicy());
+        assertEquals(1, policyFetches.get());
+        assertEquals(1, cache.getHitCount());
+
+        // Methods are cached separately
+        discoverer.discover(DiscoveryMethod.direct, ALICE);
+        assertEquals(2, policyFetches.get());
+
+        now.addAndGet(Duration.ofMinutes(10).toNanos());
+        assertTrue(discoverer.discover(DiscoveryMethod.advanced, ALICE).hasPolicy());
+        assertEquals(3, policyFetches.get());
+
+        cache.invalidate(ALICE.getDomain());
+        discoverer.discover(DiscoveryMethod.advanced, BOB);
+        assertEquals(4, policyFetches.get());
+    }
+
+    @Test
+    public void testFailuresAreCachedShorter() {
+        WKDPolicyCache cache = new WKDPolicyCache(Duration.ofMinutes(10), Duration.ofMinutes(1), now::get);
+        ValidatingCertificateDiscoverer discoverer = new ValidatingCertificateDiscoverer(
+                in -> Collections.emptyList(), fetcher, cache);
+        policyAvailable = false;
+
+        assertFalse(discoverer.discover(DiscoveryMethod.advanced, ALICE).hasPolicy());
+        DiscoveryResponse cached = discoverer.discover(DiscoveryMethod.advanced, BOB);
+        assertFalse(cached.hasPolicy());
+        assertFalse(cached.isSuccessful());
+        assertEquals(1, policyFetches.get());
+
+        policyAvailable = true;
+        now.addAndGet(Duration.ofMinutes(1).toNanos());
+        assertTrue(discoverer.discover(DiscoveryMethod.advanced, BOB).hasPolicy());
+        assertEquals(2, policyFetches.get());
+
+        cache.purgeExpired();
+        assertEquals(1, cache.size());
+        cache.invalidateAll();
+        assertEquals(0, cache.size());
+    }
+}
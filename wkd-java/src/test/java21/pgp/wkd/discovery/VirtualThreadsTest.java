@@ -0,0 +1,50 @@
+// SPDX-FileCopyrightText: 2022 Paul Schaub <vanitasvitae@fsfe.org>
+//
+// SPDX-License-Identifier: Apache-2.0
+
+package pgp.wkd.discovery;
+
+import org.junit.jupiter.api.Test;
+import pgp.wkd.WKDAddress;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs against the multi-release JAR on Java 21, where the Java 21 variant of {@link DiscoveryThreads} is in use.
+ */
+public class VirtualThreadsTest {
+
+    @Test
+    public void testBlockingFetchesRunOnVirtualThreads() {
+        assertTrue(ThreadedCertificateDiscoverer.isUsingVirtualThreads());
+
+        Set<Boolean> virtual = ConcurrentHashMap.newKeySet();
+        CertificateFetcher fetcher = new CertificateFetcher() {
+            @Override
+            public InputStream fetchCertificate(WKDAddress address, DiscoveryMethod method) {
+                virtual.add(Thread.currentThread().isVirtual());
+                return new ByteArrayInputStream(new byte[0]);
+            }
+
+            @Override
+            public InputStream fetchPolicy(WKDAddress address, DiscoveryMethod method) {
+                virtual.add(Thread.currentThread().isVirtual());
+                return new ByteArrayInputStream(new byte[0]);
+            }
+        };
+
+        try (ThreadedCertificateDiscoverer discoverer = new ThreadedCertificateDiscoverer(
+                in -> Collections.emptyList(), fetcher)) {
+            assertTrue(discoverer.discover(WKDAddress.fromEmail("alice@pgpainless.org")).getResponses()
+                    .get(0).isSuccessful());
+        }
+        assertEquals(Collections.singleton(true), virtual);
+    }
+}